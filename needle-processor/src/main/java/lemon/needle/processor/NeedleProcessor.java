@@ -0,0 +1,669 @@
+package lemon.needle.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * 在编译期读取 {@code @Inject}, {@code @Provides}, {@code @Singleton}等作用域注解, {@code @ImplementedBy}, {@code @ProvidedBy},
+ * 生成:
+ * <ul>
+ * <li>{@code <Bean>$$NeedleFactory}: 继承 StaticFactory, 直接 new 实例、赋值字段、调用方法</li>
+ * <li>{@code <Module>$$NeedleProvides}: 继承 StaticProvides, 直接调用 {@code @Provides} 方法</li>
+ * <li>{@code META-INF/needle/index}: 上面两类以及 ImplementedBy/ProvidedBy 的索引</li>
+ * </ul>
+ *
+ * 增量编译时只处理改动过的类: 索引与输出目录中已有的索引合并, 本次编译的类以新的结果为准, 不再存在的类的条目去掉。
+ *
+ * 运行时 InjectorImpl 按索引加载生成类, 不再扫描构造函数和成员。
+ * private、final或者从其他包继承的非public成员无法在生成类中访问, 这样的类不生成, 运行时仍然走反射。
+ *
+ * 注解按名字匹配, 处理器本身不依赖needle。
+ */
+@SupportedAnnotationTypes("*")
+public class NeedleProcessor extends AbstractProcessor {
+
+    static final String INDEX = "META-INF/needle/index";
+
+    private static final String INJECT = "javax.inject.Inject";
+    private static final String SCOPE = "javax.inject.Scope";
+    private static final String QUALIFIER = "javax.inject.Qualifier";
+    private static final String NAMED = "javax.inject.Named";
+    private static final String PROVIDER = "javax.inject.Provider";
+    private static final String LAZY = "lemon.needle.ioc.Lazy";
+    private static final String DEFERRED = "lemon.needle.ioc.annotations.Deferred";
+    private static final String ASYNC = "lemon.needle.ioc.annotations.Async";
+    private static final String COMPLETABLE_FUTURE = "java.util.concurrent.CompletableFuture";
+    private static final String LISTENABLE_FUTURE = "com.google.common.util.concurrent.ListenableFuture";
+    private static final String PROVIDES = "lemon.needle.ioc.annotations.Provides";
+    private static final String IMPLEMENTED_BY = "lemon.needle.ioc.annotations.ImplementedBy";
+    private static final String PROVIDED_BY = "lemon.needle.ioc.annotations.ProvidedBy";
+
+    private static final String KEY = "lemon.needle.ioc.Key";
+    private static final String DEPENDENCY = "lemon.needle.ioc.factory.Dependency";
+
+    private Elements elements;
+    private Types types;
+    private Filer filer;
+    private Messager messager;
+
+    private final Set<String> index = new TreeSet<>();
+    //本次编译处理过的类的binary name
+    private final Set<String> processed = new HashSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+        this.filer = processingEnv.getFiler();
+        this.messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            visit(type);
+        }
+        if (roundEnv.processingOver()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    private void visit(TypeElement type) {
+        processed.add(binaryName(type));
+        AnnotationMirror implementedBy = annotation(type, IMPLEMENTED_BY);
+        if (implementedBy != null) {
+            index.add("implementedBy " + binaryName(type) + " " + binaryName(classValue(implementedBy)));
+        }
+        AnnotationMirror providedBy = annotation(type, PROVIDED_BY);
+        if (providedBy != null) {
+            index.add("providedBy " + binaryName(type) + " " + binaryName(classValue(providedBy)));
+        }
+        if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+            try {
+                if (needsFactory(type)) {
+                    generateFactory(type);
+                }
+                if (hasProvides(type)) {
+                    generateProvides(type);
+                }
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Can't generate needle factory: " + e, type);
+            }
+        }
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            visit(nested);
+        }
+    }
+
+    private boolean needsFactory(TypeElement type) {
+        if (scope(type) != null) {
+            return true;
+        }
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            for (Element member : current.getEnclosedElements()) {
+                if (annotation(member, INJECT) != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hasProvides(TypeElement type) {
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                if (annotation(method, PROVIDES) != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generateFactory(TypeElement type) throws IOException {
+        String pkg = packageName(type);
+        if (!accessible(type, pkg) || (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC))) {
+            skip(type, "not accessible from a generated class");
+            return;
+        }
+        ExecutableElement constructor = constructor(type);
+        if (constructor == null) {
+            return;
+        }
+        if (!accessible(constructor, pkg) || !accessibleTypes(constructor.getParameters(), pkg)) {
+            skip(type, "constructor is not accessible");
+            return;
+        }
+        //与运行时一致, 作用域取实现类上的
+        TypeElement scope = scope(type);
+        if (scope != null && !accessible(scope, pkg)) {
+            skip(type, "scope is not accessible");
+            return;
+        }
+        List<String> constructorDependencies = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (VariableElement param : constructor.getParameters()) {
+            args.add(cast(param.asType()) + " p[" + args.size() + "].get()");
+            constructorDependencies.add(dependency(param, qualifier(param)));
+        }
+
+        List<String> memberDependencies = new ArrayList<>();
+        StringBuilder fields = new StringBuilder();
+        StringBuilder methods = new StringBuilder();
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            String declaring = sourceName(current);
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (annotation(field, INJECT) == null) {
+                    continue;
+                }
+                if (!accessible(field, pkg) || field.getModifiers().contains(Modifier.STATIC) || field.getModifiers().contains(Modifier.FINAL) || !accessibleType(field.asType(), pkg)) {
+                    skip(type, "field " + field.getSimpleName() + " is not accessible");
+                    return;
+                }
+                int slot = memberDependencies.size();
+                //与反射实现一致, 字段不读取qualifier
+                memberDependencies.add(dependency(field, null));
+                fields.append("        try {\n");
+                fields.append("            v = p[").append(slot).append("].get();\n");
+                fields.append("            if (v != null) {\n");
+                fields.append("                ((").append(declaring).append(") bean).").append(field.getSimpleName()).append(" = ").append(cast(field.asType())).append(" v;\n");
+                fields.append("            }\n");
+                fields.append("        } catch (Throwable t) {\n");
+                fields.append("            failed(t, \"field ").append(field.getSimpleName()).append("\", bean);\n");
+                fields.append("        }\n");
+            }
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                if (annotation(method, INJECT) == null) {
+                    continue;
+                }
+                if (!accessible(method, pkg) || method.getModifiers().contains(Modifier.STATIC) || !accessibleTypes(method.getParameters(), pkg)) {
+                    skip(type, "method " + method.getSimpleName() + " is not accessible");
+                    return;
+                }
+                List<String> params = new ArrayList<>();
+                for (VariableElement param : method.getParameters()) {
+                    params.add(cast(param.asType()) + " p[" + memberDependencies.size() + "].get()");
+                    memberDependencies.add(dependency(param, qualifier(param)));
+                }
+                methods.append("        try {\n");
+                methods.append("            ((").append(declaring).append(") bean).").append(method.getSimpleName()).append("(").append(join(params)).append(");\n");
+                methods.append("        } catch (Throwable t) {\n");
+                methods.append("            failed(t, \"method ").append(method.getSimpleName()).append("\", bean);\n");
+                methods.append("        }\n");
+            }
+        }
+
+        String bean = sourceName(type);
+        String simpleName = generatedSimpleName(type, "$$NeedleFactory");
+        StringBuilder source = header(pkg);
+        source.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        source.append("public final class ").append(simpleName).append(" extends lemon.needle.ioc.factory.StaticFactory<").append(bean).append("> {\n\n");
+        source.append("    public ").append(simpleName).append("() {\n");
+        source.append("        super(").append(bean).append(".class, ").append(scope != null ? sourceName(scope) + ".class" : "null").append(", ");
+        source.append("new ").append(DEPENDENCY).append("[] { ").append(join(constructorDependencies)).append(" }, ");
+        source.append("new ").append(DEPENDENCY).append("[] { ").append(join(memberDependencies)).append(" });\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public ").append(bean).append(" newInstance(javax.inject.Provider<?>[] p) {\n");
+        source.append("        return new ").append(bean).append("(").append(join(args)).append(");\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public void injectMembers(").append(bean).append(" bean, javax.inject.Provider<?>[] p) {\n");
+        source.append("        Object v;\n");
+        source.append(fields).append(methods);
+        source.append("    }\n");
+        source.append("}\n");
+
+        write(type, pkg, simpleName, source);
+        index.add("factory " + binaryName(type) + " " + qualify(pkg, simpleName));
+    }
+
+    private void generateProvides(TypeElement module) throws IOException {
+        String pkg = packageName(module);
+        if (!accessible(module, pkg)) {
+            skip(module, "not accessible from a generated class");
+            return;
+        }
+        List<ExecutableElement> methods = new ArrayList<>();
+        for (TypeElement current = module; current != null; current = superclass(current)) {
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                if (annotation(method, PROVIDES) != null && (current == module || !overridden(method, methods))) {
+                    if (annotation(method, ASYNC) != null) {
+                        //@Async 由injector反射调用并提交到线程池
+                        skip(module, "@Provides method " + method.getSimpleName() + " is @Async");
+                        return;
+                    }
+                    methods.add(method);
+                }
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        List<String> scopes = new ArrayList<>();
+        List<String> dependencies = new ArrayList<>();
+        StringBuilder cases = new StringBuilder();
+        StringBuilder lookups = new StringBuilder();
+        for (ExecutableElement method : methods) {
+            TypeMirror returnType = method.getReturnType();
+            if (!accessible(method, pkg) || returnType.getKind() == TypeKind.VOID || !accessibleType(returnType, pkg) || !accessibleTypes(method.getParameters(), pkg)) {
+                skip(module, "@Provides method " + method.getSimpleName() + " is not accessible");
+                return;
+            }
+            //与反射实现一致: 方法上的作用域, 没有时取返回类型上的
+            Element returned = types.asElement(returnType);
+            TypeElement scope = scope(method);
+            if (scope == null && returned != null) {
+                scope = scope(returned);
+            }
+            if (scope != null && !accessible(scope, pkg)) {
+                skip(module, "scope of @Provides method " + method.getSimpleName() + " is not accessible");
+                return;
+            }
+            keys.add(key(types.erasure(returnType), qualifier(method)));
+            scopes.add(scope != null ? sourceName(scope) + ".class" : "null");
+            List<String> methodDependencies = new ArrayList<>();
+            List<String> args = new ArrayList<>();
+            for (VariableElement param : method.getParameters()) {
+                args.add(cast(param.asType()) + " p[" + args.size() + "].get()");
+                methodDependencies.add(dependency(param, qualifier(param)));
+            }
+            dependencies.add(methodDependencies.isEmpty() ? "{}" : "{ " + join(methodDependencies) + " }");
+            String declaring = sourceName((TypeElement) method.getEnclosingElement());
+            String target = method.getModifiers().contains(Modifier.STATIC) ? declaring : "((" + declaring + ") module)";
+            cases.append("        case ").append(keys.size() - 1).append(":\n");
+            cases.append("            return ").append(target).append(".").append(method.getSimpleName()).append("(").append(join(args)).append(");\n");
+            List<String> parameterTypes = new ArrayList<>();
+            for (VariableElement param : method.getParameters()) {
+                parameterTypes.add(types.erasure(param.asType()) + ".class");
+            }
+            lookups.append("        case ").append(keys.size() - 1).append(":\n");
+            lookups.append("            return ").append(declaring).append(".class.getDeclaredMethod(").append(elements.getConstantExpression(method.getSimpleName().toString()));
+            lookups.append(", new Class<?>[] ").append(parameterTypes.isEmpty() ? "{}" : "{ " + join(parameterTypes) + " }").append(");\n");
+        }
+
+        String moduleName = sourceName(module);
+        String simpleName = generatedSimpleName(module, "$$NeedleProvides");
+        StringBuilder source = header(pkg);
+        source.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        source.append("public final class ").append(simpleName).append(" extends lemon.needle.ioc.factory.StaticProvides<").append(moduleName).append("> {\n\n");
+        source.append("    public ").append(simpleName).append("() {\n");
+        source.append("        super(new ").append(KEY).append("<?>[] { ").append(join(keys)).append(" }, ");
+        source.append("new Class[] { ").append(join(scopes)).append(" }, ");
+        source.append("new ").append(DEPENDENCY).append("[][] { ").append(join(dependencies)).append(" });\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public Object provide(int method, ").append(moduleName).append(" module, javax.inject.Provider<?>[] p) {\n");
+        source.append("        switch (method) {\n");
+        source.append(cases);
+        source.append("        default:\n");
+        source.append("            throw new IllegalArgumentException(String.valueOf(method));\n");
+        source.append("        }\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public java.lang.reflect.Method getMethod(int method) throws NoSuchMethodException {\n");
+        source.append("        switch (method) {\n");
+        source.append(lookups);
+        source.append("        default:\n");
+        source.append("            throw new IllegalArgumentException(String.valueOf(method));\n");
+        source.append("        }\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        write(module, pkg, simpleName, source);
+        index.add("provides " + binaryName(module) + " " + qualify(pkg, simpleName));
+    }
+
+    /**
+     * 与运行时一致: {@code @Inject} 构造函数, 否则非private的无参构造函数
+     */
+    private ExecutableElement constructor(TypeElement type) {
+        ExecutableElement inject = null;
+        ExecutableElement noarg = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (annotation(constructor, INJECT) != null) {
+                if (inject != null) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, type.getQualifiedName() + " has multiple @Inject constructors", constructor);
+                    return null;
+                }
+                inject = constructor;
+            } else if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                noarg = constructor;
+            }
+        }
+        if (inject == null && noarg == null) {
+            skip(type, "no @Inject or non-private no-arg constructor");
+        }
+        return inject != null ? inject : noarg;
+    }
+
+    private boolean overridden(ExecutableElement method, List<ExecutableElement> discovered) {
+        for (ExecutableElement other : discovered) {
+            if (other.getSimpleName().equals(method.getSimpleName()) && other.getParameters().size() == method.getParameters().size()) {
+                boolean same = true;
+                for (int i = 0; i < method.getParameters().size(); i++) {
+                    same &= types.isSameType(types.erasure(other.getParameters().get(i).asType()), types.erasure(method.getParameters().get(i).asType()));
+                }
+                if (same) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String dependency(VariableElement element, AnnotationMirror qualifier) {
+        TypeMirror type = element.asType();
+        TypeMirror provided = providedType(type);
+        if (provided != null) {
+            return DEPENDENCY + "." + factory(wrapper(type)) + "(" + key(types.erasure(provided), qualifier) + ")";
+        }
+        if (annotation(element, DEFERRED) != null) {
+            return DEPENDENCY + ".deferred(" + key(types.erasure(type), qualifier) + ")";
+        }
+        return DEPENDENCY + ".of(" + key(types.erasure(type), qualifier) + ")";
+    }
+
+    private String key(TypeMirror erased, AnnotationMirror qualifier) {
+        String type = erased.toString() + ".class";
+        if (qualifier == null) {
+            return KEY + ".of(" + type + ")";
+        }
+        TypeElement qualifierType = (TypeElement) qualifier.getAnnotationType().asElement();
+        if (qualifierType.getQualifiedName().contentEquals(NAMED)) {
+            return KEY + ".of(" + type + ", " + elements.getConstantExpression(stringValue(qualifier)) + ")";
+        }
+        return KEY + ".of(" + type + ", " + qualifierType.getQualifiedName() + ".class)";
+    }
+
+    private String cast(TypeMirror type) {
+        if (providedType(type) != null) {
+            return "(" + wrapper(type) + ")";
+        }
+        if (type.getKind().isPrimitive()) {
+            return "(" + types.boxedClass(types.getPrimitiveType(type.getKind())).getQualifiedName() + ")";
+        }
+        return "(" + types.erasure(type) + ")";
+    }
+
+    /**
+     * @return {@code Provider<X>}、{@code Lazy<X>} 或 future 中的X, 其他类型返回null
+     */
+    private TypeMirror providedType(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        DeclaredType declared = (DeclaredType) type;
+        Name name = ((TypeElement) declared.asElement()).getQualifiedName();
+        if (factory(name) != null && declared.getTypeArguments().size() == 1) {
+            return declared.getTypeArguments().get(0);
+        }
+        return null;
+    }
+
+    private Name wrapper(TypeMirror type) {
+        return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName();
+    }
+
+    /**
+     * @return 包装类型对应的 Dependency 工厂方法, 不是包装类型时为null
+     */
+    private static String factory(Name wrapper) {
+        if (wrapper.contentEquals(PROVIDER)) {
+            return "provider";
+        }
+        if (wrapper.contentEquals(LAZY)) {
+            return "lazy";
+        }
+        if (wrapper.contentEquals(COMPLETABLE_FUTURE)) {
+            return "future";
+        }
+        if (wrapper.contentEquals(LISTENABLE_FUTURE)) {
+            return "listenableFuture";
+        }
+        return null;
+    }
+
+    /**
+     * @return element上标注了 {@code @Scope} 的注解类型, 例如Singleton; 没有时为null
+     */
+    private TypeElement scope(Element element) {
+        //包括父类上@Inherited的注解, 与运行时的getAnnotations()一致
+        for (AnnotationMirror mirror : elements.getAllAnnotationMirrors(element)) {
+            Element annotationType = mirror.getAnnotationType().asElement();
+            if (annotation(annotationType, SCOPE) != null) {
+                return (TypeElement) annotationType;
+            }
+        }
+        return null;
+    }
+
+    private AnnotationMirror qualifier(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (annotation(mirror.getAnnotationType().asElement(), QUALIFIER) != null) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private boolean accessibleTypes(List<? extends VariableElement> params, String pkg) {
+        for (VariableElement param : params) {
+            if (!accessibleType(param.asType(), pkg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean accessibleType(TypeMirror type, String pkg) {
+        TypeMirror erased = types.erasure(type);
+        while (erased.getKind() == TypeKind.ARRAY) {
+            erased = types.erasure(((ArrayType) erased).getComponentType());
+        }
+        if (erased.getKind().isPrimitive()) {
+            return true;
+        }
+        Element element = types.asElement(erased);
+        return element instanceof TypeElement && accessible(element, pkg);
+    }
+
+    /**
+     * 生成类位于pkg中, 判断能否直接访问element
+     */
+    private boolean accessible(Element element, String pkg) {
+        for (Element current = element; current != null && current.getKind() != ElementKind.PACKAGE; current = current.getEnclosingElement()) {
+            Set<Modifier> modifiers = current.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC) && !packageName(current).equals(pkg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) types.asElement(superclass);
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private TypeElement classValue(AnnotationMirror mirror) {
+        return (TypeElement) types.asElement((TypeMirror) value(mirror).getValue());
+    }
+
+    private String stringValue(AnnotationMirror mirror) {
+        return (String) value(mirror).getValue();
+    }
+
+    private AnnotationValue value(AnnotationMirror mirror) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return entry.getValue();
+            }
+        }
+        throw new IllegalArgumentException("No value in " + mirror);
+    }
+
+    private void skip(TypeElement type, String reason) {
+        messager.printMessage(Diagnostic.Kind.NOTE, "needle: " + type.getQualifiedName() + " uses reflection, " + reason, type);
+    }
+
+    private StringBuilder header(String pkg) {
+        StringBuilder source = new StringBuilder();
+        if (!pkg.isEmpty()) {
+            source.append("package ").append(pkg).append(";\n\n");
+        }
+        source.append("/** Generated by ").append(NeedleProcessor.class.getName()).append(", do not edit. */\n");
+        return source;
+    }
+
+    private void write(TypeElement originating, String pkg, String simpleName, StringBuilder source) throws IOException {
+        try (Writer writer = filer.createSourceFile(qualify(pkg, simpleName), originating).openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private void writeIndex() {
+        List<String> existing = readIndex();
+        if (index.isEmpty() && existing.isEmpty()) {
+            return;
+        }
+        Set<String> merged = new TreeSet<>(index);
+        for (String line : existing) {
+            String[] parts = line.split(" ");
+            if (parts.length == 3 && !processed.contains(parts[1]) && exists(parts[1]) && exists(parts[2])) {
+                merged.add(line);
+            }
+        }
+        try {
+            FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer writer = resource.openWriter()) {
+                for (String line : merged) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Can't write " + INDEX + ": " + e);
+        }
+    }
+
+    /**
+     * @return 输出目录中已有的索引, 没有时为空
+     */
+    private List<String> readIndex() {
+        List<String> lines = new ArrayList<>();
+        try {
+            FileObject resource = filer.getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (BufferedReader reader = new BufferedReader(resource.openReader(true))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            //第一次编译, 还没有索引
+        }
+        return lines;
+    }
+
+    /**
+     * @param binaryName 生成类是名字中带$的顶层类, 嵌套类换成源码中的名字再找一次
+     */
+    private boolean exists(String binaryName) {
+        return elements.getTypeElement(binaryName) != null || elements.getTypeElement(binaryName.replace('$', '.')) != null;
+    }
+
+    private String packageName(Element element) {
+        PackageElement pkg = elements.getPackageOf(element);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private String binaryName(TypeElement type) {
+        return elements.getBinaryName(type).toString();
+    }
+
+    private String sourceName(TypeElement type) {
+        return type.getQualifiedName().toString();
+    }
+
+    /**
+     * 嵌套类 Outer$Inner 生成 Outer$Inner$$NeedleFactory
+     */
+    private String generatedSimpleName(TypeElement type, String suffix) {
+        String pkg = packageName(type);
+        String binary = binaryName(type);
+        return (pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1)) + suffix;
+    }
+
+    private static String qualify(String pkg, String simpleName) {
+        return pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+    }
+
+    private static String join(List<String> parts) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+/**
+ * 基于 {@link ProxyFactory} 的cglib实现
+ */
+final class CglibProxyBackend implements ProxyBackend {
+
+    @Override
+    public <T> ConstructionProxy<T> create(Constructor<T> constructor, List<MethodAspect> aspects) throws Exception {
+        ProxyFactory<T> factory = new ProxyFactory<T>(constructor, aspects);
+        return factory.getInterceptors().isEmpty() ? null : factory.create(constructor);
+    }
+}
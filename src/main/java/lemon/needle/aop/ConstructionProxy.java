@@ -12,7 +12,7 @@ import com.google.common.collect.ImmutableMap;
  *
  * @author crazybob@google.com (Bob Lee)
  */
-interface ConstructionProxy<T> {
+public interface ConstructionProxy<T> {
 
     /** Constructs an instance of {@code T} for the given arguments. */
     T newInstance(Object... arguments) throws InvocationTargetException;
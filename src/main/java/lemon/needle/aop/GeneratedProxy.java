@@ -0,0 +1,12 @@
+package lemon.needle.aop;
+
+/**
+ * {@link JavassistProxyBackend}生成的子类实现的接口, 只供 {@link ProxyInvocation} 调用。
+ */
+public interface GeneratedProxy {
+
+    /**
+     * 调用第index个被拦截方法的父类实现, 即生成的 super.method(...)
+     */
+    Object invokeSuper(int index, Object[] arguments) throws Throwable;
+}
@@ -0,0 +1,30 @@
+package lemon.needle.aop;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.aopalliance.intercept.MethodInterceptor;
+
+/**
+ * 编译期织入的拦截, <b>只在织入后生效</b>: 用 -Pweave 构建时, {@link InterceptedAspect} 织入到带有这个注解的方法(或类中所有非static方法),
+ * final方法和private方法的自调用也会被拦截; 这些方法不再由运行时代理拦截, 类中其余被bindInterceptor匹配的方法仍然生成代理。
+ * 没有织入时运行时代理不读取这个注解, injector创建这样的类时会记录一条警告。
+ *
+ * <pre>
+ * &#64;Intercepted({ Timing.class, Tracing.class })
+ * public void handle(Request request) { ... }
+ * </pre>
+ *
+ * 拦截器按类型由创建实例的injector的 {@link WovenInterceptors} 解析: 优先使用该injector的模块中 bindInterceptor 绑定的同类型实例,
+ * 否则用无参构造函数创建一个共享实例。类上和方法上都有时, 类上的拦截器在前。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Intercepted {
+
+    Class<? extends MethodInterceptor>[] value();
+}
@@ -0,0 +1,28 @@
+package lemon.needle.aop;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * 把 {@link Intercepted} 方法的执行桥接到aopalliance的 {@link org.aopalliance.intercept.MethodInterceptor} 链。
+ *
+ * 使用@AspectJ注解风格, 默认构建中只是一个普通的类; -Pweave 时由ajc织入到声明了 {@code @Intercepted} 的类中。
+ * 拦截器链按创建this的injector({@link WovenInterceptors#of(Object)})和 {@link JoinPoint.StaticPart} 缓存, 每次调用只分配一个 {@link WovenInvocation};
+ * 拦截器全部被 {@link lemon.needle.aop.InterceptorToggle} 关闭时直接执行原方法体。
+ */
+@Aspect
+public class InterceptedAspect {
+
+    @Around("execution(@lemon.needle.aop.Intercepted * *(..)) || execution(!static * (@lemon.needle.aop.Intercepted *).*(..))")
+    public Object intercept(ProceedingJoinPoint joinPoint) throws Throwable {
+        WovenInterceptors.Chain chain = WovenInterceptors.of(joinPoint.getThis()).chain(joinPoint.getStaticPart());
+        MethodInterceptor[] interceptors = chain.interceptors.active();
+        if (interceptors.length == 0) {
+            return joinPoint.proceed();
+        }
+        return new WovenInvocation(joinPoint, chain.method, interceptors).start();
+    }
+}
@@ -0,0 +1,79 @@
+package lemon.needle.aop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aopalliance.intercept.MethodInterceptor;
+
+/**
+ * 一个被拦截方法的拦截器。没有开关时 {@link #active()} 直接返回固定的数组;
+ * 有开关时缓存当前开启的拦截器, {@link InterceptorToggle} 的版本变化后在下一次调用时重新计算。
+ */
+final class InterceptorChain {
+
+    private static final MethodInterceptor[] NONE = new MethodInterceptor[0];
+
+    private final MethodInterceptor[] interceptors;
+    private final boolean toggled;
+    private volatile Snapshot snapshot;
+
+    InterceptorChain(MethodInterceptor[] interceptors) {
+        this.interceptors = interceptors;
+        boolean toggled = false;
+        for (MethodInterceptor interceptor : interceptors) {
+            toggled |= interceptor instanceof ToggledInterceptor;
+        }
+        this.toggled = toggled;
+        this.snapshot = new Snapshot(-1, NONE);
+    }
+
+    /**
+     * @return 当前开启的拦截器, 为空时调用方应直接调用目标方法
+     */
+    MethodInterceptor[] active() {
+        if (!toggled) {
+            return interceptors;
+        }
+        Snapshot current = snapshot;
+        int version = InterceptorToggle.version();
+        if (current.version != version) {
+            //先读版本再读开关, 计算期间的变化会让下一次调用再算一次
+            current = new Snapshot(version, enabled());
+            snapshot = current;
+        }
+        return current.active;
+    }
+
+    boolean isToggled() {
+        return toggled;
+    }
+
+    MethodInterceptor[] interceptors() {
+        return interceptors;
+    }
+
+    /**
+     * @return 按开关的当前状态开启的拦截器
+     */
+    MethodInterceptor[] enabled() {
+        List<MethodInterceptor> enabled = new ArrayList<MethodInterceptor>(interceptors.length);
+        for (MethodInterceptor interceptor : interceptors) {
+            if (!(interceptor instanceof ToggledInterceptor)) {
+                enabled.add(interceptor);
+            } else if (((ToggledInterceptor) interceptor).toggle.isEnabled()) {
+                enabled.add(((ToggledInterceptor) interceptor).delegate);
+            }
+        }
+        return enabled.isEmpty() ? NONE : enabled.toArray(new MethodInterceptor[enabled.size()]);
+    }
+
+    private static final class Snapshot {
+        final int version;
+        final MethodInterceptor[] active;
+
+        Snapshot(int version, MethodInterceptor[] active) {
+            this.version = version;
+            this.active = active;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import lemon.needle.aop.InternalFlags.PruneStackTraceOption;
 import net.sf.cglib.proxy.MethodProxy;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -14,22 +15,43 @@ import org.aopalliance.intercept.MethodInvocation;
 /**
  * Intercepts a method with a stack of interceptors.
  *
+ * Each call allocates a single {@link InterceptedMethodInvocation} whose index advances as
+ * interceptors proceed. Pruning AOP frames from stack traces is off by default and, when enabled
+ * through {@link InternalFlags#getPruneStackTraceOption()}, happens once as the exception leaves
+ * the outermost interceptor rather than at every level. When every interceptor of the method is
+ * switched off by its {@link InterceptorToggle}, the call goes straight to the super method.
+ *
  * @author crazybob@google.com (Bob Lee)
  */
 final class InterceptorStackCallback implements net.sf.cglib.proxy.MethodInterceptor {
-    private static final Set<String> AOP_INTERNAL_CLASSES = new HashSet<String>(Arrays.asList(InterceptorStackCallback.class.getName(), InterceptedMethodInvocation.class.getName(), MethodProxy.class.getName()));
+    private static final Set<String> AOP_INTERNAL_CLASSES = new HashSet<String>(Arrays.asList(InterceptorStackCallback.class.getName(), InterceptedMethodInvocation.class.getName(), MethodProxy.class.getName(), ProxyInvocation.class.getName()));
+
+    private static final boolean PRUNE_STACK_TRACES = InternalFlags.getPruneStackTraceOption() == PruneStackTraceOption.ON;
 
-    final MethodInterceptor[] interceptors;
+    final InterceptorChain chain;
     final Method method;
     
     public InterceptorStackCallback(Method method, List<MethodInterceptor> interceptors) {
         this.method = method;
-        this.interceptors = interceptors.toArray(new MethodInterceptor[interceptors.size()]);
+        this.chain = new InterceptorChain(interceptors.toArray(new MethodInterceptor[interceptors.size()]));
     }
 
     @Override
     public Object intercept(Object proxy, Method method, Object[] arguments, MethodProxy methodProxy) throws Throwable {
-        return new InterceptedMethodInvocation(proxy, methodProxy, arguments, 0).proceed();
+        MethodInterceptor[] interceptors = chain.active();
+        if (interceptors.length == 0) {
+            return methodProxy.invokeSuper(proxy, arguments);
+        }
+        InterceptedMethodInvocation invocation = new InterceptedMethodInvocation(proxy, methodProxy, arguments, interceptors);
+        if (!PRUNE_STACK_TRACES) {
+            return invocation.proceed();
+        }
+        try {
+            return invocation.proceed();
+        } catch (Throwable t) {
+            pruneStacktrace(t);
+            throw t;
+        }
     }
 
     private class InterceptedMethodInvocation implements MethodInvocation {
@@ -37,22 +59,29 @@ final class InterceptorStackCallback implements net.sf.cglib.proxy.MethodInterce
         final Object proxy;
         final Object[] arguments;
         final MethodProxy methodProxy;
-        final int index;
+        final MethodInterceptor[] interceptors;
+        // the interceptor that the next proceed() will call; interceptors.length means the target
+        int index;
 
-        public InterceptedMethodInvocation(Object proxy, MethodProxy methodProxy, Object[] arguments, int index) {
+        public InterceptedMethodInvocation(Object proxy, MethodProxy methodProxy, Object[] arguments, MethodInterceptor[] interceptors) {
             this.proxy = proxy;
             this.methodProxy = methodProxy;
             this.arguments = arguments;
-            this.index = index;
+            this.interceptors = interceptors;
         }
 
         @Override
         public Object proceed() throws Throwable {
+            int current = index;
+            if (current == interceptors.length) {
+                return methodProxy.invokeSuper(proxy, arguments);
+            }
+            index = current + 1;
             try {
-                return index == interceptors.length ? methodProxy.invokeSuper(proxy, arguments) : interceptors[index].invoke(new InterceptedMethodInvocation(proxy, methodProxy, arguments, index + 1));
-            } catch (Throwable t) {
-                pruneStacktrace(t);
-                throw t;
+                return interceptors[current].invoke(this);
+            } finally {
+                // an interceptor may proceed() more than once, e.g. to retry
+                index = current;
             }
         }
 
@@ -81,17 +110,19 @@ final class InterceptorStackCallback implements net.sf.cglib.proxy.MethodInterce
      * Removes stacktrace elements related to AOP internal mechanics from the throwable's stack trace
      * and any causes it may have.
      */
-    private void pruneStacktrace(Throwable throwable) {
+    static void pruneStacktrace(Throwable throwable) {
         for (Throwable t = throwable; t != null; t = t.getCause()) {
             StackTraceElement[] stackTrace = t.getStackTrace();
             List<StackTraceElement> pruned = Lists.newArrayList();
             for (StackTraceElement element : stackTrace) {
                 String className = element.getClassName();
-                if (!AOP_INTERNAL_CLASSES.contains(className) && !className.contains("$EnhancerByGuice$")) {
+                if (!AOP_INTERNAL_CLASSES.contains(className) && !className.contains("$EnhancerByGuice$") && !className.contains("$FastClassByGuice$") && !className.contains(JavassistProxyBackend.PROXY_TAG)) {
                     pruned.add(element);
                 }
             }
-            t.setStackTrace(pruned.toArray(new StackTraceElement[pruned.size()]));
+            if (pruned.size() < stackTrace.length) {
+                t.setStackTrace(pruned.toArray(new StackTraceElement[pruned.size()]));
+            }
         }
     }
 }
@@ -0,0 +1,101 @@
+package lemon.needle.aop;
+
+import java.lang.invoke.SwitchPoint;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有名字的拦截器开关, 默认关闭。
+ *
+ * <pre>
+ * bindInterceptor(InterceptorToggle.named("timing"), Matchers.any(), Matchers.annotatedWith(Timed.class), new MethodInvokeTime());
+ * ...
+ * InterceptorToggle.named("timing").enable(); // 排查问题时打开, 不需要重建injector
+ * </pre>
+ *
+ * 一个方法上的拦截器全部关闭时, 调用直接进入目标方法, 不创建MethodInvocation。
+ *
+ * javassist代理({@link ProxyBackends#JAVASSIST})中, 带开关的方法经过生成类static final的MethodHandle分发,
+ * 链接时按开关的当前状态选好拦截器, 并由每个开关的 {@link SwitchPoint} 保护: 开关不变时调用路径上没有任何读取,
+ * 开关变化使SwitchPoint失效, 相关方法在下一次调用时重新链接, 已经编译的调用方会去优化一次。
+ * 仍然剩下代理本身的分发: 参数装箱成数组, 再按下标调用父类方法。
+ *
+ * cglib代理和织入的方法的拦截器链保存在回调对象或静态数组中, 不是JIT常量, 仍然每个方法缓存一份当前开启的拦截器:
+ * 任何开关变化递增一个全局版本号, 方法在下一次调用时发现版本变化后重新计算, 每次调用多一次这个版本号的volatile读。
+ *
+ * 对开销敏感、又很少需要打开的拦截器, 也可以在构建injector时决定是否绑定。开关关闭时的开销见 InterceptorBenchmark.fourToggledOff*。
+ */
+public final class InterceptorToggle {
+
+    private static final ConcurrentMap<String, InterceptorToggle> toggles = new ConcurrentHashMap<String, InterceptorToggle>();
+
+    //任何开关变化后递增, 用于让缓存的拦截器链失效
+    private static final AtomicInteger version = new AtomicInteger();
+
+    private final String name;
+    private volatile boolean enabled;
+    //每次变化换一个新的, 旧的失效
+    private volatile SwitchPoint switchPoint = new SwitchPoint();
+
+    private InterceptorToggle(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return 这个名字对应的开关, 第一次使用时创建, 处于关闭状态
+     */
+    public static InterceptorToggle named(String name) {
+        InterceptorToggle toggle = toggles.get(name);
+        if (toggle == null) {
+            toggle = new InterceptorToggle(name);
+            InterceptorToggle existing = toggles.putIfAbsent(name, toggle);
+            if (existing != null) {
+                toggle = existing;
+            }
+        }
+        return toggle;
+    }
+
+    static int version() {
+        return version.get();
+    }
+
+    /**
+     * @return 在开关下一次变化时失效的SwitchPoint
+     */
+    SwitchPoint switchPoint() {
+        return switchPoint;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void enable() {
+        set(true);
+    }
+
+    public void disable() {
+        set(false);
+    }
+
+    public synchronized void set(boolean enabled) {
+        if (this.enabled != enabled) {
+            this.enabled = enabled;
+            version.incrementAndGet();
+            SwitchPoint previous = switchPoint;
+            switchPoint = new SwitchPoint();
+            SwitchPoint.invalidateAll(new SwitchPoint[] { previous });
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InterceptorToggle[" + name + (enabled ? ", on]" : ", off]");
+    }
+}
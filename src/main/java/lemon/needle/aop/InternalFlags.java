@@ -17,6 +17,10 @@ public class InternalFlags {
 
     private static final NullableProvidesOption NULLABLE_PROVIDES = parseNullableProvidesOption(NullableProvidesOption.ERROR);
 
+    private static final PruneStackTraceOption PRUNE_STACK_TRACES = getSystemOption("needle_prune_aop_stack_traces", PruneStackTraceOption.OFF);
+
+    private static final ProxyBackendOption PROXY_BACKEND = getSystemOption("needle_proxy_backend", ProxyBackendOption.CGLIB);
+
     /**
      * The options for Guice stack trace collection.
      */
@@ -48,6 +52,26 @@ public class InternalFlags {
         ERROR
     }
 
+    /**
+     * The options for removing interceptor frames from exceptions thrown through intercepted methods.
+     */
+    public enum PruneStackTraceOption {
+        /** Leave stack traces untouched (Default) */
+        OFF,
+        /** Prune AOP frames once, when the exception leaves the outermost interceptor */
+        ON
+    }
+
+    /**
+     * The options for how intercepted classes are enhanced.
+     */
+    public enum ProxyBackendOption {
+        /** cglib Enhancer with MethodProxy dispatch (Default) */
+        CGLIB,
+        /** A javassist subclass calling the interceptors and super methods directly */
+        JAVASSIST
+    }
+
     public static IncludeStackTraceOption getIncludeStackTraceOption() {
         return INCLUDE_STACK_TRACES;
     }
@@ -60,6 +84,14 @@ public class InternalFlags {
         return NULLABLE_PROVIDES;
     }
 
+    public static PruneStackTraceOption getPruneStackTraceOption() {
+        return PRUNE_STACK_TRACES;
+    }
+
+    public static ProxyBackendOption getProxyBackendOption() {
+        return PROXY_BACKEND;
+    }
+
     private static IncludeStackTraceOption parseIncludeStackTraceOption() {
         return getSystemOption("guice_include_stack_traces", IncludeStackTraceOption.ONLY_FOR_DECLARING_SOURCE);
     }
@@ -0,0 +1,289 @@
+package lemon.needle.aop;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import lemon.needle.exception.NeedleException;
+import lemon.needle.util.CommonUtil;
+
+/**
+ * 用javassist为被拦截的类生成子类, 放在原类的包和ClassLoader中:
+ *
+ * <pre>
+ * public R method(A a) {
+ *     return ($r) ProxyInvocation.invoke(this, i, METHODS[i], CHAINS[i], $args);
+ * }
+ * public Object invokeSuper(int index, Object[] args) {
+ *     if (index == i) return ($w) super.method((A) args[0]);
+ *     ...
+ * }
+ * </pre>
+ *
+ * 只覆盖有拦截器的方法, 其余方法不经过任何分发; 每个方法的拦截器链是生成类的静态字段,
+ * 因此一个生成类只属于一个aspect集合, 由 {@link MethodAspects} 按构造函数缓存。
+ *
+ * 带 {@link InterceptorToggle} 的方法改为经过static final的MethodHandle分发, 开关不变时没有额外的读取, 见 {@link ToggledDispatch}:
+ *
+ * <pre>
+ * public R method(A a) {
+ *     return ($r) ToggledDispatch.invoke(DISPATCH_i, this, $args);
+ * }
+ * </pre>
+ */
+final class JavassistProxyBackend implements ProxyBackend {
+
+    private static final Logger logger = Logger.getLogger(JavassistProxyBackend.class.getName());
+
+    /** 生成类名中的标记, 裁剪堆栈时用来识别生成类 */
+    static final String PROXY_TAG = "$$NeedleProxy$$";
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final ProxyBackend fallback;
+
+    JavassistProxyBackend(ProxyBackend fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public <T> ConstructionProxy<T> create(Constructor<T> constructor, List<MethodAspect> aspects) throws Exception {
+        Class<T> type = constructor.getDeclaringClass();
+        List<MethodAspect> applicable = new ArrayList<MethodAspect>();
+        for (MethodAspect aspect : aspects) {
+            if (aspect.matches(type)) {
+                applicable.add(aspect);
+            }
+        }
+        if (applicable.isEmpty()) {
+            return null;
+        }
+        ImmutableMap.Builder<Method, List<MethodInterceptor>> intercepted = ImmutableMap.builder();
+        List<Method> methods = new ArrayList<Method>();
+        List<InterceptorChain> chains = new ArrayList<InterceptorChain>();
+        boolean toggled = false;
+        for (Method method : overridable(type)) {
+            List<MethodInterceptor> interceptors = new ArrayList<MethodInterceptor>();
+            for (MethodAspect aspect : applicable) {
+                if (aspect.matches(method)) {
+                    interceptors.addAll(aspect.interceptors());
+                }
+            }
+            if (!interceptors.isEmpty()) {
+                ImmutableList<MethodInterceptor> deDuplicated = ImmutableSet.copyOf(interceptors).asList();
+                intercepted.put(method, deDuplicated);
+                methods.add(method);
+                InterceptorChain chain = new InterceptorChain(deDuplicated.toArray(new MethodInterceptor[deDuplicated.size()]));
+                chains.add(chain);
+                toggled |= chain.isToggled();
+            }
+        }
+        if (methods.isEmpty()) {
+            return null;
+        }
+        if (Modifier.isFinal(type.getModifiers()) || Modifier.isPrivate(constructor.getModifiers())) {
+            throw new NeedleException("%s is final or has a private constructor and can't be intercepted", type.getName());
+        }
+        Class<?> proxy = define(type, constructor, methods, chains);
+        if (proxy == null) {
+            return fallback.create(constructor, aspects);
+        }
+        if (toggled) {
+            MethodHandle[] dispatchers = new MethodHandle[methods.size()];
+            for (int i = 0; i < dispatchers.length; i++) {
+                if (chains.get(i).isToggled()) {
+                    dispatchers[i] = new ToggledDispatch(i, methods.get(i), chains.get(i)).dispatcher();
+                }
+            }
+            //生成类的静态初始化取走这些MethodHandle, 下面设置静态字段时触发
+            ToggledDispatch.offer(proxy.getName(), dispatchers);
+        }
+        Field methodsField = proxy.getDeclaredField("METHODS");
+        Field chainsField = proxy.getDeclaredField("CHAINS");
+        methodsField.setAccessible(true);
+        chainsField.setAccessible(true);
+        methodsField.set(null, methods.toArray(new Method[methods.size()]));
+        chainsField.set(null, chains.toArray());
+        Constructor<?> enhanced = proxy.getDeclaredConstructor(constructor.getParameterTypes());
+        enhanced.setAccessible(true);
+        return new GeneratedConstructionProxy<T>(constructor, enhanced, intercepted.build());
+    }
+
+    private Class<?> define(Class<?> type, Constructor<?> constructor, List<Method> methods, List<InterceptorChain> chains) {
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new LoaderClassPath(type.getClassLoader()));
+            pool.appendClassPath(new ClassClassPath(GeneratedProxy.class));
+            CtClass ct = pool.makeClass(type.getName() + PROXY_TAG + counter.incrementAndGet(), pool.get(type.getName()));
+            ct.addInterface(pool.get(GeneratedProxy.class.getName()));
+            ct.addField(CtField.make("public static java.lang.reflect.Method[] METHODS;", ct));
+            //InterceptorChain是包内可见的, 生成类在别的包中, 以Object保存
+            ct.addField(CtField.make("public static Object[] CHAINS;", ct));
+            ct.addConstructor(CtNewConstructor.make(ctClasses(pool, constructor.getParameterTypes()), ctClasses(pool, constructor.getExceptionTypes()), "{ super($$); }", ct));
+
+            StringBuilder invokeSuper = new StringBuilder("public Object invokeSuper(int index, Object[] args) { ");
+            StringBuilder dispatchers = new StringBuilder();
+            for (int i = 0; i < methods.size(); i++) {
+                Method method = methods.get(i);
+                StringBuilder override = new StringBuilder();
+                override.append(Modifier.isPublic(method.getModifiers()) ? "public " : Modifier.isProtected(method.getModifiers()) ? "protected " : "");
+                override.append(name(method.getReturnType())).append(' ').append(method.getName()).append('(');
+                Class<?>[] parameters = method.getParameterTypes();
+                for (int p = 0; p < parameters.length; p++) {
+                    if (p > 0) {
+                        override.append(", ");
+                    }
+                    override.append(name(parameters[p])).append(" p").append(p);
+                }
+                if (chains.get(i).isToggled()) {
+                    ct.addField(CtField.make("private static final java.lang.invoke.MethodHandle DISPATCH" + i + ";", ct));
+                    dispatchers.append("DISPATCH").append(i).append(" = handles[").append(i).append("]; ");
+                    override.append(") { return ($r) ").append(ToggledDispatch.class.getName()).append(".invoke(DISPATCH").append(i).append(", this, $args); }");
+                } else {
+                    override.append(") { return ($r) ").append(ProxyInvocation.class.getName()).append(".invoke(this, ").append(i).append(", METHODS[").append(i).append("], CHAINS[").append(i).append("], $args); }");
+                }
+                ct.addMethod(CtNewMethod.make(override.toString(), ct));
+
+                String call = "super." + method.getName() + "(" + args(parameters) + ")";
+                invokeSuper.append("if (index == ").append(i).append(") { ");
+                if (method.getReturnType() == void.class) {
+                    invokeSuper.append(call).append("; return null; } ");
+                } else {
+                    invokeSuper.append("return ($w) ").append(call).append("; } ");
+                }
+            }
+            invokeSuper.append("throw new IllegalArgumentException(String.valueOf(index)); }");
+            ct.addMethod(CtNewMethod.make(invokeSuper.toString(), ct));
+            if (dispatchers.length() > 0) {
+                ct.makeClassInitializer().insertBefore("{ java.lang.invoke.MethodHandle[] handles = " + ToggledDispatch.class.getName() + ".take(\"" + ct.getName() + "\"); " + dispatchers + "}");
+            }
+
+            Class<?> defined = ct.toClass(type.getClassLoader(), type.getProtectionDomain());
+            ct.detach();
+            return defined;
+        } catch (Throwable e) {
+            logger.log(Level.WARNING, "Can't generate javassist proxy for " + type.getName() + ", falling back to cglib", e);
+            return null;
+        }
+    }
+
+    /**
+     * 能在子类中覆盖的方法: 非static、private、final, 包内可见的方法只取与type同包的; 子类覆盖的方法只保留最下层的
+     */
+    private static List<Method> overridable(Class<?> type) {
+        List<Method> methods = new ArrayList<Method>();
+        Set<String> seen = new HashSet<String>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Method method : current.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                if (method.isBridge() || method.isSynthetic() || Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers)) {
+                    continue;
+                }
+                boolean packagePrivate = !Modifier.isPublic(modifiers) && !Modifier.isProtected(modifiers);
+                if (packagePrivate && !samePackage(current, type)) {
+                    continue;
+                }
+                //final方法本身不能覆盖, 但仍占住签名, 父类中的同名方法也不能再覆盖
+                if (seen.add(method.getName() + Arrays.toString(method.getParameterTypes())) && !Modifier.isFinal(modifiers)) {
+                    methods.add(method);
+                }
+            }
+        }
+        return methods;
+    }
+
+    private static CtClass[] ctClasses(ClassPool pool, Class<?>[] types) throws Exception {
+        CtClass[] ctClasses = new CtClass[types.length];
+        for (int i = 0; i < types.length; i++) {
+            ctClasses[i] = pool.get(name(types[i]));
+        }
+        return ctClasses;
+    }
+
+    private static String args(Class<?>[] types) {
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                args.append(", ");
+            }
+            String arg = "args[" + i + "]";
+            if (types[i].isPrimitive()) {
+                args.append("((").append(CommonUtil.wrapperClassOf(types[i]).getName()).append(") ").append(arg).append(").").append(types[i].getName()).append("Value()");
+            } else {
+                args.append("(").append(name(types[i])).append(") ").append(arg);
+            }
+        }
+        return args.toString();
+    }
+
+    private static String name(Class<?> type) {
+        return type.isArray() ? name(type.getComponentType()) + "[]" : type.getName();
+    }
+
+    private static boolean samePackage(Class<?> a, Class<?> b) {
+        return a.getClassLoader() == b.getClassLoader() && packageName(a).equals(packageName(b));
+    }
+
+    private static String packageName(Class<?> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    /** Constructs instances of the generated subclass. */
+    private static final class GeneratedConstructionProxy<T> implements ConstructionProxy<T> {
+        final Constructor<T> constructor;
+        final Constructor<?> enhanced;
+        final ImmutableMap<Method, List<MethodInterceptor>> methodInterceptors;
+
+        GeneratedConstructionProxy(Constructor<T> constructor, Constructor<?> enhanced, ImmutableMap<Method, List<MethodInterceptor>> methodInterceptors) {
+            this.constructor = constructor;
+            this.enhanced = enhanced;
+            this.methodInterceptors = methodInterceptors;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T newInstance(Object... arguments) throws InvocationTargetException {
+            try {
+                return (T) enhanced.newInstance(arguments);
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new NeedleException(e, "Can't instantiate %s", enhanced.getName());
+            }
+        }
+
+        @Override
+        public Constructor<T> getConstructor() {
+            return constructor;
+        }
+
+        @Override
+        public ImmutableMap<Method, List<MethodInterceptor>> getMethodInterceptors() {
+            return methodInterceptors;
+        }
+    }
+}
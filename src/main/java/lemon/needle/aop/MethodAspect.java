@@ -3,6 +3,7 @@ package lemon.needle.aop;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,9 +14,10 @@ import lemon.needle.ioc.Matcher;
 /**
  * Ties a matcher to a method interceptor.
  *
+ * @see lemon.needle.ioc.AbsModule#bindInterceptor(Matcher, Matcher, MethodInterceptor...)
  * @author crazybob@google.com (Bob Lee)
  */
-final class MethodAspect {
+public final class MethodAspect {
 
     private final Matcher<? super Class<?>> classMatcher;
     private final Matcher<? super Method> methodMatcher;
@@ -28,25 +30,58 @@ final class MethodAspect {
      *     annotatedWith(Transactional.class)}.
      * @param interceptors to apply
      */
-    MethodAspect(Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, List<MethodInterceptor> interceptors) {
+    public MethodAspect(Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, List<MethodInterceptor> interceptors) {
         this.classMatcher = checkNotNull(classMatcher, "class matcher");
         this.methodMatcher = checkNotNull(methodMatcher, "method matcher");
         this.interceptors = checkNotNull(interceptors, "interceptors");
     }
 
-    MethodAspect(Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, MethodInterceptor... interceptors) {
+    public MethodAspect(Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, MethodInterceptor... interceptors) {
         this(classMatcher, methodMatcher, Arrays.asList(interceptors));
     }
 
-    boolean matches(Class<?> clazz) {
+    /**
+     * @param toggle the interceptors only run while it is enabled; otherwise calls skip them.
+     */
+    public MethodAspect(InterceptorToggle toggle, Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, MethodInterceptor... interceptors) {
+        this(classMatcher, methodMatcher, toggled(checkNotNull(toggle, "toggle"), interceptors));
+    }
+
+    private static List<MethodInterceptor> toggled(InterceptorToggle toggle, MethodInterceptor... interceptors) {
+        List<MethodInterceptor> toggled = new ArrayList<MethodInterceptor>(interceptors.length);
+        for (MethodInterceptor interceptor : interceptors) {
+            toggled.add(new ToggledInterceptor(toggle, interceptor));
+        }
+        return toggled;
+    }
+
+    public boolean matches(Class<?> clazz) {
         return classMatcher.matches(clazz);
     }
 
-    boolean matches(Method method) {
+    public boolean matches(Method method) {
         return methodMatcher.matches(method);
     }
 
-    List<MethodInterceptor> interceptors() {
+    public List<MethodInterceptor> interceptors() {
         return interceptors;
     }
+
+    /**
+     * Returns this aspect without the methods that woven code already intercepts.
+     */
+    MethodAspect excludingWoven() {
+        final Matcher<? super Method> matcher = methodMatcher;
+        return new MethodAspect(classMatcher, new AbstractMatcher<Method>() {
+            @Override
+            public boolean matches(Method method) {
+                return !WovenInterceptors.isWoven(method) && matcher.matches(method);
+            }
+
+            @Override
+            public String toString() {
+                return matcher + " and not woven";
+            }
+        }, interceptors);
+    }
 }
@@ -0,0 +1,126 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.Constructor;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import lemon.needle.exception.NeedleException;
+
+/**
+ * 一个injector上绑定的全部 {@link MethodAspect}, 创建后不再改变。
+ *
+ * {@link #proxy(Constructor)} 对每个构造器只计算一次: 没有方法被拦截时缓存null, 调用方照常用构造器创建实例,
+ * 没有任何额外开销; 否则缓存生成好的 {@link ConstructionProxy}。
+ * 代理由 {@link ProxyBackend} 生成: cglib按(类, 被拦截的方法)缓存增强类和FastClass, 拦截同样方法的injector之间共用同一个增强类;
+ * javassist的生成类绑定了拦截器, 每个集合生成一次。
+ * 编译期织入的类中, 织入点覆盖的方法({@link WovenInterceptors#isWoven(java.lang.reflect.Method)})由织入的代码拦截,
+ * 代理只覆盖其余被匹配的方法; 所有被匹配的方法都已织入时不生成代理。
+ */
+public final class MethodAspects {
+
+    //构造器没有被拦截的方法
+    private static final Object NONE = new Object();
+
+    private final ImmutableList<MethodAspect> aspects;
+
+    private final ProxyBackend backend;
+
+    private final ConcurrentMap<Constructor<?>, Object> proxies = new ConcurrentHashMap<Constructor<?>, Object>();
+
+    private MethodAspects(ImmutableList<MethodAspect> aspects, ProxyBackend backend) {
+        this.aspects = aspects;
+        this.backend = backend;
+    }
+
+    /**
+     * @return 用 backend 生成代理的空集合
+     */
+    public static MethodAspects empty(ProxyBackend backend) {
+        return new MethodAspects(ImmutableList.<MethodAspect> of(), Preconditions.checkNotNull(backend));
+    }
+
+    /**
+     * @return 在当前aspect之后追加aspects的新集合
+     */
+    public MethodAspects with(Collection<MethodAspect> more) {
+        if (more.isEmpty()) {
+            return this;
+        }
+        return new MethodAspects(ImmutableList.<MethodAspect> builder().addAll(aspects).addAll(more).build(), backend);
+    }
+
+    public boolean isEmpty() {
+        return aspects.isEmpty();
+    }
+
+    /**
+     * @return 是否有aspect匹配这个类, 匹配时类上的方法可能被拦截
+     */
+    public boolean matches(Class<?> type) {
+        if (aspects.isEmpty()) {
+            return false;
+        }
+        for (MethodAspect aspect : aspects) {
+            if (aspect.matches(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 创建被拦截实例的代理; 这个类没有被拦截的方法时为null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ConstructionProxy<T> proxy(Constructor<T> constructor) {
+        if (aspects.isEmpty()) {
+            return null;
+        }
+        Object proxy = proxies.get(constructor);
+        if (proxy == null) {
+            proxy = create(constructor);
+            Object previous = proxies.putIfAbsent(constructor, proxy);
+            if (previous != null) {
+                proxy = previous;
+            }
+        }
+        return proxy == NONE ? null : (ConstructionProxy<T>) proxy;
+    }
+
+    private <T> Object create(Constructor<T> constructor) {
+        try {
+            ConstructionProxy<T> proxy = backend.create(constructor, WovenInterceptors.isWoven(constructor.getDeclaringClass()) ? excludingWoven() : aspects);
+            return proxy != null ? proxy : NONE;
+        } catch (NeedleException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new NeedleException(e, "Failed to enhance %s for method interception", constructor.getDeclaringClass().getName());
+        }
+    }
+
+    private List<MethodAspect> excludingWoven() {
+        ImmutableList.Builder<MethodAspect> excluding = ImmutableList.builder();
+        for (MethodAspect aspect : aspects) {
+            excluding.add(aspect.excludingWoven());
+        }
+        return excluding.build();
+    }
+
+    public List<MethodAspect> aspects() {
+        return aspects;
+    }
+
+    public ProxyBackend backend() {
+        return backend;
+    }
+
+    @Override
+    public String toString() {
+        return "MethodAspects" + aspects;
+    }
+}
@@ -0,0 +1,21 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+/**
+ * 生成被拦截类的子类并创建其实例的方式。
+ *
+ * 每个(构造函数, aspect集合)只调用一次, 返回的代理在之后的每次实例化中复用。
+ *
+ * @see ProxyBackends
+ */
+public interface ProxyBackend {
+
+    /**
+     * @param constructor 注入使用的构造函数
+     * @param aspects injector上绑定的全部aspect
+     * @return 创建被拦截实例的代理; 这个类没有被拦截的方法时为null
+     */
+    <T> ConstructionProxy<T> create(Constructor<T> constructor, List<MethodAspect> aspects) throws Exception;
+}
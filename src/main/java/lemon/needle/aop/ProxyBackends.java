@@ -0,0 +1,31 @@
+package lemon.needle.aop;
+
+/**
+ * 内置的{@link ProxyBackend}
+ */
+public final class ProxyBackends {
+
+    private ProxyBackends() {
+    }
+
+    /** cglib Enhancer: 每个方法一个Callback, 最终通过MethodProxy调用父类方法 */
+    public static final ProxyBackend CGLIB = new CglibProxyBackend();
+
+    /**
+     * 用javassist生成子类: 被拦截的方法直接取静态的拦截器数组, 最终调用生成的 super.method(...);
+     * 没有被拦截的方法不覆盖。无法生成时退回到 {@link #CGLIB}
+     */
+    public static final ProxyBackend JAVASSIST = new JavassistProxyBackend(CGLIB);
+
+    /**
+     * @return 由系统属性 needle_proxy_backend 指定的实现, 默认 {@link #CGLIB}
+     */
+    public static ProxyBackend defaultBackend() {
+        switch (InternalFlags.getProxyBackendOption()) {
+            case JAVASSIST:
+                return JAVASSIST;
+            default:
+                return CGLIB;
+        }
+    }
+}
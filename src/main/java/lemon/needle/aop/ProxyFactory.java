@@ -43,10 +43,7 @@ final class ProxyFactory<T> implements ConstructionProxyFactory<T> {
      */
     private BytecodeGen.Visibility visibility = BytecodeGen.Visibility.PUBLIC;
 
-    ProxyFactory(Iterable<MethodAspect> methodAspects) {
-        @SuppressWarnings("unchecked") // the member of injectionPoint is always a Constructor<T>
-        Constructor<T> constructor = null;//(Constructor<T>) injectionPoint.getMember();
-
+    ProxyFactory(Constructor<T> constructor, Iterable<MethodAspect> methodAspects) {
         declaringClass = constructor.getDeclaringClass();
 
         // Find applicable aspects. Bow out if none are applicable to this class.
@@ -0,0 +1,104 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import lemon.needle.aop.InternalFlags.PruneStackTraceOption;
+
+/**
+ * {@link JavassistProxyBackend}生成的方法通过 {@link #invoke} 进入: 拦截器全部被开关关闭时直接调用父类方法,
+ * 否则每次调用创建一个。
+ *
+ * 和 {@link InterceptorStackCallback} 一样只分配一个对象, proceed()推进下标; 拦截器用完后调用 {@link GeneratedProxy#invokeSuper(int, Object[])}。
+ */
+public final class ProxyInvocation implements MethodInvocation {
+
+    private static final boolean PRUNE_STACK_TRACES = InternalFlags.getPruneStackTraceOption() == PruneStackTraceOption.ON;
+
+    private final GeneratedProxy proxy;
+    private final int methodIndex;
+    private final Method method;
+    private final MethodInterceptor[] interceptors;
+    private final Object[] arguments;
+    //下一次proceed()调用的拦截器, 等于interceptors.length时调用父类方法
+    private int index;
+
+    /**
+     * 生成的方法调用的入口
+     * @param chain 生成类静态字段中第methodIndex个方法的拦截器
+     */
+    public static Object invoke(GeneratedProxy proxy, int methodIndex, Method method, Object chain, Object[] arguments) throws Throwable {
+        MethodInterceptor[] interceptors = ((InterceptorChain) chain).active();
+        if (interceptors.length == 0) {
+            return proxy.invokeSuper(methodIndex, arguments);
+        }
+        return new ProxyInvocation(proxy, methodIndex, method, interceptors, arguments).start();
+    }
+
+    /**
+     * {@link ToggledDispatch} 按开启的拦截器链接的入口
+     */
+    static Object invokeWith(GeneratedProxy proxy, int methodIndex, Method method, MethodInterceptor[] interceptors, Object[] arguments) throws Throwable {
+        return new ProxyInvocation(proxy, methodIndex, method, interceptors, arguments).start();
+    }
+
+    ProxyInvocation(GeneratedProxy proxy, int methodIndex, Method method, MethodInterceptor[] interceptors, Object[] arguments) {
+        this.proxy = proxy;
+        this.methodIndex = methodIndex;
+        this.method = method;
+        this.interceptors = interceptors;
+        this.arguments = arguments;
+    }
+
+    /**
+     * 从第一个拦截器开始执行
+     */
+    Object start() throws Throwable {
+        if (!PRUNE_STACK_TRACES) {
+            return proceed();
+        }
+        try {
+            return proceed();
+        } catch (Throwable t) {
+            InterceptorStackCallback.pruneStacktrace(t);
+            throw t;
+        }
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        int current = index;
+        if (current == interceptors.length) {
+            return proxy.invokeSuper(methodIndex, arguments);
+        }
+        index = current + 1;
+        try {
+            return interceptors[current].invoke(this);
+        } finally {
+            index = current;
+        }
+    }
+
+    @Override
+    public Method getMethod() {
+        return method;
+    }
+
+    @Override
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public Object getThis() {
+        return proxy;
+    }
+
+    @Override
+    public AccessibleObject getStaticPart() {
+        return method;
+    }
+}
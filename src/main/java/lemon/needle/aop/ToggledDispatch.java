@@ -0,0 +1,125 @@
+package lemon.needle.aop;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+
+/**
+ * {@link JavassistProxyBackend} 生成类中带开关的方法的分发。
+ *
+ * <pre>
+ * static final MethodHandle DISPATCH0 = ToggledDispatch.take(name)[0];
+ * public R method(A a) {
+ *     return ($r) ToggledDispatch.invoke(DISPATCH0, this, $args);
+ * }
+ * </pre>
+ *
+ * DISPATCH0是一个MutableCallSite的dynamicInvoker, 对JIT是常量。目标按当前开启的拦截器链接:
+ * 没有开启的拦截器时直接调用 invokeSuper, 否则进入 {@link ProxyInvocation}; 目标由相关开关的 {@link SwitchPoint} 保护。
+ * 开关变化时使旧的SwitchPoint失效, 方法在下一次调用时重新链接; 开关不变时调用路径上没有任何开关或版本号的读取。
+ */
+public final class ToggledDispatch {
+
+    /** (Object proxy, Object[] args)Object */
+    private static final MethodType TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private static final MethodHandle INVOKE_SUPER;
+    private static final MethodHandle INVOKE_WITH;
+    private static final MethodHandle RELINK;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            INVOKE_SUPER = lookup.findVirtual(GeneratedProxy.class, "invokeSuper", MethodType.methodType(Object.class, int.class, Object[].class));
+            INVOKE_WITH = lookup.findStatic(ProxyInvocation.class, "invokeWith", MethodType.methodType(Object.class, GeneratedProxy.class, int.class, Method.class, MethodInterceptor[].class, Object[].class));
+            RELINK = lookup.findVirtual(ToggledDispatch.class, "relinkAndInvoke", TYPE);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    //生成类名 -> 它的静态初始化要取走的MethodHandle
+    private static final ConcurrentMap<String, MethodHandle[]> pending = new ConcurrentHashMap<String, MethodHandle[]>();
+
+    private final int methodIndex;
+    private final Method method;
+    private final InterceptorChain chain;
+    private final MutableCallSite site = new MutableCallSite(TYPE);
+
+    ToggledDispatch(int methodIndex, Method method, InterceptorChain chain) {
+        this.methodIndex = methodIndex;
+        this.method = method;
+        this.chain = chain;
+        relink();
+    }
+
+    /**
+     * @return 生成类静态字段中保存的MethodHandle, 类型为 (Object, Object[])Object
+     */
+    MethodHandle dispatcher() {
+        return site.dynamicInvoker();
+    }
+
+    /**
+     * 登记生成类初始化时取走的MethodHandle
+     */
+    static void offer(String className, MethodHandle[] dispatchers) {
+        pending.put(className, dispatchers);
+    }
+
+    /**
+     * 生成类的静态初始化调用, 只能取一次
+     */
+    public static MethodHandle[] take(String className) {
+        MethodHandle[] dispatchers = pending.remove(className);
+        if (dispatchers == null) {
+            throw new IllegalStateException("No dispatchers for " + className);
+        }
+        return dispatchers;
+    }
+
+    /**
+     * 生成的方法调用的入口; dispatcher来自生成类的static final字段, 内联后是常量
+     */
+    public static Object invoke(MethodHandle dispatcher, Object proxy, Object[] arguments) throws Throwable {
+        return (Object) dispatcher.invokeExact(proxy, arguments);
+    }
+
+    private synchronized MethodHandle relink() {
+        //先取SwitchPoint再读开关: 读开关之后的变化一定会使取到的SwitchPoint失效
+        Set<SwitchPoint> switchPoints = new LinkedHashSet<SwitchPoint>();
+        for (MethodInterceptor interceptor : chain.interceptors()) {
+            if (interceptor instanceof ToggledInterceptor) {
+                switchPoints.add(((ToggledInterceptor) interceptor).toggle.switchPoint());
+            }
+        }
+        MethodInterceptor[] active = chain.enabled();
+        MethodHandle target;
+        if (active.length == 0) {
+            target = MethodHandles.insertArguments(INVOKE_SUPER, 1, methodIndex);
+        } else {
+            target = MethodHandles.insertArguments(INVOKE_WITH, 1, methodIndex, method, active);
+        }
+        target = target.asType(TYPE);
+        MethodHandle fallback = RELINK.bindTo(this);
+        for (SwitchPoint switchPoint : switchPoints) {
+            target = switchPoint.guardWithTest(target, fallback);
+        }
+        site.setTarget(target);
+        return target;
+    }
+
+    @SuppressWarnings("unused")
+    private Object relinkAndInvoke(Object proxy, Object[] arguments) throws Throwable {
+        return (Object) relink().invokeExact(proxy, arguments);
+    }
+}
@@ -0,0 +1,28 @@
+package lemon.needle.aop;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * 受 {@link InterceptorToggle} 控制的拦截器。拦截器链只保留开关打开的拦截器并直接调用其delegate, 这个包装本身不在调用路径上
+ */
+final class ToggledInterceptor implements MethodInterceptor {
+
+    final InterceptorToggle toggle;
+    final MethodInterceptor delegate;
+
+    ToggledInterceptor(InterceptorToggle toggle, MethodInterceptor delegate) {
+        this.toggle = toggle;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        return toggle.isEnabled() ? delegate.invoke(invocation) : invocation.proceed();
+    }
+
+    @Override
+    public String toString() {
+        return delegate + " if " + toggle;
+    }
+}
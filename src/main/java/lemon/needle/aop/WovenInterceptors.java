@@ -0,0 +1,228 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+
+import com.google.common.collect.MapMaker;
+
+import lemon.needle.exception.NeedleException;
+
+/**
+ * 编译期织入的拦截器注册表, 每个injector一个。
+ *
+ * 织入的代码不持有injector: injector创建织入类的实例后用 {@link #adopt(Object)} 登记, 织入点按 this 找到创建它的injector的注册表;
+ * 不是由injector创建的实例和static方法使用全局的默认注册表。
+ * injector装配模块时, bindInterceptor 绑定的拦截器实例按类型注册, {@link Intercepted} 引用同一类型时使用该实例;
+ * 没有注册的类型用无参构造函数创建一个全进程共享的实例。同一injector中同一类型绑定了不同实例时, 引用它的织入点在第一次调用时失败。
+ */
+public final class WovenInterceptors {
+
+    private static final Logger logger = Logger.getLogger(WovenInterceptors.class.getName());
+
+    /** 不属于任何injector的实例和static方法使用 */
+    private static final WovenInterceptors DEFAULT = new WovenInterceptors();
+
+    /** 织入类的实例 -> 创建它的injector的注册表; 弱引用的key按引用比较 */
+    private static final ConcurrentMap<Object, WovenInterceptors> owners = new MapMaker().weakKeys().makeMap();
+
+    /** 没有绑定实例的拦截器类型, 用无参构造函数创建后全局共享 */
+    private static final ConcurrentMap<Class<?>, MethodInterceptor> defaults = new ConcurrentHashMap<Class<?>, MethodInterceptor>();
+
+    private static final ClassValue<Boolean> woven = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.getName().startsWith("ajc$")) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    };
+
+    //每个类只检查一次, 用@Intercepted但没有织入时提示注解不起作用
+    private static final ClassValue<Boolean> checked = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                if (!isWoven(current) && declaresIntercepted(current)) {
+                    logger.warning(current.getName() + " uses @Intercepted but was not woven with -Pweave, the annotation has no effect without weaving");
+                }
+            }
+            return Boolean.TRUE;
+        }
+    };
+
+    private volatile Map<Class<?>, MethodInterceptor> instances = new HashMap<Class<?>, MethodInterceptor>();
+
+    private volatile Set<Class<?>> ambiguous = new HashSet<Class<?>>();
+
+    //注册时整体替换: 替换前开始计算的链只会放进旧的map, 不会在新的注册之后留下
+    private volatile ConcurrentMap<JoinPoint.StaticPart, Chain> chains = new ConcurrentHashMap<JoinPoint.StaticPart, Chain>();
+
+    /**
+     * 注册拦截器实例, 之后这个injector创建的织入实例引用该类型时使用它
+     */
+    public synchronized void register(Iterable<MethodInterceptor> interceptors) {
+        Map<Class<?>, MethodInterceptor> registered = new HashMap<Class<?>, MethodInterceptor>(instances);
+        Set<Class<?>> conflicts = new HashSet<Class<?>>(ambiguous);
+        for (MethodInterceptor interceptor : interceptors) {
+            //带开关的拦截器按被包装的类型注册, 织入的方法同样受开关控制
+            Class<?> type = interceptor instanceof ToggledInterceptor ? ((ToggledInterceptor) interceptor).delegate.getClass() : interceptor.getClass();
+            MethodInterceptor previous = registered.put(type, interceptor);
+            if (previous != null && !same(previous, interceptor)) {
+                conflicts.add(type);
+            }
+        }
+        instances = registered;
+        ambiguous = conflicts;
+        chains = new ConcurrentHashMap<JoinPoint.StaticPart, Chain>();
+    }
+
+    private static boolean same(MethodInterceptor a, MethodInterceptor b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof ToggledInterceptor && b instanceof ToggledInterceptor) {
+            ToggledInterceptor x = (ToggledInterceptor) a;
+            ToggledInterceptor y = (ToggledInterceptor) b;
+            return x.toggle == y.toggle && x.delegate == y.delegate;
+        }
+        return false;
+    }
+
+    /**
+     * 登记由这个注册表所属的injector创建的织入实例
+     */
+    public void adopt(Object instance) {
+        owners.put(instance, this);
+    }
+
+    /**
+     * @return 创建target的injector的注册表, 不是由injector创建的(或target为null)时为默认注册表
+     */
+    public static WovenInterceptors of(Object target) {
+        if (target == null) {
+            return DEFAULT;
+        }
+        WovenInterceptors owner = owners.get(target);
+        return owner != null ? owner : DEFAULT;
+    }
+
+    /**
+     * @return 类是否经过ajc织入
+     */
+    public static boolean isWoven(Class<?> type) {
+        return woven.get(type);
+    }
+
+    /**
+     * @return 方法是否由织入的 {@link InterceptedAspect} 拦截; 这样的方法不再由运行时代理拦截
+     */
+    public static boolean isWoven(Method method) {
+        Class<?> declaring = method.getDeclaringClass();
+        if (!isWoven(declaring)) {
+            return false;
+        }
+        return method.isAnnotationPresent(Intercepted.class) || (!Modifier.isStatic(method.getModifiers()) && declaring.isAnnotationPresent(Intercepted.class));
+    }
+
+    /**
+     * type或其父类用了 {@link Intercepted} 却没有织入时记录一条警告, 每个类只检查一次
+     */
+    public static void checkWoven(Class<?> type) {
+        checked.get(type);
+    }
+
+    private static boolean declaresIntercepted(Class<?> type) {
+        if (type.isAnnotationPresent(Intercepted.class)) {
+            return true;
+        }
+        for (Method method : type.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(Intercepted.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 方法上的 {@link Intercepted} 对应的拦截器, 类上的在前, 重复的只保留一个
+     */
+    public MethodInterceptor[] interceptors(Method method) {
+        Set<MethodInterceptor> interceptors = new LinkedHashSet<MethodInterceptor>();
+        add(interceptors, method.getDeclaringClass().getAnnotation(Intercepted.class));
+        add(interceptors, method.getAnnotation(Intercepted.class));
+        return interceptors.toArray(new MethodInterceptor[interceptors.size()]);
+    }
+
+    Chain chain(JoinPoint.StaticPart joinPoint) {
+        ConcurrentMap<JoinPoint.StaticPart, Chain> current = chains;
+        Chain chain = current.get(joinPoint);
+        if (chain == null) {
+            Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+            chain = new Chain(method, new InterceptorChain(interceptors(method)));
+            Chain existing = current.putIfAbsent(joinPoint, chain);
+            if (existing != null) {
+                chain = existing;
+            }
+        }
+        return chain;
+    }
+
+    private void add(Set<MethodInterceptor> interceptors, Intercepted intercepted) {
+        if (intercepted == null) {
+            return;
+        }
+        for (Class<? extends MethodInterceptor> type : intercepted.value()) {
+            interceptors.add(resolve(type));
+        }
+    }
+
+    private MethodInterceptor resolve(Class<? extends MethodInterceptor> type) {
+        if (ambiguous.contains(type)) {
+            throw new NeedleException("%s is bound with bindInterceptor more than once with different instances, @Intercepted can't choose one", type.getName());
+        }
+        MethodInterceptor interceptor = instances.get(type);
+        if (interceptor != null) {
+            return interceptor;
+        }
+        interceptor = defaults.get(type);
+        if (interceptor != null) {
+            return interceptor;
+        }
+        try {
+            Constructor<? extends MethodInterceptor> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            interceptor = constructor.newInstance();
+        } catch (Exception e) {
+            throw new NeedleException(e, "%s is neither bound with bindInterceptor nor has a no-arg constructor", type.getName());
+        }
+        MethodInterceptor existing = defaults.putIfAbsent(type, interceptor);
+        return existing != null ? existing : interceptor;
+    }
+
+    static final class Chain {
+        final Method method;
+        final InterceptorChain interceptors;
+
+        Chain(Method method, InterceptorChain interceptors) {
+            this.method = method;
+            this.interceptors = interceptors;
+        }
+    }
+}
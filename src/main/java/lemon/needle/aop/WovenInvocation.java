@@ -0,0 +1,79 @@
+package lemon.needle.aop;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.aspectj.lang.ProceedingJoinPoint;
+
+import lemon.needle.aop.InternalFlags.PruneStackTraceOption;
+
+/**
+ * 织入的方法每次调用创建一个, 拦截器用完后通过 {@link ProceedingJoinPoint#proceed(Object[])} 执行原方法体。
+ */
+final class WovenInvocation implements MethodInvocation {
+
+    private static final boolean PRUNE_STACK_TRACES = InternalFlags.getPruneStackTraceOption() == PruneStackTraceOption.ON;
+
+    private final ProceedingJoinPoint joinPoint;
+    private final Method method;
+    private final MethodInterceptor[] interceptors;
+    private final Object[] arguments;
+    //下一次proceed()调用的拦截器, 等于interceptors.length时执行原方法
+    private int index;
+
+    WovenInvocation(ProceedingJoinPoint joinPoint, Method method, MethodInterceptor[] interceptors) {
+        this.joinPoint = joinPoint;
+        this.method = method;
+        this.interceptors = interceptors;
+        this.arguments = joinPoint.getArgs();
+    }
+
+    Object start() throws Throwable {
+        if (!PRUNE_STACK_TRACES) {
+            return proceed();
+        }
+        try {
+            return proceed();
+        } catch (Throwable t) {
+            InterceptorStackCallback.pruneStacktrace(t);
+            throw t;
+        }
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        int current = index;
+        if (current == interceptors.length) {
+            //拦截器可能修改了getArguments()中的参数
+            return joinPoint.proceed(arguments);
+        }
+        index = current + 1;
+        try {
+            return interceptors[current].invoke(this);
+        } finally {
+            index = current;
+        }
+    }
+
+    @Override
+    public Method getMethod() {
+        return method;
+    }
+
+    @Override
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public Object getThis() {
+        return joinPoint.getThis();
+    }
+
+    @Override
+    public AccessibleObject getStaticPart() {
+        return method;
+    }
+}
@@ -4,6 +4,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,13 +13,18 @@ import org.aopalliance.intercept.MethodInterceptor;
 
 import com.google.common.collect.Maps;
 
+import lemon.needle.aop.InterceptorToggle;
+import lemon.needle.aop.MethodAspect;
 import lemon.needle.exception.NeedleException;
 import lemon.needle.ioc.binder.Binder;
+import lemon.needle.ioc.scope.Scope;
 
 public abstract class AbsModule implements Module {
 
     private List<Binder<?>> binders = new ArrayList<Binder<?>>();
     private Set<Class<? extends Annotation>> qualifiers = new HashSet<Class<? extends Annotation>>();
+    private Map<Class<? extends Annotation>, Scope> scopes = new LinkedHashMap<Class<? extends Annotation>, Scope>();
+    private List<MethodAspect> aspects = new ArrayList<MethodAspect>();
 
     protected final <T> Binder<T> bind(Class<T> type) {
         Binder<T> binder = new Binder<T>(type);
@@ -26,21 +32,49 @@ public abstract class AbsModule implements Module {
         return binder;
     }
 
+    /**
+     * 注册自定义作用域: 之后带有 annotation 的类、{@code @Provides} 方法和 {@link Binder#in(Class)} 都由 scope 包装。
+     * 作用域在编译绑定时应用一次, 每次get()不再查找; 使用该作用域的绑定应在注册之后出现
+     * @param annotation 带有 {@link javax.inject.Scope} 的注解
+     */
+    protected final void bindScope(Class<? extends Annotation> annotation, Scope scope) {
+        scopes.put(annotation, scope);
+    }
+
     /**
      * 
-     * 定义Aop功能
+     * 定义Aop功能: 由构造函数创建的bean中匹配的方法依次经过interceptors。
+     * 实例通过缓存的cglib子类创建, 没有匹配方法的类不受影响; {@code @Provides} 方法和toInstance的实例不会被拦截。
+     * 用 -Pweave 编译期织入的类不生成代理, 只有 {@link lemon.needle.aop.Intercepted} 声明的方法被拦截, 拦截器实例取自这里
      * @param classMatcher  过滤类 
      * @param methodMatcher 过滤方法
      * @param interceptors  方法拦截器
      */
     protected void bindInterceptor(Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, MethodInterceptor... interceptors) {
+        aspects.add(new MethodAspect(classMatcher, methodMatcher, interceptors));
+    }
 
+    /**
+     * 定义受开关控制的Aop功能: toggle关闭时跳过这些拦截器, 一个方法上的拦截器全部关闭时直接调用目标方法。
+     * 运行时切换开关立即生效, 不需要重建injector
+     * @param toggle 拦截器开关, 见 {@link InterceptorToggle#named(String)}
+     */
+    protected void bindInterceptor(InterceptorToggle toggle, Matcher<? super Class<?>> classMatcher, Matcher<? super Method> methodMatcher, MethodInterceptor... interceptors) {
+        aspects.add(new MethodAspect(toggle, classMatcher, methodMatcher, interceptors));
     }
     
     public abstract void configure();
 
-    final void applyTo(InjectorImpl injector) {
+    final synchronized void applyTo(InjectorImpl injector) {
+        //同一个模块实例可以装配到多个injector中, 每次重新configure
+        binders.clear();
+        scopes.clear();
+        aspects.clear();
         configure();
+        for (Map.Entry<Class<? extends Annotation>, Scope> entry : scopes.entrySet()) {
+            injector.bindScope(entry.getKey(), entry.getValue());
+        }
+        injector.bindInterceptors(aspects);
         validate(injector);
         for (Binder<?> binder : binders) {
             binder.register(injector);
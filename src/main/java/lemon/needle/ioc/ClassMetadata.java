@@ -0,0 +1,243 @@
+package lemon.needle.ioc;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Qualifier;
+import javax.inject.Scope;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.annotations.Async;
+import lemon.needle.ioc.annotations.Provides;
+
+/**
+ * 一个类的反射元数据: 用于实例化的构造函数, 需要注入的字段和方法, 以及 {@code @Provides} 方法和它们参数上的qualifier。
+ *
+ * 按Class缓存在进程范围的ClassValue中, 计算完成后不再修改, 由所有injector共享:
+ * 同一组类上创建再多的injector, 也只在第一次遍历类层次和调用setAccessible。
+ * 类被卸载时缓存随之回收。
+ */
+final class ClassMetadata {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassMetadata.class);
+
+    private static final ClassValue<ClassMetadata> metadata = new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+            return new ClassMetadata(type);
+        }
+    };
+
+    private static final ClassValue<Boolean> qualifiers = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> annotationType) {
+            return annotationType.isAnnotationPresent(Qualifier.class);
+        }
+    };
+
+    private static final ClassValue<Boolean> scopes = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> annotationType) {
+            return annotationType.isAnnotationPresent(Scope.class);
+        }
+    };
+
+    private final Class<?> type;
+    private final Class<? extends Annotation> scope;
+    private final Constructor<?> constructor;
+    //找不到可用构造函数时的错误信息, 每次使用时重新抛出
+    private final String constructorError;
+    private final Annotation[] constructorQualifiers;
+    private final List<Field> fields;
+    private final List<InjectableMethod> methods;
+    private final List<InjectableMethod> provides;
+
+    static ClassMetadata of(Class<?> type) {
+        return metadata.get(type);
+    }
+
+    private ClassMetadata(Class<?> type) {
+        this.type = type;
+        this.scope = scope(type.getAnnotations());
+
+        Constructor<?> found = null;
+        String error = null;
+        try {
+            found = findConstructor(type);
+            if (found == null) {
+                error = String.format("%s doesn't have an @Inject or no-arg constructor which is not private, or a module provider", type.getName());
+            }
+        } catch (NeedleException e) {
+            error = e.getMessage();
+        } catch (SecurityException e) {
+            logger.error("", e);
+        }
+        this.constructor = found;
+        this.constructorError = error;
+        this.constructorQualifiers = found != null ? qualifiers(found.getParameterAnnotations()) : new Annotation[0];
+
+        List<Field> fields = new ArrayList<>();
+        List<InjectableMethod> methods = new ArrayList<>();
+        List<InjectableMethod> provides = new ArrayList<>();
+        for (Class<?> current = type; current != null && !current.equals(Object.class); current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Inject.class)) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Inject.class)) {
+                    method.setAccessible(true);
+                    methods.add(new InjectableMethod(method));
+                }
+                //子类覆盖的 @Provides 方法只保留子类的
+                if (method.isAnnotationPresent(Provides.class) && (type.equals(current) || !overridden(method, provides))) {
+                    method.setAccessible(true);
+                    provides.add(new InjectableMethod(method));
+                }
+            }
+        }
+        this.fields = Collections.unmodifiableList(fields);
+        this.methods = Collections.unmodifiableList(methods);
+        this.provides = Collections.unmodifiableList(provides);
+    }
+
+    private static Constructor<?> findConstructor(Class<?> type) {
+        Constructor<?> inject = null;
+        Constructor<?> noarg = null;
+        for (Constructor<?> c : type.getDeclaredConstructors()) {
+            if (c.isAnnotationPresent(Inject.class)) {
+                if (inject == null) {//只能有一个构造函数
+                    inject = c;
+                } else {
+                    throw new NeedleException(String.format("%s has multiple @Inject constructors", type));
+                }
+            } else if (c.getParameterTypes().length == 0 && c.getModifiers() != Modifier.PRIVATE) {
+                noarg = c;
+            }
+        }
+        Constructor<?> constructor = inject != null ? inject : noarg;
+        if (constructor != null) {
+            constructor.setAccessible(true);
+        }
+        return constructor;
+    }
+
+    private static boolean overridden(Method method, List<InjectableMethod> discovered) {
+        for (InjectableMethod subclass : discovered) {
+            if (subclass.method.getName().equals(method.getName()) && Arrays.equals(method.getParameterTypes(), subclass.method.getParameterTypes())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //过滤归属于Qualifier的注解
+    static Annotation qualifier(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (qualifiers.get(annotation.annotationType())) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    //归属于Scope的注解, 例如Singleton
+    private static Class<? extends Annotation> scope(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (scopes.get(annotation.annotationType())) {
+                return annotation.annotationType();
+            }
+        }
+        return null;
+    }
+
+    private static Annotation[] qualifiers(Annotation[][] annotations) {
+        Annotation[] found = new Annotation[annotations.length];
+        for (int i = 0; i < annotations.length; i++) {
+            found[i] = qualifier(annotations[i]);
+        }
+        return found;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return 类上的作用域注解, 例如 {@code @Singleton}, 没有时为null
+     */
+    Class<? extends Annotation> getScope() {
+        return scope;
+    }
+
+    /**
+     * @return {@code @Inject} 标注的, 或者非private的无参构造函数; SecurityException时为null
+     */
+    Constructor<?> getConstructor() {
+        if (constructorError != null) {
+            throw new NeedleException(constructorError);
+        }
+        return constructor;
+    }
+
+    /**
+     * @return 构造函数每个参数上的qualifier, 没有时对应位置为null
+     */
+    Annotation[] getConstructorQualifiers() {
+        return constructorQualifiers;
+    }
+
+    /**
+     * @return 类层次中 {@code @Inject} 标注的字段, 子类在前
+     */
+    List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return 类层次中 {@code @Inject} 标注的方法, 子类在前
+     */
+    List<InjectableMethod> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return 作为模块时的 {@code @Provides} 方法
+     */
+    List<InjectableMethod> getProvides() {
+        return provides;
+    }
+
+    static final class InjectableMethod {
+        final Method method;
+        //方法本身的qualifier, 用于 @Provides
+        final Annotation qualifier;
+        final Annotation[] parameterQualifiers;
+        //@Provides 方法或其返回类型上的作用域注解
+        final Class<? extends Annotation> scope;
+        //@Provides @Async
+        final boolean async;
+
+        InjectableMethod(Method method) {
+            this.method = method;
+            this.qualifier = qualifier(method.getAnnotations());
+            this.parameterQualifiers = qualifiers(method.getParameterAnnotations());
+            Class<? extends Annotation> scope = scope(method.getAnnotations());
+            this.scope = scope != null ? scope : scope(method.getReturnType().getAnnotations());
+            this.async = method.isAnnotationPresent(Async.class);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package lemon.needle.ioc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+
+/**
+ * 启动阶段创建所有eager单例。
+ *
+ * 先按构造函数、字段和方法的依赖建出eager绑定之间的DAG(经过非eager的just-in-time绑定时继续向下找),
+ * 再把每个绑定作为一个任务提交到线程池: 依赖全部完成后才开始创建, 互不依赖的子图并行创建。
+ * 完成后记录总耗时和关键路径耗时。
+ */
+final class EagerBootstrap {
+
+    private static final Logger logger = LoggerFactory.getLogger(EagerBootstrap.class);
+
+    private final InjectorImpl injector;
+    private final Map<Key<?>, Class<?>> eager;
+    private final Executor executor;
+    private final Map<Key<?>, Node> nodes = new LinkedHashMap<>();
+
+    EagerBootstrap(InjectorImpl injector, Map<Key<?>, Class<?>> eager, Executor executor) {
+        this.injector = injector;
+        this.eager = eager;
+        this.executor = executor;
+    }
+
+    /**
+     * @return 所有eager单例创建完成时完成; 任何一个失败时以该异常结束, 依赖它的绑定不再创建
+     */
+    CompletableFuture<Void> start() {
+        if (eager.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final long begin = System.nanoTime();
+        for (Key<?> key : eager.keySet()) {
+            node(key, new LinkedHashSet<Key<?>>());
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[nodes.size()];
+        int i = 0;
+        for (Node node : nodes.values()) {
+            futures[i++] = node.future;
+        }
+        return CompletableFuture.allOf(futures).thenRun(new Runnable() {
+            @Override
+            public void run() {
+                report(System.nanoTime() - begin);
+            }
+        });
+    }
+
+    private Node node(Key<?> key, Set<Key<?>> path) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            return node;
+        }
+        if (!path.add(key)) {
+            throw new NeedleException("Circular dependency between eager singletons: %s -> %s", path, key);
+        }
+        List<Node> dependencies = new ArrayList<>();
+        for (Key<?> dependency : eagerDependencies(key)) {
+            dependencies.add(node(dependency, path));
+        }
+        path.remove(key);
+        node = new Node(key, dependencies);
+        node.schedule();
+        nodes.put(key, node);
+        return node;
+    }
+
+    /**
+     * 从key的实现类出发, 找到它直接或经由非eager绑定间接依赖的eager绑定
+     */
+    private Set<Key<?>> eagerDependencies(Key<?> key) {
+        Set<Key<?>> found = new LinkedHashSet<>();
+        Class<?> implementation = eager.get(key);
+        if (implementation == null) {
+            return found;
+        }
+        Set<Class<?>> visited = new HashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        pending.add(implementation);
+        while (!pending.isEmpty()) {
+            Class<?> type = pending.poll();
+            if (!visited.add(type)) {
+                continue;
+            }
+            for (Key<?> dependency : injector.dependencies(type)) {
+                if (dependency.equals(key)) {
+                    continue;
+                }
+                if (eager.containsKey(dependency)) {
+                    found.add(dependency);
+                } else if (!injector.hasBinding(dependency)) {
+                    //just-in-time绑定, 继续找它的依赖; 模块中的其他绑定无法得知依赖, 视为叶子
+                    pending.add(dependency.type);
+                }
+            }
+        }
+        return found;
+    }
+
+    private void report(long total) {
+        Map<Node, Long> paths = new LinkedHashMap<>();
+        Node last = null;
+        long critical = 0;
+        for (Node node : nodes.values()) {
+            long length = criticalPath(node, paths);
+            if (length >= critical) {
+                critical = length;
+                last = node;
+            }
+        }
+        List<Key<?>> path = new ArrayList<>();
+        for (Node node = last; node != null; node = node.slowestDependency(paths)) {
+            path.add(0, node.key);
+        }
+        logger.info(String.format("%d eager singletons built in %d ms, critical path %d ms: %s", nodes.size(), TimeUnit.NANOSECONDS.toMillis(total), TimeUnit.NANOSECONDS.toMillis(critical), path));
+    }
+
+    /**
+     * @return 以node结束的最长依赖链上各绑定自身创建耗时之和
+     */
+    private static long criticalPath(Node node, Map<Node, Long> paths) {
+        Long cached = paths.get(node);
+        if (cached != null) {
+            return cached;
+        }
+        long longest = 0;
+        for (Node dependency : node.dependencies) {
+            longest = Math.max(longest, criticalPath(dependency, paths));
+        }
+        long length = node.elapsed() + longest;
+        paths.put(node, length);
+        return length;
+    }
+
+    private final class Node {
+        final Key<?> key;
+        final List<Node> dependencies;
+        CompletableFuture<Void> future;
+        volatile long started;
+        volatile long finished;
+
+        Node(Key<?> key, List<Node> dependencies) {
+            this.key = key;
+            this.dependencies = dependencies;
+        }
+
+        void schedule() {
+            CompletableFuture<?>[] before = new CompletableFuture<?>[dependencies.size()];
+            for (int i = 0; i < before.length; i++) {
+                before[i] = dependencies.get(i).future;
+            }
+            future = CompletableFuture.allOf(before).thenRunAsync(new Runnable() {
+                @Override
+                public void run() {
+                    started = System.nanoTime();
+                    injector.provider(key).get();
+                    finished = System.nanoTime();
+                }
+            }, executor);
+        }
+
+        long elapsed() {
+            return finished - started;
+        }
+
+        Node slowestDependency(Map<Node, Long> paths) {
+            Node slowest = null;
+            for (Node dependency : dependencies) {
+                if (slowest == null || paths.get(dependency) > paths.get(slowest)) {
+                    slowest = dependency;
+                }
+            }
+            return slowest;
+        }
+    }
+}
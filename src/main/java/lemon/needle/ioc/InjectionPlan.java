@@ -0,0 +1,117 @@
+package lemon.needle.ioc;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import lemon.needle.aop.ConstructionProxy;
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.binder.FieldInjector;
+import lemon.needle.ioc.binder.MethodInjector;
+import lemon.needle.ioc.factory.BeanFactory;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.profile.Phase;
+import lemon.needle.ioc.profile.Profiler;
+import lemon.needle.ioc.profile.Profiler.Frame;
+import lemon.needle.util.CommonUtil;
+
+/**
+ * 一个绑定的注入计划: 构造函数, 需要注入的字段和方法, 以及它们依赖的provider。
+ *
+ * 每个Key只在第一次get()时计算一次, 之后的每次实例化都复用同一份计划,
+ * 不再遍历类层次、调用setAccessible或重新解析依赖。
+ * 
+ * 实例化和注入本身由{@link FactoryBackend}生成的{@link BeanFactory}完成;
+ * 有方法被拦截时改由{@link ConstructionProxy}创建增强子类的实例, 字段和方法注入不变。
+ *
+ * @param <T>
+ */
+public final class InjectionPlan<T> {
+
+    private final Key<T> key;
+    private final Constructor<?> constructor;
+    private final Provider<?>[] constructorProviders;
+    private final FieldInjector[] fieldInjectors;
+    private final MethodInjector[] methodInjectors;
+    private final BeanFactory<T> factory;
+    private final ConstructionProxy<?> proxy;
+    private final Profiler profiler;
+
+    InjectionPlan(Key<T> key, Constructor<?> constructor, Provider<?>[] constructorProviders, List<FieldInjector> fieldInjectors, List<MethodInjector> methodInjectors, FactoryBackend backend, Profiler profiler) {
+        this(key, constructor, constructorProviders, fieldInjectors, methodInjectors, backend, profiler, null);
+    }
+
+    /**
+     * @param proxy 创建被拦截实例的代理, 没有方法被拦截时为null
+     */
+    InjectionPlan(Key<T> key, Constructor<?> constructor, Provider<?>[] constructorProviders, List<FieldInjector> fieldInjectors, List<MethodInjector> methodInjectors, FactoryBackend backend, Profiler profiler, ConstructionProxy<?> proxy) {
+        this.key = key;
+        this.constructor = constructor;
+        this.constructorProviders = constructorProviders;
+        this.fieldInjectors = fieldInjectors.toArray(new FieldInjector[fieldInjectors.size()]);
+        this.methodInjectors = methodInjectors.toArray(new MethodInjector[methodInjectors.size()]);
+        this.factory = backend.create(this);
+        this.proxy = proxy;
+        this.profiler = profiler;
+    }
+
+    /**
+     * 按计划创建并注入一个新实例
+     */
+    @SuppressWarnings("unchecked")
+    public T provision() {
+        T bean;
+        Frame frame = profiler != null ? profiler.enter(key, Phase.CONSTRUCTION) : null;
+        try {
+            bean = proxy != null ? (T) proxy.newInstance(CommonUtil.params(constructorProviders)) : factory.newInstance();
+        } catch (Exception e) {
+            throw new NeedleException(String.format("Can't instantiate %s", key.toString()), e);
+        } finally {
+            if (frame != null) {
+                profiler.exit(frame);
+            }
+        }
+        frame = profiler != null ? profiler.enter(key, Phase.MEMBERS) : null;
+        try {
+            factory.injectMembers(bean);
+        } finally {
+            if (frame != null) {
+                profiler.exit(frame);
+            }
+        }
+        return bean;
+    }
+
+    public Key<T> getKey() {
+        return key;
+    }
+
+    public Constructor<?> getConstructor() {
+        return constructor;
+    }
+
+    public Provider<?>[] getConstructorProviders() {
+        return constructorProviders;
+    }
+
+    public FieldInjector[] getFieldInjectors() {
+        return fieldInjectors;
+    }
+
+    public MethodInjector[] getMethodInjectors() {
+        return methodInjectors;
+    }
+
+    /**
+     * @return 是否通过增强子类创建实例
+     */
+    public boolean isIntercepted() {
+        return proxy != null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InjectionPlan for %s: %d fields, %d methods", key, fieldInjectors.length, methodInjectors.length);
+    }
+}
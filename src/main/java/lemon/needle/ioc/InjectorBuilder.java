@@ -0,0 +1,134 @@
+package lemon.needle.ioc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.base.Preconditions;
+
+import lemon.needle.aop.ProxyBackend;
+import lemon.needle.aop.ProxyBackends;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.factory.FactoryBackends;
+import lemon.needle.ioc.profile.Profiler;
+import lemon.needle.ioc.scope.SessionScope;
+
+/**
+ * {@link InjectorImpl}的配置
+ * 
+ * <pre>
+ * InjectorImpl injector = InjectorImpl.builder().backend(FactoryBackends.BYTECODE).modules(new MyModule()).build();
+ * </pre>
+ */
+public class InjectorBuilder {
+
+    private final List<Module> modules = new ArrayList<Module>();
+    private FactoryBackend backend = FactoryBackends.defaultBackend();
+    private ProxyBackend proxyBackend = ProxyBackends.defaultBackend();
+    private Executor executor = ForkJoinPool.commonPool();
+    private Executor asyncExecutor;
+    private boolean profile;
+    private SessionScope sessionScope;
+
+    InjectorBuilder() {
+    }
+
+    public InjectorBuilder modules(Module... modules) {
+        this.modules.addAll(Arrays.asList(modules));
+        return this;
+    }
+
+    /**
+     * 指定创建实例和注入成员的方式, 默认由系统属性 needle_factory_backend 决定
+     */
+    public InjectorBuilder backend(FactoryBackend backend) {
+        this.backend = Preconditions.checkNotNull(backend);
+        return this;
+    }
+
+    /**
+     * 指定生成被拦截类的方式, 默认由系统属性 needle_proxy_backend 决定
+     */
+    public InjectorBuilder proxyBackend(ProxyBackend proxyBackend) {
+        this.proxyBackend = Preconditions.checkNotNull(proxyBackend);
+        return this;
+    }
+
+    /**
+     * 创建eager单例的线程池, 默认 {@link ForkJoinPool#commonPool()}
+     */
+    public InjectorBuilder executor(Executor executor) {
+        this.executor = Preconditions.checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * 调用 {@code @Provides @Async} 方法和创建 {@code CompletableFuture<T>} 注入的线程池, 默认与 {@link #executor(Executor)} 相同。
+     * 这些方法通常做阻塞I/O, 建议指定单独的线程池
+     */
+    public InjectorBuilder asyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = Preconditions.checkNotNull(asyncExecutor);
+        return this;
+    }
+
+    /**
+     * 记录每个绑定实例化的耗时, 通过 {@link InjectorImpl#getProfiler()} 查询和导出。默认关闭
+     */
+    public InjectorBuilder profile(boolean profile) {
+        this.profile = profile;
+        return this;
+    }
+
+    /**
+     * 会话作用域的配置(最大会话数、空闲过期等), 默认 {@link SessionScope#SessionScope()}
+     */
+    public InjectorBuilder sessionScope(SessionScope sessionScope) {
+        this.sessionScope = Preconditions.checkNotNull(sessionScope);
+        return this;
+    }
+
+    /**
+     * 创建injector, 所有eager单例创建完成后返回
+     */
+    public InjectorImpl build() {
+        return InjectorImpl.with(this);
+    }
+
+    /**
+     * 创建injector, 不等待eager单例创建完成
+     */
+    public CompletableFuture<InjectorImpl> buildAsync() {
+        return InjectorImpl.withAsync(this);
+    }
+
+    List<Module> modules() {
+        return modules;
+    }
+
+    FactoryBackend backend() {
+        return backend;
+    }
+
+    ProxyBackend proxyBackend() {
+        return proxyBackend;
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    Executor asyncExecutor() {
+        return asyncExecutor != null ? asyncExecutor : executor;
+    }
+
+    SessionScope sessionScope() {
+        return sessionScope != null ? sessionScope : new SessionScope();
+    }
+
+    Profiler profiler() {
+        return profile ? new Profiler() : null;
+    }
+}
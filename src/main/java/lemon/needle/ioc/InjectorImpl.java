@@ -2,18 +2,30 @@ package lemon.needle.ioc;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
@@ -23,30 +35,99 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
+import lemon.needle.aop.MethodAspect;
+import lemon.needle.aop.MethodAspects;
+import lemon.needle.aop.WovenInterceptors;
 import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.ClassMetadata.InjectableMethod;
 import lemon.needle.ioc.binder.FieldInjector;
 import lemon.needle.ioc.binder.MethodInjector;
+import lemon.needle.ioc.annotations.Deferred;
+import lemon.needle.ioc.annotations.ProvidedBy;
+import lemon.needle.ioc.factory.Dependency;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.factory.StaticFactory;
+import lemon.needle.ioc.factory.StaticIndex;
+import lemon.needle.ioc.factory.StaticProvides;
+import lemon.needle.ioc.profile.Phase;
+import lemon.needle.ioc.profile.Profiler;
+import lemon.needle.ioc.profile.Profiler.Frame;
+import lemon.needle.ioc.provider.AsyncProvider;
+import lemon.needle.ioc.provider.DeferredProxy;
+import lemon.needle.ioc.provider.MemoizedLazy;
+import lemon.needle.ioc.scope.AnnotatedScope;
+import lemon.needle.ioc.scope.Pooled;
+import lemon.needle.ioc.scope.PooledScope;
+import lemon.needle.ioc.scope.RefreshScope;
+import lemon.needle.ioc.scope.Refreshable;
+import lemon.needle.ioc.scope.RequestScope;
+import lemon.needle.ioc.scope.RequestScoped;
+import lemon.needle.ioc.scope.Scope;
+import lemon.needle.ioc.scope.ScopePropagation;
+import lemon.needle.ioc.scope.SessionScope;
+import lemon.needle.ioc.scope.SessionScoped;
+import lemon.needle.ioc.scope.ThreadScope;
+import lemon.needle.ioc.scope.ThreadScoped;
 
 public class InjectorImpl implements Injector {
 
     private static final Logger logger = LoggerFactory.getLogger(InjectorImpl.class);
 
-    private final InjectorInner innerProvider = new InjectorInner();
-    private static final AtomicBoolean initOnce = new AtomicBoolean(false);
-    private static final Stopwatch stopwatch = Stopwatch.createStarted();
+    private final InjectorInner innerProvider;
+    //子injector的父injector, 否则为null
+    private final InjectorImpl parent;
+    private final FactoryBackend backend;
+    private final Executor executor;
+    private final Executor asyncExecutor;
+    //@Provides @Async, 创建完成后统一提交
+    private final List<AsyncProvider<?>> asyncProviders = new ArrayList<>();
+    private final RequestScope requestScope;
+    private final SessionScope sessionScope;
+    private final ScopePropagation scopePropagation;
+    private final ThreadScope threadScope;
+    private final PooledScope pooledScope;
+    private final RefreshScope refreshScope;
+    //作用域注解 -> 作用域, 子injector复制父injector的注册
+    private final ConcurrentMap<Class<? extends Annotation>, Scope> scopes;
+    //bindInterceptor绑定的aspect, 子injector在父injector的基础上追加
+    private volatile MethodAspects aspects;
+    //织入的@Intercepted方法按实例找到这个injector绑定的拦截器
+    private final WovenInterceptors wovenInterceptors = new WovenInterceptors();
+    //未开启时为null
+    private final Profiler profiler;
+    //asEagerSingleton的绑定 -> 实现类(未知时为null)
+    private final Map<Key<?>, Class<?>> eagerSingletons = new LinkedHashMap<>();
+    //模块中声明的绑定, 子injector据此判断一个绑定是否依赖它覆盖的绑定
+    private final Set<Key<?>> moduleKeys = Collections.newSetFromMap(new ConcurrentHashMap<Key<?>, Boolean>());
+
+    //模块装配完成后置为true, 此后按Class的查找走bindingIds, 不再构造Key
+    private volatile boolean sealed;
+
+    private final ClassValue<Integer> bindingIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return bindingId(Key.of(type));
+        }
+    };
 
     @Override
     public <T> T instance(Class<T> type) {
-        return providerRecursion(Key.of(type), null).get();
+        return notPooled(type, provider(type)).get();
     }
 
     public <T> T instance(Key<T> key) {
-        return providerRecursion(key, null).get();
+        return instanceProvider(key, null).get();
     }
 
     public <T> Provider<T> provider(Class<T> type) {
+        if (sealed) {
+            return innerProvider.get(bindingIds.get(type));
+        }
         return providerRecursion(Key.of(type), null);
     }
 
@@ -59,92 +140,143 @@ public class InjectorImpl implements Injector {
 
     //最重要的一个方法 获取其Provider
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private <T> Provider<T> providerRecursion(final Key<T> key, Set<Key> chain) {
-        if (!innerProvider.containsKey(key)) {
-            final Constructor<?> constructor = innerProvider.getConstructor(key);
-            if (constructor != null) {
-                //                final Provider<?>[] paramProviders = paramProviders(key, constructor.getParameterTypes(), constructor.getGenericParameterTypes(), constructor.getParameterAnnotations(), chain);
-                buildConstructor(key, constructor, chain);
+    private <T> Provider<T> providerRecursion(final Key<T> key, final Set<Key> chain) {
+        Provider<T> provider = innerProvider.get(key);
+        if (provider != null) {
+            return provider;
+        }
+        if (parent != null && !dependsOnModuleKeys(key, new HashSet<Class<?>>())) {
+            //不依赖子injector覆盖的绑定: 由父injector创建或共享, 单例只在父injector中创建一份;
+            //记录到自己的表中以便下次直接命中
+            provider = parent.providerRecursion(key, chain);
+            if (provider != null) {
+                innerProvider.put(key, provider);
+                return innerProvider.get(key);
             }
         }
-        return (Provider<T>) innerProvider.get(key);
+        //just-in-time绑定, 同一个Key只创建一次provider
+        return innerProvider.computeIfAbsent(key, new Function<Key<?>, Provider<?>>() {
+            @Override
+            public Provider<?> apply(Key<?> k) {
+                return jitProvider(key, chain);
+            }
+        });
     }
 
+    /**
+     * 优先使用needle-processor在编译期生成的索引和工厂, 没有时再通过反射查找构造函数
+     */
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    public void buildFieldMethodInjector(final Object bean, final Key key, Set<Key> chain) {
-        final Set<Key> newChain = append(chain, key);
-        final List<FieldInjector> fieldInjectors = fieldInjectors(key.type, newChain);
-        final List<MethodInjector> methodInjectors = methodInjectors(key.type, newChain);
-        try {
-            for (FieldInjector fj : fieldInjectors) {
+    private Provider<?> jitProvider(final Key key, Set<Key> chain) {
+        Class<?> providedBy = StaticIndex.providedBy(key.type);
+        if (providedBy == null && key.type.isAnnotationPresent(ProvidedBy.class)) {
+            providedBy = ((ProvidedBy) key.type.getAnnotation(ProvidedBy.class)).value();
+        }
+        if (providedBy != null) {
+            final Key providerKey = Key.of(providedBy);
+            Provider<?> provider = new Provider() {
+                @Override
+                public Object get() {
+                    return ((Provider<?>) providerRecursion(providerKey, null).get()).get();
+                }
+            };
+            return scoped(key, ClassMetadata.of(key.type).getScope(), provider);
+        }
+        Class<?> implementedBy = StaticIndex.implementedBy(key.type);
+        StaticFactory<?> factory = StaticIndex.factory(implementedBy != null ? implementedBy : key.type);
+        //生成的工厂直接new目标类, 需要拦截时改走构造函数
+        if (factory != null && !aspects.matches(factory.getType())) {
+            return staticProvider(key, factory, chain);
+        }
+        final Constructor<?> constructor = innerProvider.getConstructor(key);
+        return constructor != null ? constructorProvider(key, constructor, chain) : null;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Provider<?> staticProvider(final Key key, final StaticFactory factory, Set<Key> chain) {
+        final boolean woven = WovenInterceptors.isWoven(factory.getType());
+        WovenInterceptors.checkWoven(factory.getType());
+        final Provider<?>[] constructor = dependencyProviders(key, factory.getConstructorDependencies(), chain);
+        final Provider<?>[] members = dependencyProviders(key, factory.getMemberDependencies(), chain);
+        Provider<?> provider = new Provider() {
+            @Override
+            public Object get() {
+                Object bean;
+                Frame frame = profiler != null ? profiler.enter(key, Phase.CONSTRUCTION) : null;
                 try {
-                    fj.applyTo(bean);
-                } catch (Exception e) {
-                    logger.error("", e);
+                    bean = factory.newInstance(constructor);
+                } catch (RuntimeException e) {
+                    throw new NeedleException(String.format("Can't instantiate %s", key.toString()), e);
+                } finally {
+                    if (frame != null) {
+                        profiler.exit(frame);
+                    }
                 }
-            }
-            for (MethodInjector mj : methodInjectors) {
+                frame = profiler != null ? profiler.enter(key, Phase.MEMBERS) : null;
                 try {
-                    mj.applyTo(bean);
-                } catch (Exception e) {
-                    logger.error("", e);
+                    factory.injectMembers(bean, members);
+                } finally {
+                    if (frame != null) {
+                        profiler.exit(frame);
+                    }
                 }
+                if (woven) {
+                    wovenInterceptors.adopt(bean);
+                }
+                return bean;
             }
-        } catch (Exception e) {
-            throw new NeedleException(e, "method inject %s", key);
+        };
+        return scoped(key, factory.getScope(), factory.getType(), provider);
+    }
+
+    /**
+     * @return 绑定ID, 没有绑定时按需创建
+     */
+    int bindingId(Key<?> key) {
+        providerRecursion(key, null);
+        int id = innerProvider.assignId(key);
+        if (id < 0) {
+            throw new NeedleException("No binding found for %s", key);
         }
+        return id;
+    }
+
+    /**
+     * 计算一个绑定的注入计划, 字段和方法按实现类(而不是绑定的接口)扫描
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    <T> InjectionPlan<T> plan(final Key<T> key, Constructor<?> constructor, Provider<?>[] constructorProviders) {
+        final Set<Key> chain = append(null, key);
+        final Class<?> type = constructor.getDeclaringClass();
+        return new InjectionPlan<T>(key, constructor, resolve(constructorProviders), fieldInjectors(type, chain), methodInjectors(type, chain), backend, profiler, aspects.proxy(constructor));
     }
 
     @SuppressWarnings("rawtypes")
     private List<FieldInjector> fieldInjectors(Class type, Set<Key> chain) {
-        Class<?> current = type;
         List<FieldInjector> fieldInjectors = Lists.newArrayList();
-        while (null != current && !current.equals(Object.class)) {
-            for (Field field : current.getDeclaredFields()) {
-                if (subjectToInject(field)) {//@Inject
-                    field.setAccessible(true);
-                    fieldInjectors.add(fieldInjector(field, chain));
-                }
-            }
-            current = current.getSuperclass();
+        for (Field field : ClassMetadata.of(type).getFields()) {//@Inject
+            fieldInjectors.add(fieldInjector(field, chain));
         }
         return fieldInjectors;
     }
 
     @SuppressWarnings("rawtypes")
     private List<MethodInjector> methodInjectors(Class type, Set<Key> chain) {
-        Class<?> current = type;
         List<MethodInjector> methodInjectors = Lists.newArrayList();
-        while (null != current && !current.equals(Object.class)) {
-            for (Method method : current.getDeclaredMethods()) {
-                if (subjectToInject(method)) {//@Inject
-                    method.setAccessible(true);
-                    methodInjectors.add(methodInjector(method, chain));
-                }
-            }
-            current = current.getSuperclass();
+        for (InjectableMethod method : ClassMetadata.of(type).getMethods()) {//@Inject
+            methodInjectors.add(methodInjector(method, chain));
         }
         return methodInjectors;
     }
 
     //方法
-    @SuppressWarnings({ "unchecked", "unused", "rawtypes" })
-    private MethodInjector methodInjector(Method method, Set<Key> chain) {
-        Type[] paramTypes = method.getGenericParameterTypes();
-        Class<?>[] classes = method.getParameterTypes();
-        int len = paramTypes.length;
-        Provider[] paramProviders = new Provider[len];
-        Annotation[][] aaa = method.getParameterAnnotations();
-        for (int i = 0; i < len; ++i) {
-            Type paramType = paramTypes[i];
-            Class cls = classes[i];
-            Key key = Key.of(cls, innerProvider.qualifier(aaa[i]));
-            if (chain.contains(key)) {
-                throw new NeedleException(String.format("Circular dependency: %s", invokechain(chain, key)));
-            }
-            paramProviders[i] = providerRecursion(key, chain);
+    private MethodInjector methodInjector(InjectableMethod method, Set<Key> chain) {
+        Dependency[] dependencies = dependencies(method.method, method.parameterQualifiers);
+        Provider<?>[] paramProviders = new Provider<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; ++i) {
+            paramProviders[i] = memberProvider(dependencies[i], chain);
         }
-        return new MethodInjector(method, paramProviders);
+        return new MethodInjector(method.method, paramProviders);
     }
 
     public boolean subjectToInject(AccessibleObject ao) {
@@ -154,43 +286,116 @@ public class InjectorImpl implements Injector {
         return false;
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     private FieldInjector fieldInjector(Field field, Set<Key> chain) {
-        Key key = Key.of((Class<?>) field.getGenericType());
+        Dependency dependency = dependency(field.getType(), field.getGenericType(), null, field.isAnnotationPresent(Deferred.class));
+        return new FieldInjector(field, dependency.getKey(), memberProvider(dependency, chain));
+    }
+
+    //字段和方法的依赖在计算注入计划时就解析provider
+    @SuppressWarnings("rawtypes")
+    private Provider<?> memberProvider(Dependency dependency, Set<Key> chain) {
+        if (!dependency.isInstance()) {
+            return indirectProvider(dependency);
+        }
+        Key key = dependency.getKey();
         if (chain.contains(key)) {
             throw new NeedleException(String.format("Circular dependency: %s", invokechain(chain, key)));
         }
-        return new FieldInjector(field, key, providerRecursion(key, chain));
+        return instanceProvider(key, chain);
+    }
+
+    /**
+     * 直接注入实例的依赖: 池化绑定借出的实例无法归还, 只能注入Provider
+     */
+    private <T> Provider<T> instanceProvider(Key<T> key, Set<Key> chain) {
+        return notPooled(key, providerRecursion(key, chain));
+    }
+
+    private static <T> Provider<T> notPooled(Object key, Provider<T> provider) {
+        if (PooledScope.isPooled(provider)) {
+            throw new NeedleException("%s is @Pooled and can only be injected as a Provider", key);
+        }
+        return provider;
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private void injectOfProvides(final Object module, final Method m) {
-        final Key<?> key = Key.of(m.getReturnType(), innerProvider.qualifier(m.getAnnotations()));
+    private void injectOfProvides(final Object module, final InjectableMethod provides) {
+        final Method m = provides.method;
+        final Key<?> key = Key.of(m.getReturnType(), provides.qualifier);
         if (innerProvider.containsKey(key)) {//不能重复
             throw new NeedleException(String.format("%s has multiple providers, module %s", key.toString(), module.getClass()));
         }
-        Singleton singleton = m.getAnnotation(Singleton.class) != null ? m.getAnnotation(Singleton.class) : m.getReturnType().getAnnotation(Singleton.class);
-        final Provider<?>[] paramProviders = paramProviders(key, m.getParameterTypes(), m.getGenericParameterTypes(), m.getParameterAnnotations(), Collections.singleton(key));
+        final Provider<?>[] paramProviders = paramProviders(key, m, provides.parameterQualifiers, Collections.singleton(key));
+        if (provides.async) {
+            if (provides.scope != null && !Singleton.class.equals(provides.scope)) {
+                throw new NeedleException("@Async provider of %s cannot be @%s", key, provides.scope.getSimpleName());
+            }
+            AsyncProvider<?> provider = new AsyncProvider(key, profiled(key, backend.provides((Key) key, module, m, paramProviders)), asyncExecutor);
+            asyncProviders.add(provider);
+            moduleBinding(key, provider);
+            return;
+        }
+
+        moduleBinding(key, scoped(key, provides.scope, m, profiled(key, backend.provides((Key) key, module, m, paramProviders))));
+    }
 
-        innerProvider.put(key, innerProvider.singletonProvider(key, singleton, new Provider() {
+    /**
+     * 注册编译期生成的 {@code @Provides} 调用
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void injectOfProvides(final Object module, final StaticProvides provides, final int method) {
+        final Key<?> key = provides.getKey(method);
+        if (innerProvider.containsKey(key)) {//不能重复
+            throw new NeedleException(String.format("%s has multiple providers, module %s", key.toString(), module.getClass()));
+        }
+        final Provider<?>[] params = dependencyProviders(key, provides.getDependencies(method), Collections.<Key> singleton(key));
+        Provider<?> provider = new Provider() {
             @Override
             public Object get() {
                 try {
-                    Object obj = m.invoke(module, params(paramProviders));
-                    return obj;
-                } catch (Exception e) {
+                    return provides.provide(method, module, params);
+                } catch (RuntimeException e) {
                     throw new NeedleException(String.format("Can't instantiate %s with provider", key.toString()), e);
                 }
             }
-        }));
+        };
+        Class<? extends Annotation> scope = provides.getScope(method);
+        moduleBinding(key, scoped(key, scope, scope != null ? providesMethod(provides, method) : null, profiled(key, provider)));
     }
 
-    private static Object[] params(Provider<?>[] paramProviders) {
-        Object[] params = new Object[paramProviders.length];
-        for (int i = 0; i < paramProviders.length; ++i) {
-            params[i] = paramProviders[i].get();
+    private static Method providesMethod(StaticProvides<?> provides, int method) {
+        try {
+            return provides.getMethod(method);
+        } catch (NoSuchMethodException e) {
+            throw new NeedleException(e, "Can't find @Provides method of %s in %s", provides.getKey(method), provides);
         }
-        return params;
+    }
+
+    /**
+     * 开启profiler时记录 {@code @Provides} 方法的耗时
+     */
+    private <T> Provider<T> profiled(final Key<?> key, final Provider<T> provider) {
+        if (profiler == null) {
+            return provider;
+        }
+        return new Provider<T>() {
+            @Override
+            public T get() {
+                Frame frame = profiler.enter(key, Phase.PROVIDES);
+                try {
+                    return provider.get();
+                } finally {
+                    profiler.exit(frame);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return 通过 {@link InjectorBuilder#profile(boolean)} 开启的profiler, 未开启时为null
+     */
+    public Profiler getProfiler() {
+        return profiler;
     }
 
     @SuppressWarnings("rawtypes")
@@ -213,81 +418,533 @@ public class InjectorImpl implements Injector {
         return chainString.append(lastKey.toString()).toString();
     }
 
-    //
+    //构造函数和 @Provides 方法的参数
+    @SuppressWarnings("rawtypes")
+    Provider<?>[] paramProviders(final Key<?> key, Executable executable, Annotation[] qualifiers, final Set<Key> chain) {
+        return dependencyProviders(key, dependencies(executable, qualifiers), chain);
+    }
+
+    /**
+     * @return 构造函数或方法各参数的依赖
+     */
+    private static Dependency[] dependencies(Executable executable, Annotation[] qualifiers) {
+        Class<?>[] classes = executable.getParameterTypes();
+        Type[] types = executable.getGenericParameterTypes();
+        Annotation[][] annotations = executable.getParameterAnnotations();
+        Dependency[] dependencies = new Dependency[classes.length];
+        for (int i = 0; i < classes.length; ++i) {
+            //内部类构造函数的泛型参数和注解可能不含外部类参数, 长度不一致时按原始类型处理
+            Type type = types.length == classes.length ? types[i] : classes[i];
+            boolean deferred = annotations.length == classes.length && has(annotations[i], Deferred.class);
+            dependencies[i] = dependency(classes[i], type, qualifiers[i], deferred);
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return 一个注入点的依赖: {@code Provider<T>}、{@code Lazy<T>}、{@code @Deferred} 接口或实例本身
+     */
+    private static Dependency dependency(Class<?> raw, Type type, Annotation qualifier, boolean deferred) {
+        if (Provider.class.equals(raw)) {
+            return Dependency.provider(Key.of(typeArgument(raw, type), qualifier));
+        }
+        if (Lazy.class.equals(raw)) {
+            return Dependency.lazy(Key.of(typeArgument(raw, type), qualifier));
+        }
+        if (CompletableFuture.class.equals(raw)) {
+            return Dependency.future(Key.of(typeArgument(raw, type), qualifier));
+        }
+        if (ListenableFuture.class.equals(raw)) {
+            return Dependency.listenableFuture(Key.of(typeArgument(raw, type), qualifier));
+        }
+        if (deferred) {
+            if (!raw.isInterface()) {
+                throw new NeedleException("@Deferred requires an interface type, but got %s", raw.getName());
+            }
+            return Dependency.deferred(Key.of(raw, qualifier));
+        }
+        return Dependency.of(Key.of(raw, qualifier));
+    }
+
+    private static Class<?> typeArgument(Class<?> raw, Type type) {
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (argument instanceof Class) {
+                return (Class<?>) argument;
+            }
+            if (argument instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) argument).getRawType();
+            }
+        }
+        throw new NeedleException("%s must be parameterized with a concrete type: %s", raw.getSimpleName(), type);
+    }
+
+    private static boolean has(Annotation[] annotations, Class<? extends Annotation> type) {
+        for (Annotation annotation : annotations) {
+            if (annotation.annotationType().equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Provider、Lazy、延迟代理和future: 注入时不在当前线程创建依赖, 绑定也到第一次使用时才解析
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Provider<?> indirectProvider(Dependency dependency) {
+        final Key newKey = dependency.getKey();
+        final Provider lookup = new Provider() {
+            @Override
+            public Object get() {
+                return instanceProvider(newKey, null).get();
+            }
+        };
+        switch (dependency.getKind()) {
+        case PROVIDER:
+            return new Provider() {
+                @Override
+                public Object get() {
+                    return providerRecursion(newKey, null);
+                }
+            };
+        case LAZY:
+            return new Provider() {
+                @Override
+                public Object get() {
+                    return new MemoizedLazy(lookup);
+                }
+            };
+        case DEFERRED:
+            return new Provider() {
+                @Override
+                public Object get() {
+                    return DeferredProxy.create(newKey.type, lookup);
+                }
+            };
+        case FUTURE:
+            return new Provider() {
+                @Override
+                public Object get() {
+                    return future(newKey);
+                }
+            };
+        case LISTENABLE_FUTURE:
+            return new Provider() {
+                @Override
+                public Object get() {
+                    return listenable(future(newKey));
+                }
+            };
+        default:
+            throw new NeedleException("%s is not an indirect dependency", dependency);
+        }
+    }
+
     @SuppressWarnings("rawtypes")
-    Provider<?>[] paramProviders(final Key<?> key, Class<?>[] parameterClasses, Type[] parameterTypes, Annotation[][] annotations, final Set<Key> chain) {
-        Provider<?>[] providers = new Provider<?>[parameterTypes.length];
-        for (int i = 0; i < parameterTypes.length; ++i) {
-            Class<?> parameterClass = parameterClasses[i];
-            Annotation qualifier = innerProvider.qualifier(annotations[i]);
-            Class<?> providerType = Provider.class.equals(parameterClass) ? (Class<?>) ((ParameterizedType) parameterTypes[i]).getActualTypeArguments()[0] : null;
-            if (providerType == null) {
-                final Key<?> newKey = Key.of(parameterClass, qualifier);
+    private Provider<?>[] dependencyProviders(final Key<?> key, Dependency[] dependencies, final Set<Key> chain) {
+        Provider<?>[] providers = new Provider<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; ++i) {
+            if (dependencies[i].isInstance()) {
+                final Key<?> newKey = dependencies[i].getKey();
                 final Set<Key> newChain = append(chain, key);
                 if (newChain.contains(newKey)) {
                     throw new NeedleException(String.format("Circular dependency: %s", invokechain(newChain, newKey)));
                 }
-                providers[i] = new Provider() {
-                    @Override
-                    public Object get() {
-                        return providerRecursion(newKey, newChain).get();
-                    }
-                };
+                providers[i] = newDependency(newKey, newChain);
             } else {
-                final Key<?> newKey = Key.of(providerType, qualifier);
-                providers[i] = new Provider() {
-                    @SuppressWarnings("unchecked")
-                    @Override
-                    public Object get() {
-                        return providerRecursion(newKey, null);
-                    }
-
-                };
+                providers[i] = indirectProvider(dependencies[i]);
             }
         }
         return providers;
     }
 
+    /**
+     * 注册模块中的一个绑定
+     */
+    public <T> void bind(Key<T> key, Provider<? extends T> provider, boolean singleton) {
+        bind(key, provider, singleton ? Singleton.class : null);
+    }
+
+    /**
+     * 注册模块中的一个绑定
+     * @param scope 作用域注解, 没有时为null
+     */
+    public <T> void bind(Key<T> key, Provider<? extends T> provider, Class<? extends Annotation> scope) {
+        moduleBinding(key, scoped(key, scope, provider));
+    }
+
+    /**
+     * 注册模块中的一个绑定, 直接使用作用域实例
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public <T> void bind(Key<T> key, Provider<? extends T> provider, Scope scope) {
+        moduleBinding(key, scope.scope((Key) key, provider));
+    }
+
+    private void moduleBinding(Key<?> key, Provider<?> provider) {
+        innerProvider.put(key, provider);
+        moduleKeys.add(key);
+    }
+
+    /**
+     * 注册作用域注解, 之后的绑定遇到该注解时由 scope 包装provider
+     */
+    void bindScope(Class<? extends Annotation> annotation, Scope scope) {
+        if (!annotation.isAnnotationPresent(javax.inject.Scope.class)) {
+            throw new NeedleException("%s is not annotated with @Scope", annotation.getName());
+        }
+        Scope existing = scopes.putIfAbsent(annotation, scope);
+        if (existing != null && existing != scope) {
+            throw new NeedleException("Scope annotation %s is already bound to %s", annotation.getName(), existing);
+        }
+    }
+
+    /**
+     * 追加模块中bindInterceptor定义的aspect, 只影响之后创建的注入计划;
+     * 拦截器同时注册给编译期织入的 {@code @Intercepted} 方法使用
+     */
+    void bindInterceptors(List<MethodAspect> more) {
+        aspects = aspects.with(more);
+        for (MethodAspect aspect : more) {
+            wovenInterceptors.register(aspect.interceptors());
+        }
+    }
+
+    /**
+     * 按作用域注解包装provider, 只在编译绑定时调用一次; 没有作用域时原样返回
+     */
+    <T> Provider<T> scoped(Key<?> key, Class<? extends Annotation> scope, Provider<T> provider) {
+        return scoped(key, scope, key.type, provider);
+    }
+
+    /**
+     * @param source 声明作用域的类或方法, 用于读取作用域注解的参数
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    <T> Provider<T> scoped(Key<?> key, Class<? extends Annotation> scope, AnnotatedElement source, Provider<T> provider) {
+        if (scope == null) {
+            return provider;
+        }
+        Scope impl = scopes.get(scope);
+        if (impl == null) {
+            throw new NeedleException("No scope is bound to %s, required by %s", scope.getName(), key);
+        }
+        if (impl instanceof AnnotatedScope) {
+            Annotation config = source.getAnnotation(scope);
+            return ((AnnotatedScope) impl).scope((Key) key, provider, config != null ? config : key.type.getAnnotation(scope));
+        }
+        return impl.scope((Key) key, provider);
+    }
+
+    /**
+     * @return 请求作用域, 子injector与父injector共用一个
+     */
+    public RequestScope getRequestScope() {
+        return requestScope;
+    }
+
+    /**
+     * @return 会话作用域, 通过 {@link InjectorBuilder#sessionScope(SessionScope)} 配置; 子injector与父injector共用一个
+     */
+    public SessionScope getSessionScope() {
+        return sessionScope;
+    }
+
+    /**
+     * @return 把请求和会话作用域传递到其他线程的工具
+     */
+    public ScopePropagation getScopePropagation() {
+        return scopePropagation;
+    }
+
+    /**
+     * @return 线程作用域, 用于在线程池的任务结束时释放实例; 子injector与父injector共用一个
+     */
+    public ThreadScope getThreadScope() {
+        return threadScope;
+    }
+
+    /**
+     * @return 对象池作用域, 用于归还实例、注册重置回调和查询池的统计; 每个injector一个, 查不到的池到父injector中找
+     */
+    public PooledScope getPooledScope() {
+        return pooledScope;
+    }
+
+    public WovenInterceptors getWovenInterceptors() {
+        return wovenInterceptors;
+    }
+
+    /**
+     * @return 可刷新单例的作用域, 用于立即重建、停止后台重建和查询统计; 与单例一样每个injector一个
+     */
+    public RefreshScope getRefreshScope() {
+        return refreshScope;
+    }
+
+    /**
+     * 标记为eager单例, 创建injector时即创建
+     * @param implementation 实现类, 用于计算依赖顺序; 绑定到实例或provider时为null
+     */
+    public void eager(Key<?> key, Class<?> implementation) {
+        eagerSingletons.put(key, implementation);
+    }
+
+    boolean hasBinding(Key<?> key) {
+        return innerProvider.containsKey(key) || (parent != null && parent.hasBinding(key));
+    }
+
+    private boolean isModuleKey(Key<?> key) {
+        return moduleKeys.contains(key) || (parent != null && parent.isModuleKey(key));
+    }
+
+    /**
+     * key是否直接或经由just-in-time绑定间接依赖这个injector模块中的绑定(包括Provider、Lazy等间接依赖)。
+     * 祖先模块中的绑定视为叶子, 由声明它的injector判断; {@code @ProvidedBy} 的provider类的依赖不在检查范围内
+     */
+    private boolean dependsOnModuleKeys(Key<?> key, Set<Class<?>> visited) {
+        if (moduleKeys.contains(key)) {
+            return true;
+        }
+        if (parent.isModuleKey(key) || !visited.add(key.type)) {
+            return false;
+        }
+        for (Key<?> dependency : dependencies(key.type, true)) {
+            if (dependsOnModuleKeys(dependency, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return key对应实例的future: {@code @Async} 绑定返回其调用结果, 其他绑定在异步线程池上创建, 不阻塞当前线程
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> future(Key<T> key) {
+        final Provider<T> provider = instanceProvider(key, null);
+        if (provider instanceof AsyncProvider) {
+            return ((AsyncProvider<T>) provider).future();
+        }
+        return CompletableFuture.supplyAsync(new Supplier<T>() {
+            @Override
+            public T get() {
+                return provider.get();
+            }
+        }, asyncExecutor);
+    }
+
+    public <T> CompletableFuture<T> future(Class<T> type) {
+        return future(Key.of(type));
+    }
+
+    private static <T> ListenableFuture<T> listenable(CompletableFuture<T> future) {
+        final SettableFuture<T> listenable = SettableFuture.create();
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable failure) {
+                if (failure == null) {
+                    listenable.set(value);
+                } else {
+                    listenable.setException(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                }
+            }
+        });
+        return listenable;
+    }
+
+    /**
+     * 提交所有 {@code @Provides @Async} 方法; 在构造完成后调用, 任务中不会看到未构造完的injector
+     */
+    private void startAsync() {
+        for (AsyncProvider<?> provider : asyncProviders) {
+            provider.start();
+        }
+    }
+
+    /**
+     * 创建一个子injector, 只需装配modules中的绑定。
+     * 
+     * 子injector优先使用自己的绑定; 其余绑定如果不(间接)依赖子injector覆盖的绑定, 由父injector创建并共享,
+     * 单例因此只在父injector中创建一份, 与父、子哪个先请求无关; 依赖覆盖的绑定的just-in-time绑定创建在子injector中。
+     * 因此创建的开销只与modules中的绑定数量有关, 与父injector的规模无关。
+     * 
+     * @return 子injector, 其中的eager单例创建完成后返回
+     */
+    public InjectorImpl createChild(Module... modules) {
+        InjectorImpl child = new InjectorImpl(this, Arrays.asList(modules), backend, profiler, executor, asyncExecutor, sessionScope, aspects);
+        child.startAsync();
+        join(new EagerBootstrap(child, child.eagerSingletons, executor).start());
+        return child;
+    }
+
+    /**
+     * @return 父injector, 不是子injector时为null
+     */
+    public InjectorImpl getParent() {
+        return parent;
+    }
+
+    /**
+     * @return type的构造函数、字段和方法依赖的Key, 不包括Provider参数
+     */
+    Set<Key<?>> dependencies(Class<?> type) {
+        return dependencies(type, false);
+    }
+
+    /**
+     * @param indirect 是否包括Provider、Lazy等间接依赖的Key
+     */
+    private Set<Key<?>> dependencies(Class<?> type, boolean indirect) {
+        Set<Key<?>> dependencies = new LinkedHashSet<>();
+        StaticFactory<?> factory = StaticIndex.factory(type);
+        if (factory != null) {
+            for (Dependency dependency : Iterables.concat(Arrays.asList(factory.getConstructorDependencies()), Arrays.asList(factory.getMemberDependencies()))) {
+                if (indirect || dependency.isInstance()) {
+                    dependencies.add(dependency.getKey());
+                }
+            }
+            return dependencies;
+        }
+        Constructor<?> constructor;
+        try {
+            constructor = innerProvider.getConstructor(Key.of(type));
+        } catch (NeedleException e) {
+            return dependencies;
+        }
+        if (constructor == null) {
+            return dependencies;
+        }
+        ClassMetadata metadata = ClassMetadata.of(constructor.getDeclaringClass());
+        addKeys(dependencies, indirect, dependencies(constructor, metadata.getConstructorQualifiers()));
+        for (Field field : metadata.getFields()) {
+            addKeys(dependencies, indirect, dependency(field.getType(), field.getGenericType(), null, field.isAnnotationPresent(Deferred.class)));
+        }
+        for (InjectableMethod method : metadata.getMethods()) {
+            addKeys(dependencies, indirect, dependencies(method.method, method.parameterQualifiers));
+        }
+        return dependencies;
+    }
+
+    private void addKeys(Set<Key<?>> keys, boolean indirect, Dependency... dependencies) {
+        for (Dependency dependency : dependencies) {
+            if (indirect || dependency.isInstance()) {
+                keys.add(dependency.getKey());
+            }
+        }
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    public <T> Provider<T> buildConstructor(final Key key, Constructor<?> constructor, final Set<Key> chain) {
-        Type[] ta = constructor.getGenericParameterTypes();
-        Annotation[][] aaa = constructor.getParameterAnnotations();
-        final Provider[] pp = paramProviders(key, constructor.getParameterTypes(), ta, aaa, chain);
+    public <T> Provider<T> buildConstructor(final Key key, final Constructor<?> constructor, final Set<Key> chain) {
+        return innerProvider.computeIfAbsent(key, new Function<Key<?>, Provider<?>>() {
+            @Override
+            public Provider<?> apply(Key<?> k) {
+                return constructorProvider(key, constructor, chain);
+            }
+        });
+    }
+
+    /**
+     * @return 用于实例化type的构造函数: @Inject标注的, 或者非private的无参构造函数
+     */
+    public Constructor<?> constructor(Class<?> type) {
+        return innerProvider.getConstructor(Key.of(type));
+    }
+
+    /**
+     * 创建一个通过构造函数实例化的provider, 但不注册。
+     * 作用域取实现类(构造函数所在的类)上的, 与编译期生成的工厂一致
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Provider<?> constructorProvider(Key key, Constructor<?> constructor, Set<Key> chain) {
+        Annotation[] qualifiers = ClassMetadata.of(constructor.getDeclaringClass()).getConstructorQualifiers();
+        final Provider[] pp = paramProviders(key, constructor, qualifiers, chain);
         InnerProvider provider = new InnerProvider(key, constructor, pp);
-        innerProvider.put(key, innerProvider.singletonProvider(key, key.type.getAnnotation(Singleton.class), provider));
-        return (Provider<T>) innerProvider.get(key);
+        Class<?> type = constructor.getDeclaringClass();
+        return scoped(key, ClassMetadata.of(type).getScope(), type, provider);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private <T> DependencyProvider<T> newDependency(Key<T> key, Set<Key> chain) {
+        return new DependencyProvider<T>(key, chain);
+    }
+
+    /**
+     * 把依赖的占位provider换成解析好的provider, 计划中的每次实例化不再查找绑定
+     */
+    private static Provider<?>[] resolve(Provider<?>[] providers) {
+        Provider<?>[] resolved = new Provider<?>[providers.length];
+        for (int i = 0; i < providers.length; ++i) {
+            resolved[i] = providers[i] instanceof DependencyProvider ? ((DependencyProvider<?>) providers[i]).resolve() : providers[i];
+        }
+        return resolved;
+    }
+
+    /**
+     * 构造函数和@Provides方法参数的依赖: 绑定时只检查循环依赖, 第一次使用时才解析provider并缓存,
+     * 避免在ConcurrentHashMap.computeIfAbsent中递归创建其它绑定
+     */
+    @SuppressWarnings("rawtypes")
+    private final class DependencyProvider<T> implements Provider<T> {
+        private final Key<T> key;
+        private final Set<Key> chain;
+        private volatile Provider<T> resolved;
+
+        DependencyProvider(Key<T> key, Set<Key> chain) {
+            this.key = key;
+            this.chain = chain;
+        }
+
+        Provider<T> resolve() {
+            Provider<T> current = resolved;
+            if (current == null) {
+                current = instanceProvider(key, chain);
+                resolved = current;
+            }
+            return current;
+        }
+
+        @Override
+        public T get() {
+            return resolve().get();
+        }
     }
 
     class InnerProvider<T> implements Provider<T> {
-        @SuppressWarnings("rawtypes")
-        private Key key;
-        private Constructor<?> constructor;
-        @SuppressWarnings("rawtypes")
-        private Provider[] pp;
-        
-        @SuppressWarnings("rawtypes")
-        public InnerProvider(Key key, Constructor<?> constructor, Provider[] pp) {
+        private final Key<T> key;
+        private final Constructor<?> constructor;
+        private final Provider<?>[] pp;
+        private final boolean woven;
+        //第一次get()时计算, 之后复用; 并发计算的结果等价, 不需要加锁
+        private volatile InjectionPlan<T> plan;
+
+        public InnerProvider(Key<T> key, Constructor<?> constructor, Provider<?>[] pp) {
             this.key = key;
             this.constructor = constructor;
             this.pp = pp;
+            this.woven = WovenInterceptors.isWoven(constructor.getDeclaringClass());
+            WovenInterceptors.checkWoven(constructor.getDeclaringClass());
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public T get() {
-            try {
-                Object obj = constructor.newInstance(params(pp));
-                buildFieldMethodInjector(obj, key, null);
-                return (T) obj;
-            } catch (Exception e) {
-                throw new NeedleException(String.format("Can't instantiate %s", key.toString()), e);
+            InjectionPlan<T> current = plan;
+            if (current == null) {
+                current = plan(key, constructor, pp);
+                plan = current;
+            }
+            T bean = current.provision();
+            if (woven) {
+                wovenInterceptors.adopt(bean);
             }
+            return bean;
         }
     }
 
     @Override
     public <T> Provider<T> getProvider(Class<T> type) {
-        return providerRecursion(Key.of(type), null);
+        return provider(type);
     }
 
     @Override
@@ -302,24 +959,114 @@ public class InjectorImpl implements Injector {
 
     @Override
     public boolean isScope(Class<? extends Annotation> annoClass) {
-        return false;
+        return scopes.containsKey(annoClass);
+    }
+
+    public static InjectorBuilder builder() {
+        return new InjectorBuilder();
     }
 
     static InjectorImpl with(Module... modules) {
-        if (initOnce.compareAndSet(false, true)) {
-            InjectorImpl injector = new InjectorImpl(Arrays.asList(modules));
-            System.out.println(stopwatch.toString());
-            return injector;
+        return builder().modules(modules).build();
+    }
+
+    static InjectorImpl with(InjectorBuilder builder) {
+        return join(withAsync(builder));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NeedleException(e.getCause());
         }
-        return null;
+    }
+
+    /**
+     * @return 所有eager单例创建完成后完成
+     */
+    static CompletableFuture<InjectorImpl> withAsync(InjectorBuilder builder) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        final InjectorImpl injector = new InjectorImpl(null, builder.modules(), builder.backend(), builder.profiler(), builder.executor(), builder.asyncExecutor(), builder.sessionScope(), MethodAspects.empty(builder.proxyBackend()));
+        logger.info("Injector created in {}", stopwatch);
+        injector.startAsync();
+        return new EagerBootstrap(injector, injector.eagerSingletons, builder.executor()).start().thenApply(new Function<Void, InjectorImpl>() {
+            @Override
+            public InjectorImpl apply(Void done) {
+                return injector;
+            }
+        });
     }
 
     @SuppressWarnings("rawtypes")
-    private InjectorImpl(Iterable<Module> modules) {
+    private InjectorImpl(InjectorImpl parent, Iterable<Module> modules, FactoryBackend backend, Profiler profiler, Executor executor, Executor asyncExecutor, SessionScope sessionScope, MethodAspects aspects) {
+        //子injector只保存自己的绑定和从父injector用到的绑定, 表从较小的容量开始
+        this.innerProvider = parent != null ? new InjectorInner(8) : new InjectorInner();
+        this.parent = parent;
+        this.backend = backend;
+        this.profiler = profiler;
+        this.executor = executor;
+        this.asyncExecutor = asyncExecutor;
+        this.requestScope = parent != null ? parent.requestScope : new RequestScope();
+        this.sessionScope = sessionScope;
+        this.scopePropagation = parent != null ? parent.scopePropagation : new ScopePropagation(requestScope, sessionScope);
+        this.threadScope = parent != null ? parent.threadScope : new ThreadScope();
+        this.pooledScope = new PooledScope(parent != null ? parent.pooledScope : null);
+        this.refreshScope = new RefreshScope(innerProvider.singletonScope());
+        this.scopes = parent != null ? new ConcurrentHashMap<>(parent.scopes) : new ConcurrentHashMap<Class<? extends Annotation>, Scope>();
+        this.aspects = aspects;
+        //子injector继承父injector的拦截器, 织入的方法同样如此
+        for (MethodAspect aspect : aspects.aspects()) {
+            wovenInterceptors.register(aspect.interceptors());
+        }
+        //单例、可刷新单例和对象池按injector区分, 子injector覆盖的绑定不能复用父injector的实例
+        scopes.put(Singleton.class, innerProvider.singletonScope());
+        scopes.put(Refreshable.class, refreshScope);
+        scopes.put(Pooled.class, pooledScope);
+        if (parent == null) {
+            scopes.put(RequestScoped.class, requestScope);
+            scopes.put(lemon.needle.ioc.annotations.RequestScoped.class, requestScope);
+            scopes.put(SessionScoped.class, sessionScope);
+            scopes.put(lemon.needle.ioc.annotations.SessionScoped.class, sessionScope);
+            scopes.put(ThreadScoped.class, threadScope);
+        }
         innerProvider.put(Key.of(InjectorImpl.class), new Provider() {
             @Override
             public Object get() {
-                return this;
+                return InjectorImpl.this;
+            }
+        });
+        innerProvider.put(Key.of(RequestScope.class), new Provider() {
+            @Override
+            public Object get() {
+                return requestScope;
+            }
+        });
+        innerProvider.put(Key.of(SessionScope.class), new Provider() {
+            @Override
+            public Object get() {
+                return sessionScope;
+            }
+        });
+        innerProvider.put(Key.of(ThreadScope.class), new Provider() {
+            @Override
+            public Object get() {
+                return threadScope;
+            }
+        });
+        innerProvider.put(Key.of(PooledScope.class), new Provider() {
+            @Override
+            public Object get() {
+                return pooledScope;
+            }
+        });
+        innerProvider.put(Key.of(RefreshScope.class), new Provider() {
+            @Override
+            public Object get() {
+                return refreshScope;
             }
         });
         //绑定provider提供的方式
@@ -328,9 +1075,17 @@ public class InjectorImpl implements Injector {
                 ((AbsModule) module).applyTo(this);
             }
 
-            for (Method prodesM : innerProvider.providers(module.getClass())) {
+            StaticProvides<?> provides = StaticIndex.provides(module.getClass());
+            if (provides != null) {
+                for (int i = 0; i < provides.size(); i++) {
+                    injectOfProvides(module, provides, i);
+                }
+                continue;
+            }
+            for (InjectableMethod prodesM : ClassMetadata.of(module.getClass()).getProvides()) {
                 injectOfProvides(module, prodesM);
             }
         }
+        sealed = true;
     }
 }
@@ -1,31 +1,19 @@
 package lemon.needle.ioc;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
-import javax.inject.Inject;
 import javax.inject.Provider;
-import javax.inject.Qualifier;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import lemon.needle.exception.NeedleException;
 import lemon.needle.ioc.annotations.ImplementedBy;
-import lemon.needle.ioc.annotations.Provides;
+import lemon.needle.ioc.scope.SingletonScope;
 
 /**
  * 
@@ -40,22 +28,91 @@ public class InjectorInner {
 
     private final ConcurrentMap<Key<?>, Provider<?>> providers = new ConcurrentHashMap<>();
 
-    private final Map<Key<?>, Object> singletons = new ConcurrentHashMap<>();
+    //每个绑定对应一个连续的整数ID, table[id] 即该绑定的provider, 查找时无需再对Key做hash
+    private final ConcurrentMap<Key<?>, Integer> ids = new ConcurrentHashMap<>();
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Provider<?>[] table;
 
-    public void put(Key<?> key, Provider<?> value) {
-        final Lock wlock = lock.writeLock();
-        try {
-            wlock.tryLock(3, TimeUnit.MILLISECONDS);
-            providers.putIfAbsent(key, value);
-        } catch (InterruptedException e) {
-            logger.error("", e);
-        } finally {
-            if (wlock != null) {
-                wlock.unlock();
+    private int size;
+
+    private final SingletonScope singletonScope = new SingletonScope();
+
+    public InjectorInner() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 绑定表的初始容量
+     */
+    public InjectorInner(int capacity) {
+        this.table = new Provider<?>[Math.max(capacity, 1)];
+    }
+
+    /**
+     * 注册一个绑定, 同一个Key只有第一次注册生效
+     * @return 该绑定的ID
+     */
+    public int put(Key<?> key, Provider<?> value) {
+        providers.putIfAbsent(key, value);
+        return assignId(key);
+    }
+
+    /**
+     * 按需创建绑定: 同一个Key并发请求时只有一个线程执行factory, 其他线程等待并复用它的结果;
+     * 绑定已存在时只有一次无锁的读。factory返回null时不记录绑定
+     */
+    @SuppressWarnings("unchecked")
+    <T> Provider<T> computeIfAbsent(Key<T> key, Function<Key<?>, Provider<?>> factory) {
+        Provider<?> provider = providers.get(key);
+        if (provider == null) {
+            provider = providers.computeIfAbsent(key, factory);
+            if (provider != null) {
+                assignId(key);
+            }
+        }
+        return (Provider<T>) provider;
+    }
+
+    /**
+     * @return 绑定ID, 第一次调用时分配; 绑定不存在时返回-1
+     */
+    int assignId(Key<?> key) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        if (!providers.containsKey(key)) {
+            return -1;
+        }
+        synchronized (ids) {
+            id = ids.get(key);
+            if (id == null) {
+                id = size;
+                Provider<?>[] current = table;
+                if (id == current.length) {
+                    current = Arrays.copyOf(current, id << 1);
+                }
+                current[id] = providers.get(key);
+                //先发布table, 再发布id; 读到id的线程一定能读到对应的provider
+                table = current;
+                size++;
+                ids.put(key, id);
             }
         }
+        return id;
+    }
+
+    /**
+     * @return 绑定ID, 不存在时返回-1
+     */
+    public int id(Key<?> key) {
+        Integer id = ids.get(key);
+        return id != null ? id : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Provider<T> get(int id) {
+        return (Provider<T>) table[id];
     }
 
     public boolean containsKey(Key<?> key) {
@@ -69,86 +126,27 @@ public class InjectorInner {
 
     @SuppressWarnings("unchecked")
     <T> Provider<T> singletonProvider(final Key<?> key, Singleton singleton, final Provider<T> provider) {
-        return singleton != null ? new Provider<T>() {
-            @Override
-            public T get() {
-                if (!singletons.containsKey(key)) {
-                    synchronized (singletons) {
-                        if (!singletons.containsKey(key)) {
-                            singletons.put(key, provider.get());
-                        }
-                    }
-                }
-                return (T) singletons.get(key);
-            }
-        } : provider;
-    }
-
-    //获取一个类的构造函数
-    Constructor<?> getConstructor(Key<?> key) {
-        try {
-            Constructor<?> inject = null;
-            Constructor<?> noarg = null;
-            Class<?> targetclass = key.type;
-            if (key.type.isAnnotationPresent(ImplementedBy.class)) {
-                targetclass = key.type.getAnnotation(ImplementedBy.class).value();
-            }
-            for (Constructor<?> c : targetclass.getDeclaredConstructors()) {
-                if (c.isAnnotationPresent(Inject.class)) {
-                    if (inject == null) {//只能有一个构造函数
-                        inject = c;
-                    } else {
-                        throw new NeedleException(String.format("%s has multiple @Inject constructors", key.type));
-                    }
-                } else if (c.getParameterTypes().length == 0 && c.getModifiers() != Modifier.PRIVATE) {
-                    noarg = c;
-                }
-            }
-            Constructor<?> constructor = inject != null ? inject : noarg;
-            if (constructor != null) {
-                constructor.setAccessible(true);
-                return constructor;
-            }
-            throw new NeedleException(String.format("%s doesn't have an @Inject or no-arg constructor which is not private, or a module provider", key.type.getName()));
-
-        } catch (SecurityException e) {
-            logger.error("", e);
-        }
-        return null;
+        return singleton != null ? singletonProvider(key, provider) : provider;
     }
 
-    //获取一个类中 包含Provides注解的方法
-    Set<Method> providers(Class<?> type) {
-        Class<?> current = type;
-        Set<Method> providers = new HashSet<>();
-        while (!current.equals(Object.class)) {
-            for (Method method : current.getDeclaredMethods()) {
-                if (method.isAnnotationPresent(Provides.class) && (type.equals(current) || !providerInSubClass(method, providers))) {
-                    method.setAccessible(true);
-                    providers.add(method);
-                }
-            }
-            current = current.getSuperclass();
-        }
-        return providers;
+    /**
+     * @return 这个injector的单例作用域
+     */
+    SingletonScope singletonScope() {
+        return singletonScope;
     }
 
-    private boolean providerInSubClass(Method method, Set<Method> discoveredMethods) {
-        for (Method discovered : discoveredMethods) {
-            if (discovered.getName().equals(method.getName()) && Arrays.equals(method.getParameterTypes(), discovered.getParameterTypes())) {
-                return true;
-            }
-        }
-        return false;
+    @SuppressWarnings("unchecked")
+    <T> Provider<T> singletonProvider(Key<?> key, Provider<T> provider) {
+        return singletonScope.scope((Key<T>) key, provider);
     }
 
-    //过滤归属于Qualifier的注解
-    Annotation qualifier(Annotation[] annotations) {
-        for (Annotation annotation : annotations) {
-            if (annotation.annotationType().isAnnotationPresent(Qualifier.class)) {
-                return annotation;
-            }
+    //获取一个类的构造函数, ImplementedBy时取实现类的
+    Constructor<?> getConstructor(Key<?> key) {
+        Class<?> targetclass = key.type;
+        if (key.type.isAnnotationPresent(ImplementedBy.class)) {
+            targetclass = key.type.getAnnotation(ImplementedBy.class).value();
         }
-        return null;
+        return ClassMetadata.of(targetclass).getConstructor();
     }
 }
@@ -0,0 +1,16 @@
+package lemon.needle.ioc;
+
+/**
+ * 延迟到第一次 {@link #get()} 时才创建的依赖, 之后一直返回同一个实例。
+ *
+ * <pre>
+ * &#64;Inject
+ * Lazy&lt;ReportGenerator&gt; reports;
+ * </pre>
+ *
+ * 与 {@code Provider<T>} 不同, 每个注入点一个Lazy, 不受绑定作用域影响地记住第一次得到的实例
+ */
+public interface Lazy<T> {
+
+    T get();
+}
@@ -0,0 +1,31 @@
+package lemon.needle.ioc.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 与 {@link Provides} 一起使用: 创建injector后立即在异步线程池上调用一次, 互不依赖的慢方法(加载密钥库、读取schema、打开连接池)并行执行。
+ *
+ * <pre>
+ * &#64;Provides
+ * &#64;Async
+ * KeyStore keyStore() { ... }
+ *
+ * &#64;Inject
+ * CompletableFuture&lt;KeyStore&gt; keyStore; // 不等待
+ * &#64;Inject
+ * KeyStore keyStore; // 等待调用完成
+ * </pre>
+ *
+ * 结果由所有注入点共享, 相当于单例; 不能再指定其他作用域
+ *
+ * @see lemon.needle.ioc.InjectorBuilder#asyncExecutor(java.util.concurrent.Executor)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Async {
+}
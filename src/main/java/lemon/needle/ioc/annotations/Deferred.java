@@ -0,0 +1,25 @@
+package lemon.needle.ioc.annotations;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * 注入接口类型的代理, 第一次调用方法时才创建真正的实例。
+ * 用于开销大、很少用到的依赖, 使它们不在创建调用方时构造
+ *
+ * <pre>
+ * &#64;Inject
+ * &#64;Deferred
+ * AuditSink audit;
+ * </pre>
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({ FIELD, PARAMETER })
+public @interface Deferred {
+}
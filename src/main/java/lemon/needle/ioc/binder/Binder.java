@@ -4,9 +4,11 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.util.HashSet;
 
+import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Qualifier;
 import javax.inject.Scope;
+import javax.inject.Singleton;
 
 import com.google.common.base.Preconditions;
 
@@ -24,12 +26,14 @@ public class Binder<T> {
     //要求注解归属于Qualifier注解  如Named
     private Class<? extends Annotation> qualifier;
     private Class<? extends Annotation> scope;
+    private lemon.needle.ioc.scope.Scope scopeInstance;
     @SuppressWarnings("unused")
     private boolean forceFireEvent;
     @SuppressWarnings("unused")
     private boolean fireEvent;
     private Constructor<? extends T> constructor;
     private Class<? extends T> impl;
+    private boolean eager;
 
     public Binder(Class<T> type) {
         this.type = type;
@@ -37,7 +41,7 @@ public class Binder<T> {
     }
 
     public Binder<T> named(String name) {
-        Preconditions.checkState(null != this.name, "name has already been specified");
+        Preconditions.checkState(null == this.name, "name has already been specified");
         this.name = name;
         this.fireEvent = false;
         return this;
@@ -95,7 +99,8 @@ public class Binder<T> {
         if (!scope.isAnnotationPresent(Scope.class)) {
             throw new NeedleException("Annotation class passed to \"in\" method must have @Scope annotation presented");
         }
-        Preconditions.checkState(null != this.scope, "Scope has already been specified");
+        Preconditions.checkState(null == this.scope && null == scopeInstance, "Scope has already been specified");
+        Preconditions.checkState(!eager || Singleton.class == scope, "asEagerSingleton() can't be combined with scope %s", scope.getName());
         this.scope = scope;
         this.fireEvent = false;
         return this;
@@ -128,10 +133,15 @@ public class Binder<T> {
     }
 
     /**
-     * 
+     * Specify the scope instance that wraps this binding, without registering an annotation for it
+     * @param scope the scope applied once when the binding is registered
      */
-    public void in(Scope scope) {
-
+    public void in(lemon.needle.ioc.scope.Scope scope) {
+        Preconditions.checkNotNull(scope);
+        Preconditions.checkState(null == this.scope && null == scopeInstance, "Scope has already been specified");
+        Preconditions.checkState(!eager, "asEagerSingleton() can't be combined with scope %s", scope);
+        this.scopeInstance = scope;
+        this.fireEvent = false;
     }
 
     /**
@@ -140,20 +150,25 @@ public class Binder<T> {
      * singleton-scoped binding upon creation. Useful for application
      * initialization logic.  See the EDSL examples at
      * {@link com.google.inject.Binder}.
+     * 只能与 in(Singleton.class) 同时使用, 已经指定了其他作用域时抛出IllegalStateException
      */
     public void asEagerSingleton() {
-
+        Preconditions.checkState((null == scope || Singleton.class == scope) && null == scopeInstance, "asEagerSingleton() can't be combined with scope %s", null != scope ? scope.getName() : scopeInstance);
+        this.eager = true;
     }
 
     boolean bound() {
         return null != provider || null != constructor || impl != null;
     }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
     public void register(InjectorImpl injector) {
-        Key<?> key = Key.of(type, qualifier, name);
+        Key<T> key = key();
         if (null == provider) {
             if (null != constructor) {
-                provider = injector.buildConstructor(key, constructor, new HashSet<Key>());
+                provider = (Provider<? extends T>) injector.constructorProvider(key, constructor, new HashSet<Key>());
+            } else if (type.equals(impl)) {
+                provider = (Provider<? extends T>) injector.constructorProvider(key, injector.constructor(impl), new HashSet<Key>());
             } else if (null != impl) {
                 provider = new LazyProvider<>(impl, injector);
             }
@@ -161,11 +176,24 @@ public class Binder<T> {
         if (!bound()) {
             throw new NeedleException("Cannot register without binding specified");
         }
+        if (null != scopeInstance) {
+            injector.bind(key, provider, scopeInstance);
+        } else {
+            injector.bind(key, provider, eager ? Singleton.class : scope);
+        }
+        if (eager) {
+            injector.eager(key, null != constructor ? constructor.getDeclaringClass() : impl);
+        }
     }
 
     public Key<?> key(InjectorImpl injector) {
-        Key<?> key = Key.of(type, qualifier, name);
+        Key<?> key = key();
         key.setScope(scope);
         return key;
     }
+
+    //只指定了name时与 @Named 注入点的Key一致
+    private Key<T> key() {
+        return Key.of(type, null == qualifier && null != name ? Named.class : qualifier, name);
+    }
 }
@@ -0,0 +1,23 @@
+package lemon.needle.ioc.factory;
+
+import lemon.needle.ioc.InjectionPlan;
+
+/**
+ * 一个绑定的实例工厂, 由{@link FactoryBackend}按{@link InjectionPlan}生成。
+ * 
+ * 创建实例与成员注入分成两步, 调用方可以在两者之间插入其他处理。
+ *
+ * @param <T>
+ */
+public interface BeanFactory<T> {
+
+    /**
+     * 解析构造参数并调用构造函数
+     */
+    T newInstance() throws Exception;
+
+    /**
+     * 注入字段和方法; 单个成员注入失败只记录日志, 不影响其他成员
+     */
+    void injectMembers(T bean);
+}
@@ -0,0 +1,292 @@
+package lemon.needle.ioc.factory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.binder.FieldInjector;
+import lemon.needle.ioc.binder.MethodInjector;
+import lemon.needle.ioc.factory.ReflectionBackend.ReflectiveBeanFactory;
+import lemon.needle.util.CommonUtil;
+
+/**
+ * 用javassist为每个绑定生成一个小的工厂类:
+ * 构造函数编译为 new(invokespecial), 字段注入编译为 putfield, 方法注入编译为直接调用。
+ *
+ * 生成类放在bean所在的包和ClassLoader中, 因此可以访问包内可见的成员;
+ * private、final字段以及无权访问的成员仍然走反射。无法生成时整个绑定退回到反射。
+ *
+ * 生成的类按(类, 构造函数)缓存, 同一个类在多个injector之间只生成一次。
+ */
+final class BytecodeBackend implements FactoryBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(BytecodeBackend.class);
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private static final AtomicBoolean warned = new AtomicBoolean(false);
+
+    private static final Generated FAILED = new Generated(null, null, null);
+
+    private static final ClassValue<ConcurrentMap<Member, Generated>> generated = new ClassValue<ConcurrentMap<Member, Generated>>() {
+        @Override
+        protected ConcurrentMap<Member, Generated> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<Member, Generated>();
+        }
+    };
+
+    private final ReflectionBackend reflection = new ReflectionBackend();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> BeanFactory<T> create(InjectionPlan<T> plan) {
+        ReflectiveBeanFactory<T> reflective = new ReflectiveBeanFactory<T>(plan);
+        Constructor<?> constructor = plan.getConstructor();
+        Field[] fields = fields(plan.getFieldInjectors());
+        Method[] methods = methods(plan.getMethodInjectors());
+        ConcurrentMap<Member, Generated> cache = generated.get(constructor.getDeclaringClass());
+        Generated factory = cache.get(constructor);
+        if (factory == null || (factory != FAILED && !factory.matches(fields, methods))) {
+            factory = generateFactory(constructor, fields, methods);
+            cache.putIfAbsent(constructor, factory);
+        }
+        if (factory == FAILED) {
+            return reflective;
+        }
+        try {
+            GeneratedBeanFactory<T> instance = (GeneratedBeanFactory<T>) factory.type.newInstance();
+            instance.init(plan, reflective);
+            return instance;
+        } catch (Exception e) {
+            logger.error("", e);
+            return reflective;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> Provider<T> provides(Key<T> key, Object module, Method method, Provider<?>[] params) {
+        ConcurrentMap<Member, Generated> cache = generated.get(module.getClass());
+        Generated provider = cache.get(method);
+        if (provider == null) {
+            provider = generateProvider(module.getClass(), method);
+            cache.putIfAbsent(method, provider);
+        }
+        if (provider == FAILED) {
+            return reflection.provides(key, module, method, params);
+        }
+        try {
+            GeneratedProvider<T> instance = (GeneratedProvider<T>) provider.type.newInstance();
+            instance.init(key, module, params);
+            return instance;
+        } catch (Exception e) {
+            logger.error("", e);
+            return reflection.provides(key, module, method, params);
+        }
+    }
+
+    private Generated generateFactory(Constructor<?> constructor, Field[] fields, Method[] methods) {
+        Class<?> type = constructor.getDeclaringClass();
+        if (!generatable(type)) {
+            return FAILED;
+        }
+        String bean = name(type);
+        StringBuilder newInstance = new StringBuilder("public Object newInstance() { ");
+        if (accessible(constructor, type)) {
+            newInstance.append("return new ").append(bean).append("(").append(args(constructor.getParameterTypes(), "constructorProviders")).append(");");
+        } else {
+            newInstance.append("return newInstanceReflectively();");
+        }
+        newInstance.append(" }");
+
+        StringBuilder injectMembers = new StringBuilder("public void injectMembers(Object bean) { Object v; ");
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            if (accessible(field, type) && !Modifier.isFinal(field.getModifiers())) {
+                injectMembers.append("try { v = fieldProviders[").append(i).append("].get(); if (v != null) { ((").append(name(field.getDeclaringClass())).append(") bean).").append(field.getName()).append(" = ").append(unwrap(field.getType(), "v")).append("; } } catch (Throwable t) { fieldFailed(t, ").append(i).append(", bean); } ");
+            } else {
+                injectMembers.append("injectFieldReflectively(").append(i).append(", bean); ");
+            }
+        }
+        for (int i = 0; i < methods.length; i++) {
+            Method method = methods[i];
+            if (accessible(method, type)) {
+                injectMembers.append("try { ((").append(name(method.getDeclaringClass())).append(") bean).").append(method.getName()).append("(").append(args(method.getParameterTypes(), "methodProviders[" + i + "]")).append("); } catch (Throwable t) { methodFailed(t, ").append(i).append(", bean); } ");
+            } else {
+                injectMembers.append("injectMethodReflectively(").append(i).append(", bean); ");
+            }
+        }
+        injectMembers.append("}");
+
+        Class<?> factory = define(type, bean + "$$NeedleFactory$$" + counter.incrementAndGet(), GeneratedBeanFactory.class, newInstance.toString(), injectMembers.toString());
+        return factory != null ? new Generated(factory, fields, methods) : FAILED;
+    }
+
+    private Generated generateProvider(Class<?> moduleType, Method method) {
+        if (!generatable(moduleType) || !accessible(method, moduleType) || !accessible(method.getReturnType(), moduleType)) {
+            return FAILED;
+        }
+        String get = "public Object get() { try { return ($w) ((" + name(method.getDeclaringClass()) + ") module)." + method.getName() + "(" + args(method.getParameterTypes(), "params") + "); } catch (Throwable t) { throw failed(t); } }";
+        Class<?> provider = define(moduleType, name(moduleType) + "$$NeedleProvides$$" + counter.incrementAndGet(), GeneratedProvider.class, get);
+        return provider != null ? new Generated(provider, null, null) : FAILED;
+    }
+
+    private Class<?> define(Class<?> target, String name, Class<?> superclass, String... methods) {
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new LoaderClassPath(target.getClassLoader()));
+            pool.appendClassPath(new ClassClassPath(superclass));
+            CtClass ct = pool.makeClass(name, pool.get(superclass.getName()));
+            for (String method : methods) {
+                ct.addMethod(CtNewMethod.make(method, ct));
+            }
+            Class<?> defined = ct.toClass(target.getClassLoader(), target.getProtectionDomain());
+            ct.detach();
+            return defined;
+        } catch (Throwable e) {
+            if (warned.compareAndSet(false, true)) {
+                logger.warn(String.format("Can't generate factory for %s, falling back to reflection", target.getName()), e);
+            } else {
+                logger.debug(String.format("Can't generate factory for %s, falling back to reflection", target.getName()), e);
+            }
+            return null;
+        }
+    }
+
+    private static String args(Class<?>[] types, String providers) {
+        StringBuilder args = new StringBuilder();
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                args.append(", ");
+            }
+            args.append(unwrap(types[i], providers + "[" + i + "].get()"));
+        }
+        return args.toString();
+    }
+
+    private static String unwrap(Class<?> type, String expr) {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = CommonUtil.wrapperClassOf(type);
+            return "((" + wrapper.getName() + ") " + expr + ")." + type.getName() + "Value()";
+        }
+        return "(" + name(type) + ") " + expr;
+    }
+
+    private static String name(Class<?> type) {
+        return type.isArray() ? name(type.getComponentType()) + "[]" : type.getName();
+    }
+
+    private static boolean generatable(Class<?> type) {
+        return type.getClassLoader() != null && !type.getName().startsWith("java.") && accessible(type, type);
+    }
+
+    /**
+     * 生成类位于 from 所在的包中, 判断它能否直接访问 member
+     */
+    static boolean accessible(Member member, Class<?> from) {
+        int modifiers = member.getModifiers();
+        if (Modifier.isPrivate(modifiers) || Modifier.isStatic(modifiers)) {
+            return false;
+        }
+        if (!accessible(member.getDeclaringClass(), from)) {
+            return false;
+        }
+        if (!Modifier.isPublic(modifiers) && !samePackage(member.getDeclaringClass(), from)) {
+            return false;
+        }
+        Class<?>[] types;
+        if (member instanceof Field) {
+            types = new Class<?>[] { ((Field) member).getType() };
+        } else if (member instanceof Method) {
+            types = ((Method) member).getParameterTypes();
+        } else {
+            types = ((Constructor<?>) member).getParameterTypes();
+        }
+        for (Class<?> type : types) {
+            if (!accessible(type, from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean accessible(Class<?> type, Class<?> from) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        for (Class<?> current = type; current != null; current = current.getDeclaringClass()) {
+            int modifiers = current.getModifiers();
+            if (Modifier.isPrivate(modifiers)) {
+                return false;
+            }
+            if (!Modifier.isPublic(modifiers) && !samePackage(current, from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePackage(Class<?> a, Class<?> b) {
+        return a.getClassLoader() == b.getClassLoader() && packageName(a).equals(packageName(b));
+    }
+
+    private static String packageName(Class<?> type) {
+        String name = type.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(0, dot);
+    }
+
+    private static Field[] fields(FieldInjector[] injectors) {
+        Field[] fields = new Field[injectors.length];
+        for (int i = 0; i < injectors.length; i++) {
+            fields[i] = injectors[i].getField();
+        }
+        return fields;
+    }
+
+    private static Method[] methods(MethodInjector[] injectors) {
+        Method[] methods = new Method[injectors.length];
+        for (int i = 0; i < injectors.length; i++) {
+            methods[i] = injectors[i].getMethod();
+        }
+        return methods;
+    }
+
+    private static final class Generated {
+        final Class<?> type;
+        final Field[] fields;
+        final Method[] methods;
+
+        Generated(Class<?> type, Field[] fields, Method[] methods) {
+            this.type = type;
+            this.fields = fields;
+            this.methods = methods;
+        }
+
+        boolean matches(Field[] fields, Method[] methods) {
+            return Arrays.equals(this.fields, fields) && Arrays.equals(this.methods, methods);
+        }
+    }
+}
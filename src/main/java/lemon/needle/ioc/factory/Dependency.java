@@ -0,0 +1,100 @@
+package lemon.needle.ioc.factory;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * 编译期生成的工厂声明的一个依赖
+ */
+public final class Dependency {
+
+    /** 注入点需要的形式 */
+    public enum Kind {
+        /** 实例本身 */
+        INSTANCE,
+        /** {@code Provider<T>} */
+        PROVIDER,
+        /** {@code Lazy<T>} */
+        LAZY,
+        /** {@code @Deferred} 接口代理 */
+        DEFERRED,
+        /** {@code CompletableFuture<T>} */
+        FUTURE,
+        /** Guava {@code ListenableFuture<T>} */
+        LISTENABLE_FUTURE
+    }
+
+    private final Key<?> key;
+    private final Kind kind;
+
+    private Dependency(Key<?> key, Kind kind) {
+        this.key = key;
+        this.kind = kind;
+    }
+
+    /** 注入key对应的实例 */
+    public static Dependency of(Key<?> key) {
+        return new Dependency(key, Kind.INSTANCE);
+    }
+
+    /** 注入key对应的 {@code Provider} */
+    public static Dependency provider(Key<?> key) {
+        return new Dependency(key, Kind.PROVIDER);
+    }
+
+    /** 注入key对应的 {@code Lazy} */
+    public static Dependency lazy(Key<?> key) {
+        return new Dependency(key, Kind.LAZY);
+    }
+
+    /** 注入key对应的延迟创建的接口代理 */
+    public static Dependency deferred(Key<?> key) {
+        return new Dependency(key, Kind.DEFERRED);
+    }
+
+    /** 注入key对应实例的 {@code CompletableFuture} */
+    public static Dependency future(Key<?> key) {
+        return new Dependency(key, Kind.FUTURE);
+    }
+
+    /** 注入key对应实例的 {@code ListenableFuture} */
+    public static Dependency listenableFuture(Key<?> key) {
+        return new Dependency(key, Kind.LISTENABLE_FUTURE);
+    }
+
+    public Key<?> getKey() {
+        return key;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isProvider() {
+        return kind == Kind.PROVIDER;
+    }
+
+    /**
+     * @return 创建注入方时是否需要先创建依赖; Provider、Lazy、延迟代理和future都不需要
+     */
+    public boolean isInstance() {
+        return kind == Kind.INSTANCE;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+        case PROVIDER:
+            return "Provider<" + key + ">";
+        case LAZY:
+            return "Lazy<" + key + ">";
+        case DEFERRED:
+            return "@Deferred " + key;
+        case FUTURE:
+            return "CompletableFuture<" + key + ">";
+        case LISTENABLE_FUTURE:
+            return "ListenableFuture<" + key + ">";
+        default:
+            return key.toString();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package lemon.needle.ioc.factory;
+
+import java.lang.reflect.Method;
+
+import javax.inject.Provider;
+
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.Key;
+
+/**
+ * 创建实例、注入成员以及调用{@code @Provides}方法的方式。
+ * 
+ * 每个绑定只调用一次, 返回的工厂在之后的每次实例化中复用。
+ * 
+ * @see FactoryBackends
+ */
+public interface FactoryBackend {
+
+    /**
+     * @return 按注入计划创建实例并注入成员的工厂
+     */
+    <T> BeanFactory<T> create(InjectionPlan<T> plan);
+
+    /**
+     * @param key 绑定的key
+     * @param module 声明该方法的模块实例
+     * @param method 带{@code @Provides}注解的方法
+     * @param params 方法参数的provider
+     * @return 调用该方法的provider
+     */
+    <T> Provider<T> provides(Key<T> key, Object module, Method method, Provider<?>[] params);
+}
@@ -0,0 +1,38 @@
+package lemon.needle.ioc.factory;
+
+/**
+ * 内置的{@link FactoryBackend}
+ */
+public final class FactoryBackends {
+
+    private FactoryBackends() {
+    }
+
+    /** 通过反射调用构造函数、设置字段和调用方法 */
+    public static final FactoryBackend REFLECTION = new ReflectionBackend();
+
+    /**
+     * 用javassist为每个绑定生成一个工厂类, 直接 new 实例、赋值字段、调用方法。
+     * private 或者生成类无权访问的成员退回到反射
+     */
+    public static final FactoryBackend BYTECODE = new BytecodeBackend();
+
+    /**
+     * 为每个绑定预先组合MethodHandle, 无参public构造函数通过LambdaMetafactory绑定成Supplier
+     */
+    public static final FactoryBackend METHOD_HANDLE = new MethodHandleBackend();
+
+    /**
+     * @return 由系统属性 needle_factory_backend 指定的实现, 默认 {@link #REFLECTION}
+     */
+    public static FactoryBackend defaultBackend() {
+        switch (FactoryFlags.getFactoryBackendOption()) {
+            case BYTECODE:
+                return BYTECODE;
+            case METHOD_HANDLE:
+                return METHOD_HANDLE;
+            default:
+                return REFLECTION;
+        }
+    }
+}
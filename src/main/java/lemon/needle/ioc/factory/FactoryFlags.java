@@ -0,0 +1,57 @@
+package lemon.needle.ioc.factory;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * ioc创建实例相关的系统属性, 启动时读取一次
+ */
+final class FactoryFlags {
+
+    private static final Logger logger = Logger.getLogger(FactoryFlags.class.getName());
+
+    private static final FactoryBackendOption FACTORY_BACKEND = getSystemOption("needle_factory_backend", FactoryBackendOption.REFLECTION);
+
+    private FactoryFlags() {
+    }
+
+    /**
+     * needle_factory_backend 的取值, 对应 {@link FactoryBackends} 中的实现
+     */
+    enum FactoryBackendOption {
+        /** 反射(默认) */
+        REFLECTION,
+        /** 每个绑定生成一个工厂类 */
+        BYTECODE,
+        /** 预先组合的MethodHandle */
+        METHOD_HANDLE
+    }
+
+    static FactoryBackendOption getFactoryBackendOption() {
+        return FACTORY_BACKEND;
+    }
+
+    /**
+     * @return 属性的值, 没有设置或者没有权限读取时为defaultValue, 不合法时记录警告并返回defaultValue
+     */
+    private static <T extends Enum<T>> T getSystemOption(final String name, T defaultValue) {
+        Class<T> enumType = defaultValue.getDeclaringClass();
+        String value = null;
+        try {
+            value = AccessController.doPrivileged(new PrivilegedAction<String>() {
+                @Override
+                public String run() {
+                    return System.getProperty(name);
+                }
+            });
+            return (value != null && value.length() > 0) ? Enum.valueOf(enumType, value) : defaultValue;
+        } catch (SecurityException e) {
+            return defaultValue;
+        } catch (IllegalArgumentException e) {
+            logger.warning(value + " is not a valid flag value for " + name + ". Values must be one of " + Arrays.asList(enumType.getEnumConstants()));
+            return defaultValue;
+        }
+    }
+}
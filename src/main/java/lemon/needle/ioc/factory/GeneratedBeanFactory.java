@@ -0,0 +1,72 @@
+package lemon.needle.ioc.factory;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.factory.ReflectionBackend.ReflectiveBeanFactory;
+
+/**
+ * {@link BytecodeBackend}生成的工厂类的父类。
+ * 
+ * 生成类和bean在同一个包中, 通过下面的protected成员取得依赖的provider;
+ * 生成类无权直接访问的成员交给反射处理。
+ *
+ * @param <T>
+ */
+public abstract class GeneratedBeanFactory<T> implements BeanFactory<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeneratedBeanFactory.class);
+
+    /** 构造参数 */
+    protected Provider<?>[] constructorProviders;
+    /** 字段, 与 {@link InjectionPlan#getFieldInjectors()} 同序 */
+    protected Provider<?>[] fieldProviders;
+    /** 方法参数, 与 {@link InjectionPlan#getMethodInjectors()} 同序 */
+    protected Provider<?>[][] methodProviders;
+
+    private InjectionPlan<T> plan;
+    private ReflectiveBeanFactory<T> reflective;
+
+    final void init(InjectionPlan<T> plan, ReflectiveBeanFactory<T> reflective) {
+        this.plan = plan;
+        this.reflective = reflective;
+        this.constructorProviders = plan.getConstructorProviders();
+        this.fieldProviders = new Provider<?>[plan.getFieldInjectors().length];
+        for (int i = 0; i < fieldProviders.length; i++) {
+            fieldProviders[i] = plan.getFieldInjectors()[i].getProvider();
+        }
+        this.methodProviders = new Provider<?>[plan.getMethodInjectors().length][];
+        for (int i = 0; i < methodProviders.length; i++) {
+            methodProviders[i] = plan.getMethodInjectors()[i].getProviders();
+        }
+    }
+
+    protected final Object newInstanceReflectively() throws Exception {
+        return reflective.newInstance();
+    }
+
+    protected final void injectFieldReflectively(int index, Object bean) {
+        reflective.injectField(index, bean);
+    }
+
+    protected final void injectMethodReflectively(int index, Object bean) {
+        reflective.injectMethod(index, bean);
+    }
+
+    protected final void fieldFailed(Throwable t, int index, Object bean) {
+        logger.error("", new NeedleException(t, "Unable to inject %s on %s", plan.getFieldInjectors()[index], bean.getClass()));
+    }
+
+    protected final void methodFailed(Throwable t, int index, Object bean) {
+        logger.error("", new NeedleException(t, "Unable to invoke %s on %s", plan.getMethodInjectors()[index], bean.getClass()));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName();
+    }
+}
@@ -0,0 +1,36 @@
+package lemon.needle.ioc.factory;
+
+import javax.inject.Provider;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * {@link BytecodeBackend}为{@code @Provides}方法生成的provider的父类
+ *
+ * @param <T>
+ */
+public abstract class GeneratedProvider<T> implements Provider<T> {
+
+    /** 声明{@code @Provides}方法的模块 */
+    protected Object module;
+    /** 方法参数 */
+    protected Provider<?>[] params;
+
+    private Key<T> key;
+
+    final void init(Key<T> key, Object module, Provider<?>[] params) {
+        this.key = key;
+        this.module = module;
+        this.params = params;
+    }
+
+    protected final RuntimeException failed(Throwable t) {
+        return new NeedleException(String.format("Can't instantiate %s with provider", key.toString()), t);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName();
+    }
+}
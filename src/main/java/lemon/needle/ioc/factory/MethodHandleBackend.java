@@ -0,0 +1,629 @@
+package lemon.needle.ioc.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.DuplicateMemberException;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.binder.FieldInjector;
+import lemon.needle.ioc.binder.MethodInjector;
+import lemon.needle.ioc.factory.ReflectionBackend.ReflectiveBeanFactory;
+
+/**
+ * 基于java.lang.invoke的实现。
+ *
+ * 每个(构造函数, 字段, 方法)的组合预先组合出两个MethodHandle, 绑定相关的provider不绑定进去, 而是从参数state中按下标读取:
+ * 构造函数 (Object[])Object; 成员注入 (Object, Object[])void, 所有字段和方法用 foldArguments 串成一条调用链。
+ * state[0]为反射实现的工厂(无法unreflect的成员用它注入), 之后依次是构造函数、各字段和各方法参数的provider。
+ *
+ * 两个MethodHandle放在生成的工厂类的static final字段中, JIT把它们当作常量, 整条调用链可以内联到调用方:
+ *
+ * <pre>
+ * static final MethodHandle CONSTRUCTOR, MEMBERS;
+ * final Object[] state;
+ * public Object newInstance() { return (Object) CONSTRUCTOR.invokeExact(state); }
+ * public void injectMembers(Object bean) { MEMBERS.invokeExact(bean, state); }
+ * </pre>
+ *
+ * 工厂类的字节码只生成一次, 每个组合用单独的ClassLoader定义一份, 按bean的类缓存:
+ * 同一个类在所有injector(包括子injector)之间共用, 定义的类的数量只与绑定的类的数量有关, 随bean的类一起卸载。
+ * 从state读取的provider对JIT不是常量, provider.get()无法内联; 因此每个组合第一次创建的工厂仍把provider直接绑定进MethodHandle(忽略state),
+ * 单独定义一份类(不缓存, 随工厂回收), 之后的injector共用上面的类。每个组合最多定义两份类。
+ * 无法定义生成类时改用实例字段保存MethodHandle, 无参的public构造函数再通过LambdaMetafactory绑定成一个{@link Supplier}。
+ *
+ * 无法unreflect的成员(例如静态成员)单独退回到反射。
+ */
+final class MethodHandleBackend implements FactoryBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHandleBackend.class);
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private static final MethodHandle PROVIDER_GET;
+    private static final MethodHandle STATE;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle SKIP;
+    private static final MethodHandle FAILED;
+    private static final MethodHandle INJECT_FIELD;
+    private static final MethodHandle INJECT_METHOD;
+
+    static {
+        try {
+            PROVIDER_GET = lookup.findVirtual(Provider.class, "get", MethodType.methodType(Object.class));
+            STATE = MethodHandles.arrayElementGetter(Object[].class);
+            IS_NULL = lookup.findStatic(Objects.class, "isNull", MethodType.methodType(boolean.class, Object.class));
+            SKIP = lookup.findStatic(MethodHandleBackend.class, "skip", MethodType.methodType(void.class, Object.class));
+            FAILED = lookup.findStatic(MethodHandleBackend.class, "failed", MethodType.methodType(void.class, Object.class, Throwable.class, Object.class));
+            INJECT_FIELD = lookup.findVirtual(ReflectiveBeanFactory.class, "injectField", MethodType.methodType(void.class, int.class, Object.class));
+            INJECT_METHOD = lookup.findVirtual(ReflectiveBeanFactory.class, "injectMethod", MethodType.methodType(void.class, int.class, Object.class));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** 生成的工厂类名, 每个ClassLoader中只有一个 */
+    private static final String CONSTANT_FACTORY = "lemon.needle.ioc.factory.$$ConstantBeanFactory";
+
+    private static final byte[] TEMPLATE = template();
+
+    private static final Layout UNREFLECTABLE = new Layout(null, null, null, null, null, null);
+
+    /** bean的类 -> 构造函数 -> 组合好的MethodHandle和生成类 */
+    private static final ClassValue<ConcurrentMap<Constructor<?>, Layout>> layouts = new ClassValue<ConcurrentMap<Constructor<?>, Layout>>() {
+        @Override
+        protected ConcurrentMap<Constructor<?>, Layout> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<Constructor<?>, Layout>();
+        }
+    };
+
+    private final ReflectionBackend reflection = new ReflectionBackend();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> BeanFactory<T> create(InjectionPlan<T> plan) {
+        ReflectiveBeanFactory<T> reflective = new ReflectiveBeanFactory<T>(plan);
+        Layout layout = layout(plan);
+        if (layout == UNREFLECTABLE) {
+            return reflective;
+        }
+        Object[] state = state(plan, reflective);
+        if (TEMPLATE != null && layout.bound.compareAndSet(false, true)) {
+            BeanFactory<T> bound = bound(plan, state);
+            if (bound != null) {
+                return bound;
+            }
+        }
+        if (layout.factory != null) {
+            try {
+                return (BeanFactory<T>) layout.factory.newInstance(new Object[] { state });
+            } catch (Exception e) {
+                logger.debug("Can't instantiate the constant bean factory, falling back to instance fields", e);
+            }
+        }
+        return new MethodHandleBeanFactory<T>(layout.supplier, layout.constructor, layout.members, state);
+    }
+
+    /**
+     * @return 与plan的构造函数、字段和方法一致的组合, 没有时创建; 构造函数无法unreflect时为 {@link #UNREFLECTABLE}
+     */
+    private static Layout layout(InjectionPlan<?> plan) {
+        Constructor<?> constructor = plan.getConstructor();
+        Field[] fields = fields(plan.getFieldInjectors());
+        Method[] methods = methods(plan.getMethodInjectors());
+        ConcurrentMap<Constructor<?>, Layout> cache = layouts.get(constructor.getDeclaringClass());
+        Layout layout = cache.get(constructor);
+        if (layout == null || (layout != UNREFLECTABLE && !layout.matches(fields, methods))) {
+            layout = createLayout(constructor, fields, methods, plan.getMethodInjectors());
+            Layout existing = cache.putIfAbsent(constructor, layout);
+            if (existing != null && (existing == UNREFLECTABLE || existing.matches(fields, methods))) {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+
+    private static Layout createLayout(Constructor<?> constructor, Field[] fields, Method[] methods, MethodInjector[] injectors) {
+        MethodHandle newInstance;
+        try {
+            newInstance = sharedConstructor(constructor);
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", constructor), e);
+            return UNREFLECTABLE;
+        }
+        MethodHandle members = sharedMembers(fields, methods, constructor.getParameterTypes().length, injectors);
+        return new Layout(fields, methods, supplier(constructor), newInstance, members, constant(newInstance, members));
+    }
+
+    /**
+     * @return 把state中的provider直接绑定进MethodHandle的工厂, 单独定义一份生成类; 失败时为null
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> BeanFactory<T> bound(InjectionPlan<T> plan, Object[] state) {
+        try {
+            // 生成类的方法签名带有state, 这里不使用
+            MethodHandle constructor = MethodHandles.dropArguments(constructor(plan.getConstructor(), plan.getConstructorProviders()), 0, Object[].class);
+            MethodHandle members = MethodHandles.dropArguments(members(plan, (ReflectiveBeanFactory<?>) state[0]), 1, Object[].class);
+            Constructor<?> factory = constant(constructor, members);
+            return factory != null ? (BeanFactory<T>) factory.newInstance(new Object[] { state }) : null;
+        } catch (Exception e) {
+            logger.debug("Can't bind providers into the constant bean factory, falling back to shared one", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 绑定相关的参数: 反射实现的工厂, 然后依次是构造函数、各字段和各方法参数的provider
+     */
+    private static Object[] state(InjectionPlan<?> plan, ReflectiveBeanFactory<?> reflective) {
+        int size = 1 + plan.getConstructorProviders().length + plan.getFieldInjectors().length;
+        for (MethodInjector injector : plan.getMethodInjectors()) {
+            size += injector.getProviders().length;
+        }
+        Object[] state = new Object[size];
+        state[0] = reflective;
+        int index = 1;
+        for (Provider<?> provider : plan.getConstructorProviders()) {
+            state[index++] = provider;
+        }
+        for (FieldInjector injector : plan.getFieldInjectors()) {
+            state[index++] = injector.getProvider();
+        }
+        for (MethodInjector injector : plan.getMethodInjectors()) {
+            for (Provider<?> provider : injector.getProviders()) {
+                state[index++] = provider;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return 用static final字段保存constructor和members的生成类的构造函数 (Object[] state); 无法生成时为null
+     */
+    private static Constructor<?> constant(MethodHandle constructor, MethodHandle members) {
+        if (TEMPLATE == null) {
+            return null;
+        }
+        try {
+            return new ConstantLoader(constructor, members).define(TEMPLATE).getConstructor(Object[].class);
+        } catch (Throwable e) {
+            logger.debug("Can't define a constant bean factory, falling back to instance fields", e);
+            return null;
+        }
+    }
+
+    /**
+     * 生成 {@value #CONSTANT_FACTORY}: 静态初始化时从定义它的 {@link ConstantLoader} 取出两个MethodHandle。
+     * javassist的编译器不支持签名多态的invokeExact, 因此直接写字节码; 方法中没有分支, 不需要StackMapTable
+     */
+    private static byte[] template() {
+        try {
+            ClassFile cf = new ClassFile(false, CONSTANT_FACTORY, Object.class.getName());
+            cf.setMajorVersion(ClassFile.JAVA_7);
+            cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL | AccessFlag.SUPER);
+            cf.setInterfaces(new String[] { BeanFactory.class.getName() });
+            ConstPool cp = cf.getConstPool();
+            String handle = "Ljava/lang/invoke/MethodHandle;";
+            String array = "[Ljava/lang/Object;";
+            String[] fields = { "CONSTRUCTOR", "MEMBERS" };
+            for (String field : fields) {
+                FieldInfo info = new FieldInfo(cp, field, handle);
+                info.setAccessFlags(AccessFlag.PRIVATE | AccessFlag.STATIC | AccessFlag.FINAL);
+                cf.addField(info);
+            }
+            FieldInfo state = new FieldInfo(cp, "state", array);
+            state.setAccessFlags(AccessFlag.PRIVATE | AccessFlag.FINAL);
+            cf.addField(state);
+
+            Bytecode init = new Bytecode(cp, 2, 2);
+            init.addAload(0);
+            init.addInvokespecial(Object.class.getName(), MethodInfo.nameInit, "()V");
+            init.addAload(0);
+            init.addAload(1);
+            init.addPutfield(CONSTANT_FACTORY, "state", array);
+            init.addReturn(null);
+            add(cf, AccessFlag.PUBLIC, MethodInfo.nameInit, "(" + array + ")V", init);
+
+            Bytecode clinit = new Bytecode(cp, 2, 0);
+            for (int i = 0; i < fields.length; i++) {
+                clinit.addLdc(cp.addClassInfo(CONSTANT_FACTORY));
+                clinit.addInvokevirtual(Class.class.getName(), "getClassLoader", "()Ljava/lang/ClassLoader;");
+                clinit.addCheckcast(IntFunction.class.getName());
+                clinit.addIconst(i);
+                clinit.addInvokeinterface(IntFunction.class.getName(), "apply", "(I)Ljava/lang/Object;", 2);
+                clinit.addCheckcast(MethodHandle.class.getName());
+                clinit.addPutstatic(CONSTANT_FACTORY, fields[i], handle);
+            }
+            clinit.addReturn(null);
+            add(cf, AccessFlag.STATIC, MethodInfo.nameClinit, "()V", clinit);
+
+            Bytecode newInstance = new Bytecode(cp, 2, 1);
+            newInstance.addGetstatic(CONSTANT_FACTORY, fields[0], handle);
+            newInstance.addAload(0);
+            newInstance.addGetfield(CONSTANT_FACTORY, "state", array);
+            newInstance.addInvokevirtual(MethodHandle.class.getName(), "invokeExact", "(" + array + ")Ljava/lang/Object;");
+            newInstance.addOpcode(Bytecode.ARETURN);
+            add(cf, AccessFlag.PUBLIC, "newInstance", "()Ljava/lang/Object;", newInstance);
+
+            Bytecode injectMembers = new Bytecode(cp, 3, 2);
+            injectMembers.addGetstatic(CONSTANT_FACTORY, fields[1], handle);
+            injectMembers.addAload(1);
+            injectMembers.addAload(0);
+            injectMembers.addGetfield(CONSTANT_FACTORY, "state", array);
+            injectMembers.addInvokevirtual(MethodHandle.class.getName(), "invokeExact", "(Ljava/lang/Object;" + array + ")V");
+            injectMembers.addReturn(null);
+            add(cf, AccessFlag.PUBLIC, "injectMembers", "(Ljava/lang/Object;)V", injectMembers);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            cf.write(new DataOutputStream(bytes));
+            return bytes.toByteArray();
+        } catch (IOException | DuplicateMemberException | RuntimeException e) {
+            logger.warn("Can't generate the constant bean factory, method handles stay in instance fields", e);
+            return null;
+        }
+    }
+
+    private static void add(ClassFile cf, int access, String name, String descriptor, Bytecode code) throws DuplicateMemberException {
+        MethodInfo method = new MethodInfo(cf.getConstPool(), name, descriptor);
+        method.setAccessFlags(access);
+        method.setCodeAttribute(code.toCodeAttribute());
+        cf.addMethod(method);
+    }
+
+    @Override
+    public <T> Provider<T> provides(final Key<T> key, Object module, Method method, Provider<?>[] params) {
+        final MethodHandle handle;
+        try {
+            MethodHandle target = lookup.unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) {
+                target = target.bindTo(module);
+            }
+            handle = bind(target, 0, params).asType(MethodType.methodType(Object.class));
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", method), e);
+            return reflection.provides(key, module, method, params);
+        }
+        return new Provider<T>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public T get() {
+                try {
+                    return (T) (Object) handle.invokeExact();
+                } catch (Throwable e) {
+                    throw new NeedleException(String.format("Can't instantiate %s with provider", key.toString()), e);
+                }
+            }
+        };
+    }
+
+    private static MethodHandle constructor(Constructor<?> constructor, Provider<?>[] providers) throws IllegalAccessException {
+        return bind(lookup.unreflectConstructor(constructor), 0, providers).asType(MethodType.methodType(Object.class));
+    }
+
+    /**
+     * @return (Object[] state)Object, 参数取自state[1]开始的provider
+     */
+    private static MethodHandle sharedConstructor(Constructor<?> constructor) throws IllegalAccessException {
+        return fromState(lookup.unreflectConstructor(constructor), 0, 1).asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    /**
+     * public类的无参public构造函数用LambdaMetafactory生成Supplier, 其余返回null
+     */
+    private static Supplier<?> supplier(Constructor<?> constructor) {
+        Class<?> type = constructor.getDeclaringClass();
+        if (constructor.getParameterTypes().length != 0 || !Modifier.isPublic(constructor.getModifiers()) || !BytecodeBackend.accessible(type, MethodHandleBackend.class)) {
+            return null;
+        }
+        try {
+            MethodHandle target = lookup.findConstructor(type, MethodType.methodType(void.class));
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class), MethodType.methodType(Object.class), target, MethodType.methodType(type));
+            return (Supplier<?>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            logger.debug(String.format("Can't bind %s to a Supplier", constructor), e);
+            return null;
+        }
+    }
+
+    /**
+     * 把所有字段和方法的注入串成一个 (Object)void 的MethodHandle
+     */
+    private static MethodHandle members(InjectionPlan<?> plan, ReflectiveBeanFactory<?> reflective) {
+        MethodHandle chain = SKIP;
+        MethodInjector[] methods = plan.getMethodInjectors();
+        for (int i = methods.length - 1; i >= 0; i--) {
+            chain = MethodHandles.foldArguments(chain, method(methods[i], i, reflective));
+        }
+        FieldInjector[] fields = plan.getFieldInjectors();
+        for (int i = fields.length - 1; i >= 0; i--) {
+            chain = MethodHandles.foldArguments(chain, field(fields[i], i, reflective));
+        }
+        return chain;
+    }
+
+    private static MethodHandle field(FieldInjector injector, int index, ReflectiveBeanFactory<?> reflective) {
+        try {
+            MethodHandle setter = lookup.unreflectSetter(injector.getField()).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            // provider返回null时保持字段原值
+            MethodHandle guarded = MethodHandles.guardWithTest(MethodHandles.dropArguments(IS_NULL, 0, Object.class), MethodHandles.dropArguments(SKIP, 1, Object.class), setter);
+            MethodHandle inject = MethodHandles.insertArguments(MethodHandles.filterArguments(guarded, 1, PROVIDER_GET), 1, injector.getProvider());
+            return logged(inject, injector.getField());
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", injector.getField()), e);
+            return MethodHandles.insertArguments(INJECT_FIELD.bindTo(reflective), 0, index);
+        }
+    }
+
+    private static MethodHandle method(MethodInjector injector, int index, ReflectiveBeanFactory<?> reflective) {
+        try {
+            if (Modifier.isStatic(injector.getMethod().getModifiers())) {
+                throw new IllegalArgumentException("static method");
+            }
+            MethodHandle inject = bind(lookup.unreflect(injector.getMethod()), 1, injector.getProviders()).asType(MethodType.methodType(void.class, Object.class));
+            return logged(inject, injector.getMethod());
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", injector.getMethod()), e);
+            return MethodHandles.insertArguments(INJECT_METHOD.bindTo(reflective), 0, index);
+        }
+    }
+
+    /**
+     * 把所有字段和方法的注入串成一个 (Object bean, Object[] state)void 的MethodHandle
+     * @param constructorParameters 构造函数的参数个数, 字段的provider在state中排在它们之后
+     */
+    private static MethodHandle sharedMembers(Field[] fields, Method[] methods, int constructorParameters, MethodInjector[] injectors) {
+        int[] offsets = new int[methods.length];
+        int offset = 1 + constructorParameters + fields.length;
+        for (int i = 0; i < methods.length; i++) {
+            offsets[i] = offset;
+            offset += injectors[i].getProviders().length;
+        }
+        MethodHandle chain = MethodHandles.dropArguments(SKIP, 1, Object[].class);
+        for (int i = methods.length - 1; i >= 0; i--) {
+            chain = MethodHandles.foldArguments(chain, sharedMethod(methods[i], i, offsets[i]));
+        }
+        for (int i = fields.length - 1; i >= 0; i--) {
+            chain = MethodHandles.foldArguments(chain, sharedField(fields[i], i, 1 + constructorParameters + i));
+        }
+        return chain;
+    }
+
+    private static MethodHandle sharedField(Field field, int index, int slot) {
+        try {
+            MethodHandle setter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+            // provider返回null时保持字段原值
+            MethodHandle guarded = MethodHandles.guardWithTest(MethodHandles.dropArguments(IS_NULL, 0, Object.class), MethodHandles.dropArguments(SKIP, 1, Object[].class, Object.class), MethodHandles.dropArguments(setter, 1, Object[].class));
+            return logged(MethodHandles.foldArguments(guarded, MethodHandles.dropArguments(get(slot, Object.class), 0, Object.class)), field);
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", field), e);
+            return reflectively(INJECT_FIELD, index);
+        }
+    }
+
+    private static MethodHandle sharedMethod(Method method, int index, int slot) {
+        try {
+            if (Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalArgumentException("static method");
+            }
+            MethodHandle inject = fromState(lookup.unreflect(method), 1, slot).asType(MethodType.methodType(void.class, Object.class, Object[].class));
+            return logged(inject, method);
+        } catch (Exception e) {
+            logger.debug(String.format("Can't unreflect %s, falling back to reflection", method), e);
+            return reflectively(INJECT_METHOD, index);
+        }
+    }
+
+    /**
+     * @return (Object bean, Object[] state)void, 由state[0]中的反射工厂注入第index个成员
+     */
+    private static MethodHandle reflectively(MethodHandle inject, int index) {
+        MethodHandle target = MethodHandles.permuteArguments(MethodHandles.insertArguments(inject, 1, index), MethodType.methodType(void.class, Object.class, ReflectiveBeanFactory.class), 1, 0);
+        return MethodHandles.filterArguments(target, 1, element(0, ReflectiveBeanFactory.class));
+    }
+
+    /**
+     * @return (Object[] state)type, 即 ((Provider) state[slot]).get()
+     */
+    private static MethodHandle get(int slot, Class<?> type) {
+        return MethodHandles.filterReturnValue(element(slot, Provider.class), PROVIDER_GET).asType(MethodType.methodType(type, Object[].class));
+    }
+
+    /**
+     * @return (Object[] state)type, 即 (type) state[slot]
+     */
+    private static MethodHandle element(int slot, Class<?> type) {
+        return MethodHandles.insertArguments(STATE, 1, slot).asType(MethodType.methodType(type, Object[].class));
+    }
+
+    /**
+     * 把 target 从 from 开始的参数换成一个 Object[] state 参数, 第i个参数取自 state[slot + i] 中provider.get()的返回值
+     */
+    private static MethodHandle fromState(MethodHandle target, int from, int slot) {
+        int count = target.type().parameterCount() - from;
+        if (count == 0) {
+            return MethodHandles.dropArguments(target, from, Object[].class);
+        }
+        MethodHandle[] filters = new MethodHandle[count];
+        for (int i = 0; i < count; i++) {
+            filters[i] = get(slot + i, target.type().parameterType(from + i));
+        }
+        MethodHandle filtered = MethodHandles.filterArguments(target, from, filters);
+        Class<?>[] parameters = new Class<?>[from + 1];
+        int[] reorder = new int[from + count];
+        for (int i = 0; i < from; i++) {
+            parameters[i] = filtered.type().parameterType(i);
+            reorder[i] = i;
+        }
+        parameters[from] = Object[].class;
+        for (int i = from; i < reorder.length; i++) {
+            reorder[i] = from;
+        }
+        return MethodHandles.permuteArguments(filtered, MethodType.methodType(filtered.type().returnType(), parameters), reorder);
+    }
+
+    /**
+     * 把 target 从 from 开始的参数替换成对应provider.get()的返回值
+     */
+    private static MethodHandle bind(MethodHandle target, int from, Provider<?>[] providers) {
+        if (providers.length == 0) {
+            return target;
+        }
+        MethodHandle[] filters = new MethodHandle[providers.length];
+        for (int i = 0; i < providers.length; i++) {
+            filters[i] = PROVIDER_GET.asType(MethodType.methodType(target.type().parameterType(from + i), Provider.class));
+        }
+        return MethodHandles.insertArguments(MethodHandles.filterArguments(target, from, filters), from, (Object[]) providers);
+    }
+
+    /**
+     * 与反射实现一致, 单个成员注入失败只记录日志
+     */
+    private static MethodHandle logged(MethodHandle inject, Member member) {
+        MethodType type = inject.type();
+        return MethodHandles.catchException(inject, Throwable.class, MethodHandles.dropArguments(FAILED.bindTo(member), 2, type.parameterList().subList(1, type.parameterCount())));
+    }
+
+    @SuppressWarnings("unused")
+    private static void skip(Object bean) {
+    }
+
+    @SuppressWarnings("unused")
+    private static void failed(Object member, Throwable t, Object bean) {
+        logger.error("", new NeedleException(t, "Unable to inject %s on %s", member, bean.getClass()));
+    }
+
+    private static Field[] fields(FieldInjector[] injectors) {
+        Field[] fields = new Field[injectors.length];
+        for (int i = 0; i < injectors.length; i++) {
+            fields[i] = injectors[i].getField();
+        }
+        return fields;
+    }
+
+    private static Method[] methods(MethodInjector[] injectors) {
+        Method[] methods = new Method[injectors.length];
+        for (int i = 0; i < injectors.length; i++) {
+            methods[i] = injectors[i].getMethod();
+        }
+        return methods;
+    }
+
+    /**
+     * 一个(构造函数, 字段, 方法)组合的MethodHandle, 以及保存它们的生成类(无法生成时为null)
+     */
+    private static final class Layout {
+        final Field[] fields;
+        final Method[] methods;
+        final Supplier<?> supplier;
+        final MethodHandle constructor;
+        final MethodHandle members;
+        final Constructor<?> factory;
+        /** 是否已经创建过绑定常量的工厂 */
+        final AtomicBoolean bound = new AtomicBoolean();
+
+        Layout(Field[] fields, Method[] methods, Supplier<?> supplier, MethodHandle constructor, MethodHandle members, Constructor<?> factory) {
+            this.fields = fields;
+            this.methods = methods;
+            this.supplier = supplier;
+            this.constructor = constructor;
+            this.members = members;
+            this.factory = factory;
+        }
+
+        boolean matches(Field[] fields, Method[] methods) {
+            return Arrays.equals(this.fields, fields) && Arrays.equals(this.methods, methods);
+        }
+    }
+
+    /**
+     * 定义一份 {@value #CONSTANT_FACTORY}, 并在它的静态初始化中交出MethodHandle。
+     * 生成类与本类不在同一个运行时包中, 只能通过公开的IntFunction取值
+     */
+    private static final class ConstantLoader extends ClassLoader implements IntFunction<MethodHandle> {
+        private final MethodHandle[] handles;
+
+        ConstantLoader(MethodHandle constructor, MethodHandle members) {
+            super(MethodHandleBackend.class.getClassLoader());
+            this.handles = new MethodHandle[] { constructor, members };
+        }
+
+        Class<?> define(byte[] template) {
+            return defineClass(CONSTANT_FACTORY, template, 0, template.length);
+        }
+
+        @Override
+        public MethodHandle apply(int index) {
+            return handles[index];
+        }
+    }
+
+    static final class MethodHandleBeanFactory<T> implements BeanFactory<T> {
+        private final Supplier<?> supplier;
+        private final MethodHandle constructor;
+        private final MethodHandle members;
+        private final Object[] state;
+
+        MethodHandleBeanFactory(Supplier<?> supplier, MethodHandle constructor, MethodHandle members, Object[] state) {
+            this.supplier = supplier;
+            this.constructor = constructor;
+            this.members = members;
+            this.state = state;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T newInstance() throws Exception {
+            if (supplier != null) {
+                return (T) supplier.get();
+            }
+            try {
+                return (T) (Object) constructor.invokeExact(state);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new NeedleException(e);
+            }
+        }
+
+        @Override
+        public void injectMembers(T bean) {
+            try {
+                members.invokeExact((Object) bean, state);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new NeedleException(e);
+            }
+        }
+    }
+}
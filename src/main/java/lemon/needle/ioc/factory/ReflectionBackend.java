@@ -0,0 +1,90 @@
+package lemon.needle.ioc.factory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.binder.FieldInjector;
+import lemon.needle.ioc.binder.MethodInjector;
+import lemon.needle.util.CommonUtil;
+
+/**
+ * 基于java反射的实现, 也是其他实现无法访问某个成员时的退路
+ */
+final class ReflectionBackend implements FactoryBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReflectionBackend.class);
+
+    @Override
+    public <T> BeanFactory<T> create(InjectionPlan<T> plan) {
+        return new ReflectiveBeanFactory<T>(plan);
+    }
+
+    @Override
+    public <T> Provider<T> provides(final Key<T> key, final Object module, final Method method, final Provider<?>[] params) {
+        return new Provider<T>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public T get() {
+                try {
+                    return (T) method.invoke(module, CommonUtil.params(params));
+                } catch (Exception e) {
+                    throw new NeedleException(String.format("Can't instantiate %s with provider", key.toString()), e);
+                }
+            }
+        };
+    }
+
+    static final class ReflectiveBeanFactory<T> implements BeanFactory<T> {
+        private final Constructor<?> constructor;
+        private final Provider<?>[] constructorProviders;
+        private final FieldInjector[] fieldInjectors;
+        private final MethodInjector[] methodInjectors;
+
+        ReflectiveBeanFactory(InjectionPlan<T> plan) {
+            this.constructor = plan.getConstructor();
+            this.constructorProviders = plan.getConstructorProviders();
+            this.fieldInjectors = plan.getFieldInjectors();
+            this.methodInjectors = plan.getMethodInjectors();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T newInstance() throws Exception {
+            return (T) constructor.newInstance(CommonUtil.params(constructorProviders));
+        }
+
+        @Override
+        public void injectMembers(T bean) {
+            for (int i = 0; i < fieldInjectors.length; i++) {
+                injectField(i, bean);
+            }
+            for (int i = 0; i < methodInjectors.length; i++) {
+                injectMethod(i, bean);
+            }
+        }
+
+        void injectField(int index, Object bean) {
+            try {
+                fieldInjectors[index].applyTo(bean);
+            } catch (Exception e) {
+                logger.error("", e);
+            }
+        }
+
+        void injectMethod(int index, Object bean) {
+            try {
+                methodInjectors[index].applyTo(bean);
+            } catch (Exception e) {
+                logger.error("", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package lemon.needle.ioc.factory;
+
+import java.lang.annotation.Annotation;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+
+/**
+ * needle-processor在编译期为每个可注入的类生成的工厂。
+ * 
+ * 构造函数、字段和方法的依赖在编译期确定, 运行时按声明的顺序传入对应的provider,
+ * 不再扫描类或调用反射。作用域同样在编译期从实现类上读取。
+ *
+ * @param <T>
+ */
+public abstract class StaticFactory<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticFactory.class);
+
+    private final Class<T> type;
+    private final Class<? extends Annotation> scope;
+    private final Dependency[] constructorDependencies;
+    private final Dependency[] memberDependencies;
+
+    protected StaticFactory(Class<T> type, Class<? extends Annotation> scope, Dependency[] constructorDependencies, Dependency[] memberDependencies) {
+        this.type = type;
+        this.scope = scope;
+        this.constructorDependencies = constructorDependencies;
+        this.memberDependencies = memberDependencies;
+    }
+
+    /**
+     * @param constructor 与 {@link #getConstructorDependencies()} 同序
+     */
+    public abstract T newInstance(Provider<?>[] constructor);
+
+    /**
+     * @param members 与 {@link #getMemberDependencies()} 同序
+     */
+    public abstract void injectMembers(T bean, Provider<?>[] members);
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return 实现类上的作用域注解, 没有时为null
+     */
+    public Class<? extends Annotation> getScope() {
+        return scope;
+    }
+
+    /** 类上标注了 {@code @Singleton} */
+    public boolean isSingleton() {
+        return Singleton.class.equals(scope);
+    }
+
+    public Dependency[] getConstructorDependencies() {
+        return constructorDependencies;
+    }
+
+    public Dependency[] getMemberDependencies() {
+        return memberDependencies;
+    }
+
+    /**
+     * 与反射实现一致, 单个成员注入失败只记录日志
+     */
+    protected static void failed(Throwable t, String member, Object bean) {
+        logger.error("", new NeedleException(t, "Unable to inject %s on %s", member, bean.getClass()));
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName();
+    }
+}
@@ -0,0 +1,143 @@
+package lemon.needle.ioc.factory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * 读取needle-processor在编译期生成的索引 {@value #LOCATION}。
+ * 
+ * 每行一条: {@code <kind> <类的binary name> <值>}, kind为:
+ * <ul>
+ * <li>factory: 类 -> {@link StaticFactory}</li>
+ * <li>provides: 模块 -> {@link StaticProvides}</li>
+ * <li>implementedBy: 接口 -> {@code @ImplementedBy}的实现类</li>
+ * <li>providedBy: 类 -> {@code @ProvidedBy}的provider类</li>
+ * </ul>
+ * 
+ * 索引按ClassLoader读取一次, 每个类的查询结果缓存在ClassValue中。没有索引的类返回null, 由调用方走反射。
+ */
+public final class StaticIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(StaticIndex.class);
+
+    public static final String LOCATION = "META-INF/needle/index";
+
+    private static final Map<String, Map<String, String>> EMPTY = Collections.emptyMap();
+
+    /** ClassLoader -> kind -> 类 -> 值 */
+    private static final LoadingCache<ClassLoader, Map<String, Map<String, String>>> indexes = CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<ClassLoader, Map<String, Map<String, String>>>() {
+        @Override
+        public Map<String, Map<String, String>> load(ClassLoader loader) {
+            return read(loader);
+        }
+    });
+
+    private static final ClassValue<Entry> entries = new ClassValue<Entry>() {
+        @Override
+        protected Entry computeValue(Class<?> type) {
+            return new Entry(type);
+        }
+    };
+
+    private StaticIndex() {
+    }
+
+    public static StaticFactory<?> factory(Class<?> type) {
+        return entries.get(type).factory;
+    }
+
+    public static StaticProvides<?> provides(Class<?> moduleType) {
+        return entries.get(moduleType).provides;
+    }
+
+    public static Class<?> implementedBy(Class<?> type) {
+        return entries.get(type).implementedBy;
+    }
+
+    public static Class<?> providedBy(Class<?> type) {
+        return entries.get(type).providedBy;
+    }
+
+    private static Map<String, Map<String, String>> read(ClassLoader loader) {
+        Map<String, Map<String, String>> index = new HashMap<>();
+        try {
+            Enumeration<URL> resources = loader.getResources(LOCATION);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.trim().split("\\s+");
+                        if (parts.length != 3 || parts[0].startsWith("#")) {
+                            continue;
+                        }
+                        Map<String, String> kind = index.get(parts[0]);
+                        if (kind == null) {
+                            kind = new HashMap<>();
+                            index.put(parts[0], kind);
+                        }
+                        kind.put(parts[1], parts[2]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Can't read " + LOCATION, e);
+        }
+        return index;
+    }
+
+    private static final class Entry {
+        final StaticFactory<?> factory;
+        final StaticProvides<?> provides;
+        final Class<?> implementedBy;
+        final Class<?> providedBy;
+
+        Entry(Class<?> type) {
+            Map<String, Map<String, String>> index = type.getClassLoader() != null ? indexes.getUnchecked(type.getClassLoader()) : EMPTY;
+            this.factory = (StaticFactory<?>) instantiate(type, lookup(type, index, "factory"));
+            this.provides = (StaticProvides<?>) instantiate(type, lookup(type, index, "provides"));
+            this.implementedBy = lookup(type, index, "implementedBy");
+            this.providedBy = lookup(type, index, "providedBy");
+        }
+
+        private static Class<?> lookup(Class<?> type, Map<String, Map<String, String>> index, String kind) {
+            Map<String, String> values = index.get(kind);
+            String value = values != null ? values.get(type.getName()) : null;
+            if (value == null) {
+                return null;
+            }
+            try {
+                return Class.forName(value, false, type.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                logger.warn(String.format("Can't load %s %s for %s, falling back to reflection", kind, value, type.getName()), e);
+                return null;
+            }
+        }
+
+        private static Object instantiate(Class<?> type, Class<?> generated) {
+            if (generated == null) {
+                return null;
+            }
+            try {
+                return generated.newInstance();
+            } catch (Exception | LinkageError e) {
+                logger.warn(String.format("Can't instantiate %s for %s, falling back to reflection", generated.getName(), type.getName()), e);
+                return null;
+            }
+        }
+    }
+}
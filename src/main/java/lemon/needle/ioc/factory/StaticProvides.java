@@ -0,0 +1,64 @@
+package lemon.needle.ioc.factory;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * needle-processor在编译期为每个含有 {@code @Provides} 方法的模块生成的调用类,
+ * 包括从父类继承且未被覆盖的方法。
+ *
+ * 每个方法的作用域与反射实现的规则相同: 方法上的 {@code @Scope} 注解, 没有时取返回类型上的。
+ *
+ * @param <M> 模块类型
+ */
+public abstract class StaticProvides<M> {
+
+    private final Key<?>[] keys;
+    private final Class<? extends Annotation>[] scopes;
+    private final Dependency[][] dependencies;
+
+    protected StaticProvides(Key<?>[] keys, Class<? extends Annotation>[] scopes, Dependency[][] dependencies) {
+        this.keys = keys;
+        this.scopes = scopes;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * 调用第method个 {@code @Provides} 方法
+     * @param params 与 {@link #getDependencies(int)} 同序
+     */
+    public abstract Object provide(int method, M module, Provider<?>[] params);
+
+    /**
+     * 第method个 {@code @Provides} 方法本身, 只在绑定有作用域时用来读取作用域注解上的配置
+     */
+    public abstract Method getMethod(int method) throws NoSuchMethodException;
+
+    public int size() {
+        return keys.length;
+    }
+
+    public Key<?> getKey(int method) {
+        return keys[method];
+    }
+
+    /**
+     * @return 方法的作用域注解, 没有时为null
+     */
+    public Class<? extends Annotation> getScope(int method) {
+        return scopes[method];
+    }
+
+    public boolean isSingleton(int method) {
+        return Singleton.class.equals(scopes[method]);
+    }
+
+    public Dependency[] getDependencies(int method) {
+        return dependencies[method];
+    }
+}
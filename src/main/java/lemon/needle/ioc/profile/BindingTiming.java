@@ -0,0 +1,75 @@
+package lemon.needle.ioc.profile;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * 一个绑定在各阶段的累计耗时。
+ * 
+ * self为该绑定自身的耗时, dependency为期间获取其他绑定(嵌套的实例化)的耗时, 单位纳秒。
+ */
+public final class BindingTiming {
+
+    private final Key<?> key;
+    private final LongAdder[] counts = adders();
+    private final LongAdder[] selfNanos = adders();
+    private final LongAdder[] dependencyNanos = adders();
+
+    BindingTiming(Key<?> key) {
+        this.key = key;
+    }
+
+    void record(Phase phase, long self, long dependency) {
+        counts[phase.ordinal()].increment();
+        selfNanos[phase.ordinal()].add(self);
+        dependencyNanos[phase.ordinal()].add(dependency);
+    }
+
+    public Key<?> getKey() {
+        return key;
+    }
+
+    public long getCount(Phase phase) {
+        return counts[phase.ordinal()].sum();
+    }
+
+    public long getSelfNanos(Phase phase) {
+        return selfNanos[phase.ordinal()].sum();
+    }
+
+    public long getDependencyNanos(Phase phase) {
+        return dependencyNanos[phase.ordinal()].sum();
+    }
+
+    /** 所有阶段的self之和 */
+    public long getSelfNanos() {
+        long sum = 0;
+        for (Phase phase : Phase.values()) {
+            sum += getSelfNanos(phase);
+        }
+        return sum;
+    }
+
+    /** 所有阶段的self与dependency之和 */
+    public long getTotalNanos() {
+        long sum = getSelfNanos();
+        for (Phase phase : Phase.values()) {
+            sum += getDependencyNanos(phase);
+        }
+        return sum;
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: self %d us, total %d us", key, getSelfNanos() / 1000, getTotalNanos() / 1000);
+    }
+}
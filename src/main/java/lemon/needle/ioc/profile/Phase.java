@@ -0,0 +1,17 @@
+package lemon.needle.ioc.profile;
+
+/**
+ * 一次实例化中被计时的阶段
+ */
+public enum Phase {
+    /** 调用构造函数, 包括构造参数的获取 */
+    CONSTRUCTION,
+    /** 字段和方法注入 */
+    MEMBERS,
+    /** 调用 {@code @Provides} 方法 */
+    PROVIDES;
+
+    String label() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,182 @@
+package lemon.needle.ioc.profile;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * 记录每个绑定实例化的耗时, 通过 InjectorBuilder.profile(true) 打开。
+ * 
+ * 每个线程维护一个帧栈: 实例化A时获取B, B的帧压在A的帧上, B的耗时计入A的dependency而不是self。
+ * 结果可以按绑定查询, 也可以导出为JSON或者flame graph使用的collapsed stack格式。
+ *
+ * <pre>
+ * Frame frame = profiler.enter(key, Phase.CONSTRUCTION);
+ * try {
+ *     ...
+ * } finally {
+ *     profiler.exit(frame);
+ * }
+ * </pre>
+ */
+public final class Profiler {
+
+    private final ThreadLocal<Frame> current = new ThreadLocal<>();
+
+    private final ConcurrentMap<Key<?>, BindingTiming> timings = new ConcurrentHashMap<>();
+
+    /** collapsed stack -> self纳秒 */
+    private final ConcurrentMap<String, LongAdder> stacks = new ConcurrentHashMap<>();
+
+    public Frame enter(Key<?> key, Phase phase) {
+        Frame frame = new Frame(key, phase, current.get());
+        current.set(frame);
+        frame.start = System.nanoTime();
+        return frame;
+    }
+
+    public void exit(Frame frame) {
+        long elapsed = System.nanoTime() - frame.start;
+        current.set(frame.parent);
+        if (frame.parent != null) {
+            frame.parent.children += elapsed;
+        }
+        long self = elapsed - frame.children;
+        timing(frame.key).record(frame.phase, self, frame.children);
+        stack(frame).add(self);
+    }
+
+    /**
+     * @return 所有绑定的耗时, 按total从大到小
+     */
+    public List<BindingTiming> getTimings() {
+        List<BindingTiming> sorted = new ArrayList<>(timings.values());
+        Collections.sort(sorted, new Comparator<BindingTiming>() {
+            @Override
+            public int compare(BindingTiming a, BindingTiming b) {
+                return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+            }
+        });
+        return sorted;
+    }
+
+    public BindingTiming getTiming(Key<?> key) {
+        return timings.get(key);
+    }
+
+    public void reset() {
+        timings.clear();
+        stacks.clear();
+    }
+
+    /**
+     * 每个绑定一个对象, 时间单位微秒
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("[");
+        boolean first = true;
+        for (BindingTiming timing : getTimings()) {
+            out.write(first ? "\n" : ",\n");
+            first = false;
+            out.write("  {\"key\": ");
+            out.write(quote(timing.getKey().toString()));
+            out.write(", \"selfMicros\": " + timing.getSelfNanos() / 1000);
+            out.write(", \"totalMicros\": " + timing.getTotalNanos() / 1000);
+            for (Phase phase : Phase.values()) {
+                if (timing.getCount(phase) == 0) {
+                    continue;
+                }
+                out.write(", \"" + phase.label() + "\": {\"count\": " + timing.getCount(phase));
+                out.write(", \"selfMicros\": " + timing.getSelfNanos(phase) / 1000);
+                out.write(", \"dependencyMicros\": " + timing.getDependencyNanos(phase) / 1000 + "}");
+            }
+            out.write("}");
+        }
+        out.write("\n]\n");
+        out.flush();
+    }
+
+    /**
+     * 每行 {@code 帧;帧;帧 self微秒}, 可以直接交给 flamegraph.pl 等工具
+     */
+    public void writeCollapsedStacks(Writer out) throws IOException {
+        for (Map.Entry<String, LongAdder> entry : stacks.entrySet()) {
+            long micros = entry.getValue().sum() / 1000;
+            if (micros > 0) {
+                out.write(entry.getKey() + " " + micros + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    private BindingTiming timing(Key<?> key) {
+        BindingTiming timing = timings.get(key);
+        if (timing == null) {
+            BindingTiming created = new BindingTiming(key);
+            timing = timings.putIfAbsent(key, created);
+            if (timing == null) {
+                timing = created;
+            }
+        }
+        return timing;
+    }
+
+    private LongAdder stack(Frame frame) {
+        StringBuilder path = new StringBuilder();
+        for (Frame f = frame; f != null; f = f.parent) {
+            String name = f.key.toString().replace(';', '_').replace(' ', '_') + "[" + f.phase.label() + "]";
+            path.insert(0, path.length() == 0 ? name : name + ";");
+        }
+        String key = path.toString();
+        LongAdder adder = stacks.get(key);
+        if (adder == null) {
+            LongAdder created = new LongAdder();
+            adder = stacks.putIfAbsent(key, created);
+            if (adder == null) {
+                adder = created;
+            }
+        }
+        return adder;
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * 一次进入某个绑定的某个阶段
+     */
+    public static final class Frame {
+        final Key<?> key;
+        final Phase phase;
+        final Frame parent;
+        long start;
+        /** 嵌套帧的总耗时 */
+        long children;
+
+        Frame(Key<?> key, Phase phase, Frame parent) {
+            this.key = key;
+            this.phase = phase;
+            this.parent = parent;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package lemon.needle.ioc.provider;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import javax.inject.Provider;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * {@code @Provides @Async} 方法的provider: 在线程池上只调用一次, 结果由所有注入点共享。
+ * get()等待调用完成; 还没有开始时直接在当前线程上调用, 不会等待一个永远不会执行的任务
+ */
+public class AsyncProvider<T> implements Provider<T> {
+
+    private final Key<T> key;
+    private final Provider<T> provider;
+    private final Executor executor;
+    private final CompletableFuture<T> future = new CompletableFuture<T>();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    public AsyncProvider(Key<T> key, Provider<T> provider, Executor executor) {
+        this.key = key;
+        this.provider = provider;
+        this.executor = executor;
+    }
+
+    /**
+     * 提交到线程池, 已经开始时什么也不做
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return 调用结果; 每次返回一个新的依赖阶段, 调用方取消或完成它不影响其他注入点
+     */
+    public CompletableFuture<T> future() {
+        start();
+        return future.thenApply(Function.<T> identity());
+    }
+
+    @Override
+    public T get() {
+        if (started.compareAndSet(false, true)) {
+            complete();
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NeedleException(e.getCause(), "@Async provider of %s failed", key);
+        }
+    }
+
+    private void complete() {
+        try {
+            future.complete(provider.get());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncProvider->" + provider.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package lemon.needle.ioc.provider;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+
+import javax.inject.Provider;
+
+import lemon.needle.exception.NeedleException;
+
+/**
+ * {@link lemon.needle.ioc.annotations.Deferred} 注入的接口代理: 第一次调用接口方法时才从provider取得实例。
+ * 代理类的构造函数按接口缓存, 每次注入只分配代理和handler。
+ * equals/hashCode 按代理本身回答, 实例创建前的toString也不会触发创建
+ */
+public final class DeferredProxy {
+
+    private static final ClassValue<Constructor<?>> constructors = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                //非public接口的代理类同样非public, 构造函数需要设为可访问
+                Constructor<?> constructor = Proxy.getProxyClass(type.getClassLoader(), type).getConstructor(InvocationHandler.class);
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (NoSuchMethodException e) {
+                throw new NeedleException(e);
+            }
+        }
+    };
+
+    private DeferredProxy() {
+    }
+
+    /**
+     * @param type 接口类型
+     */
+    public static <T> T create(Class<T> type, Provider<? extends T> provider) {
+        if (!type.isInterface()) {
+            throw new NeedleException("@Deferred requires an interface type, but got %s", type.getName());
+        }
+        try {
+            return type.cast(constructors.get(type).newInstance(new Handler<T>(type, provider)));
+        } catch (ReflectiveOperationException e) {
+            throw new NeedleException(e, "Unable to create deferred proxy for %s", type.getName());
+        }
+    }
+
+    static final class Handler<T> implements InvocationHandler {
+        private final Class<T> type;
+        private final MemoizedLazy<T> target;
+        private volatile boolean created;
+
+        Handler(Class<T> type, Provider<? extends T> provider) {
+            this.type = type;
+            this.target = new MemoizedLazy<T>(provider);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    if (!created) {
+                        return "Deferred<" + type.getName() + ">";
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+            T instance = target.get();
+            created = true;
+            //代理类中的Method是共享的静态字段, 设置一次即可
+            if (!method.isAccessible() && !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                method.setAccessible(true);
+            }
+            try {
+                return method.invoke(instance, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
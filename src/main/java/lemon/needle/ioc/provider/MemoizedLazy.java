@@ -0,0 +1,38 @@
+package lemon.needle.ioc.provider;
+
+import javax.inject.Provider;
+
+import lemon.needle.ioc.Lazy;
+
+/**
+ * 第一次get()时从provider取得实例并记住
+ */
+public class MemoizedLazy<T> implements Lazy<T> {
+
+    private final Provider<? extends T> provider;
+    private volatile T instance;
+
+    public MemoizedLazy(Provider<? extends T> provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public T get() {
+        T current = instance;
+        if (current == null) {
+            synchronized (this) {
+                current = instance;
+                if (current == null) {
+                    current = provider.get();
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return instance != null ? "Lazy[" + instance + "]" : "Lazy[" + provider + "]";
+    }
+}
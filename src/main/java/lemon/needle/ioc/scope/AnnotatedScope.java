@@ -0,0 +1,21 @@
+package lemon.needle.ioc.scope;
+
+import java.lang.annotation.Annotation;
+
+import javax.inject.Provider;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * 需要读取作用域注解参数的作用域, 如 {@link Pooled#max()}。
+ * injector在编译绑定时从 {@code @Provides} 方法或类上取得注解实例传入
+ *
+ * @param <A> 作用域注解
+ */
+public interface AnnotatedScope<A extends Annotation> extends Scope {
+
+    /**
+     * @param config 绑定上的作用域注解, 通过 {@link lemon.needle.ioc.binder.Binder#in(Class)} 指定而类上没有注解时为null
+     */
+    <T> Provider<T> scope(Key<T> key, Provider<T> unscoped, A config);
+}
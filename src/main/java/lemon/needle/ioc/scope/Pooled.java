@@ -0,0 +1,32 @@
+package lemon.needle.ioc.scope;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.inject.Scope;
+
+/**
+ * 从有界对象池中借出实例, 用于创建开销大、使用时间短的原型bean
+ *
+ * @see PooledScope
+ */
+@Scope
+@Documented
+@Retention(RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Pooled {
+
+    /**
+     * 同时借出和空闲的实例总数上限
+     */
+    int max() default 8;
+
+    /**
+     * 池已借空时等待归还的最长时间, 超时抛出异常
+     */
+    long timeoutMillis() default 30000;
+}
@@ -0,0 +1,395 @@
+package lemon.needle.ioc.scope;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * {@link Pooled} 绑定的作用域: 每个绑定一个有界对象池。
+ *
+ * <pre>
+ * &#64;Inject Provider&lt;Parser&gt; parsers;
+ *
+ * try (Lease&lt;Parser&gt; lease = PooledScope.lease(parsers)) {
+ *     lease.get().parse(...);
+ * }
+ * </pre>
+ *
+ * provider.get()借出一个实例, 需要通过 {@link Pool#release(Object)} 或 {@link Lease#close()} 归还。
+ *
+ * 空闲实例放在定长的AtomicReferenceArray中, 借出和归还都只是CAS; 借出数量由Semaphore限制在max以内。
+ * 借出的实例按引用记录在另一个定长数组中, 归还不是从这个池借出的实例或重复归还时抛出 {@link NeedleException}。
+ * 直接注入的实例无法归还, 因此池化的绑定只能以Provider注入: 注入实例的字段、构造参数、Lazy和injector.instance()在绑定时就会失败。
+ * 归还时先执行重置: 实现了 {@link Resettable} 的bean调用reset(), 再调用 {@link #onReset(Key, Consumer)} 注册的回调;
+ * 重置失败的实例直接丢弃。
+ *
+ * 每个injector一个PooledScope, 子injector自己的绑定使用自己的池, 不会替换父injector同一个key的池;
+ * {@link #pool(Key)} 在自己的池中找不到时到父injector中查找。重置回调在整个injector树中按key共用。
+ */
+public class PooledScope implements AnnotatedScope<Pooled> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledScope.class);
+
+    private final PooledScope parent;
+
+    private final ConcurrentMap<Key<?>, Pool<?>> pools = new ConcurrentHashMap<Key<?>, Pool<?>>();
+
+    private final ConcurrentMap<Key<?>, Consumer<?>> resets;
+
+    public PooledScope() {
+        this(null);
+    }
+
+    /**
+     * @param parent 父injector的PooledScope, 为null时是根injector
+     */
+    public PooledScope(PooledScope parent) {
+        this.parent = parent;
+        this.resets = parent != null ? parent.resets : new ConcurrentHashMap<Key<?>, Consumer<?>>();
+    }
+
+    /**
+     * 使用 {@link Pooled} 的默认配置
+     */
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
+        return scope(key, provider, null);
+    }
+
+    /**
+     * @param config 绑定上的 {@link Pooled}, 为null时使用默认配置
+     */
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider, Pooled config) {
+        int max = config != null ? config.max() : Defaults.INSTANCE.max();
+        long timeoutMillis = config != null ? config.timeoutMillis() : Defaults.INSTANCE.timeoutMillis();
+        if (max <= 0) {
+            throw new NeedleException("@Pooled max must be positive: %s", key);
+        }
+        Pool<T> pool = new Pool<T>(key, provider, max, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), resets);
+        pools.put(key, pool);
+        return new PooledProvider<T>(pool);
+    }
+
+    /**
+     * 注册归还时的重置回调, 对父injector和子injector中这个key的池同样有效
+     */
+    public <T> void onReset(Key<T> key, Consumer<? super T> reset) {
+        resets.put(key, reset);
+    }
+
+    /**
+     * @return key 绑定的池, 用于归还实例和查询统计; 这个injector没有时到父injector中找, 都没有时为null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Pool<T> pool(Key<T> key) {
+        Pool<T> pool = (Pool<T>) pools.get(key);
+        return pool != null || parent == null ? pool : parent.pool(key);
+    }
+
+    /**
+     * 从池化绑定的provider中借出一个实例
+     * @throws NeedleException provider不是池化的
+     */
+    public static <T> Lease<T> lease(Provider<T> provider) {
+        if (!(provider instanceof PooledProvider)) {
+            throw new NeedleException("%s is not a pooled provider", provider);
+        }
+        return ((PooledProvider<T>) provider).pool.lease();
+    }
+
+    /**
+     * @return provider是否是池化绑定的provider
+     */
+    public static boolean isPooled(Provider<?> provider) {
+        return provider instanceof PooledProvider;
+    }
+
+    @Override
+    public String toString() {
+        return "Scopes.POOLED";
+    }
+
+    /**
+     * 归还到池中时需要清理状态的bean
+     */
+    public interface Resettable {
+        void reset();
+    }
+
+    static final class PooledProvider<T> implements Provider<T> {
+        final Pool<T> pool;
+
+        PooledProvider(Pool<T> pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public T get() {
+            return pool.borrow();
+        }
+
+        @Override
+        public String toString() {
+            return "PooledProvider->" + pool.provider.toString();
+        }
+    }
+
+    /**
+     * 一个绑定的对象池
+     */
+    public static final class Pool<T> {
+        private final Key<T> key;
+        private final Provider<T> provider;
+        private final int max;
+        private final long timeoutNanos;
+        private final Semaphore permits;
+        private final AtomicReferenceArray<T> idle;
+        private final AtomicReferenceArray<T> lent;
+        private final ConcurrentMap<Key<?>, Consumer<?>> resets;
+
+        private final LongAdder borrows = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder creations = new LongAdder();
+        private final LongAdder waits = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder discards = new LongAdder();
+
+        Pool(Key<T> key, Provider<T> provider, int max, long timeoutNanos, ConcurrentMap<Key<?>, Consumer<?>> resets) {
+            this.key = key;
+            this.provider = provider;
+            this.max = max;
+            this.timeoutNanos = timeoutNanos;
+            this.permits = new Semaphore(max);
+            this.idle = new AtomicReferenceArray<T>(max);
+            this.lent = new AtomicReferenceArray<T>(max);
+            this.resets = resets;
+        }
+
+        /**
+         * 借出一个实例: 优先复用空闲的, 没有时新建; 已借出max个时等待归还
+         */
+        public T borrow() {
+            acquire();
+            try {
+                borrows.increment();
+                T instance = poll();
+                if (instance != null) {
+                    hits.increment();
+                } else {
+                    creations.increment();
+                    instance = provider.get();
+                }
+                lend(instance);
+                return instance;
+            } catch (RuntimeException | Error e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * @return 借出一个实例, close()时归还
+         */
+        public Lease<T> lease() {
+            return new Lease<T>(this, borrow());
+        }
+
+        /**
+         * 归还 borrow() 借出的实例
+         * @throws NeedleException instance不是这个池借出的, 或已经归还过
+         */
+        public void release(T instance) {
+            if (!giveBack(instance)) {
+                throw new NeedleException("%s was not borrowed from the pool of %s or has already been released", instance, key);
+            }
+            try {
+                if (instance instanceof Resettable) {
+                    ((Resettable) instance).reset();
+                }
+                Consumer<? super T> current = reset();
+                if (current != null) {
+                    current.accept(instance);
+                }
+                if (!offer(instance)) {
+                    discards.increment();
+                }
+            } catch (RuntimeException e) {
+                discards.increment();
+                logger.error(String.format("Failed to reset pooled %s, discarding it", key), e);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Consumer<? super T> reset() {
+            //onReset按key登记, 回调的类型与key一致
+            return (Consumer<? super T>) resets.get(key);
+        }
+
+        private void acquire() {
+            if (permits.tryAcquire()) {
+                return;
+            }
+            waits.increment();
+            long begin = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NeedleException(e, "Interrupted while waiting for pooled %s", key);
+            } finally {
+                waitNanos.add(System.nanoTime() - begin);
+            }
+            if (!acquired) {
+                throw new NeedleException("Timed out waiting for pooled %s, all %d instances are in use", key, max);
+            }
+        }
+
+        //借出的实例不超过max个, 总能找到空位
+        private void lend(T instance) {
+            for (int i = 0;; i = (i + 1) % max) {
+                if (lent.get(i) == null && lent.compareAndSet(i, null, instance)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean giveBack(T instance) {
+            for (int i = 0; i < max; i++) {
+                if (lent.get(i) == instance && lent.compareAndSet(i, instance, null)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private T poll() {
+            for (int i = 0; i < max; i++) {
+                T instance = idle.get(i);
+                if (instance != null && idle.compareAndSet(i, instance, null)) {
+                    return instance;
+                }
+            }
+            return null;
+        }
+
+        private boolean offer(T instance) {
+            for (int i = 0; i < max; i++) {
+                if (idle.get(i) == null && idle.compareAndSet(i, null, instance)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Key<T> getKey() {
+            return key;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public long getBorrowCount() {
+            return borrows.sum();
+        }
+
+        /**
+         * @return 复用空闲实例的借出次数
+         */
+        public long getHitCount() {
+            return hits.sum();
+        }
+
+        public double getHitRate() {
+            long borrowed = borrows.sum();
+            return borrowed == 0 ? 1.0 : (double) hits.sum() / borrowed;
+        }
+
+        public long getCreationCount() {
+            return creations.sum();
+        }
+
+        /**
+         * @return 因池已借空而等待的次数
+         */
+        public long getWaitCount() {
+            return waits.sum();
+        }
+
+        public long getTotalWaitNanos() {
+            return waitNanos.sum();
+        }
+
+        /**
+         * @return 重置失败而丢弃的实例数
+         */
+        public long getDiscardCount() {
+            return discards.sum();
+        }
+
+        public int getIdleCount() {
+            int count = 0;
+            for (int i = 0; i < max; i++) {
+                if (idle.get(i) != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Pool for %s: max %d, borrowed %d, hit rate %.2f, created %d, waited %d (%d ms)", key, max, getBorrowCount(), getHitRate(), getCreationCount(), getWaitCount(), TimeUnit.NANOSECONDS.toMillis(getTotalWaitNanos()));
+        }
+    }
+
+    /**
+     * 借出的一个实例, close()时归还到池中
+     */
+    public static final class Lease<T> implements AutoCloseable {
+        private final Pool<T> pool;
+        private T instance;
+
+        Lease(Pool<T> pool, T instance) {
+            this.pool = pool;
+            this.instance = instance;
+        }
+
+        public T get() {
+            if (instance == null) {
+                throw new NeedleException("Lease of %s has been closed", pool.key);
+            }
+            return instance;
+        }
+
+        @Override
+        public void close() {
+            T current = instance;
+            if (current != null) {
+                instance = null;
+                pool.release(current);
+            }
+        }
+    }
+
+    @Pooled
+    private static final class Defaults {
+        static final Pooled INSTANCE = Defaults.class.getAnnotation(Pooled.class);
+    }
+}
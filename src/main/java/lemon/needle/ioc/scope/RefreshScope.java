@@ -0,0 +1,250 @@
+package lemon.needle.ioc.scope;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * {@link Refreshable} 绑定的作用域: 第一次get()时像单例一样创建, 之后在后台线程上按period重建。
+ *
+ * 重建完成后写入volatile字段替换旧实例, 读取只是一次volatile读, 不会阻塞, 也不会看到构建到一半的实例;
+ * 重建失败时保留旧实例并记录失败次数。旧实例不会被关闭, 仍持有它的调用方可以继续使用。
+ *
+ * 第一次创建复用 {@link SingletonScope}, 同样能发现依赖环; 每个injector一个, 默认所有injector共用一个后台线程。
+ * 重建依次在这个线程上执行, 一次慢的重建会推迟所有其他绑定的重建; 重建耗时较长时用
+ * {@link #RefreshScope(SingletonScope, ScheduledExecutorService)} 传入单独的线程池。
+ *
+ * 后台任务只弱引用 {@link RefreshProvider}: injector不再被引用时它的对象图可以被回收, 任务在下一次执行时取消自己,
+ * 不需要调用 {@link #shutdown()}。
+ */
+public class RefreshScope implements AnnotatedScope<Refreshable> {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshScope.class);
+
+    private final SingletonScope singletons;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<Key<?>, RefreshProvider<?>> providers = new ConcurrentHashMap<Key<?>, RefreshProvider<?>>();
+
+    public RefreshScope(SingletonScope singletons) {
+        this(singletons, DefaultScheduler.INSTANCE);
+    }
+
+    public RefreshScope(SingletonScope singletons, ScheduledExecutorService scheduler) {
+        this.singletons = singletons;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
+        return scope(key, provider, null);
+    }
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider, Refreshable config) {
+        if (config == null) {
+            throw new NeedleException("%s requires @Refreshable(period) on its class or @Provides method", key);
+        }
+        long periodNanos = config.unit().toNanos(config.period());
+        if (periodNanos <= 0) {
+            throw new NeedleException("@Refreshable period must be positive: %s", key);
+        }
+        RefreshProvider<T> refresh = new RefreshProvider<T>(key, provider, singletons.scope(key, provider), periodNanos);
+        providers.put(key, refresh);
+        return refresh;
+    }
+
+    /**
+     * @return key 绑定的provider, 用于立即重建和查询统计; 没有时为null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RefreshProvider<T> provider(Key<T> key) {
+        return (RefreshProvider<T>) providers.get(key);
+    }
+
+    /**
+     * 停止这个作用域中所有绑定的后台重建, 已创建的实例保持不变
+     */
+    public void shutdown() {
+        for (RefreshProvider<?> provider : providers.values()) {
+            provider.cancel();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Scopes.REFRESH";
+    }
+
+    /**
+     * 一个可刷新绑定的provider和它的统计
+     */
+    public final class RefreshProvider<T> implements Provider<T> {
+        private final Key<T> key;
+        private final Provider<T> provider;
+        private final Provider<T> initial;
+        private final long periodNanos;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile T instance;
+        private volatile ScheduledFuture<?> schedule;
+
+        //当前实例构建完成的时间, 用于计算陈旧度
+        private volatile long builtAt;
+        private volatile long lastDurationNanos;
+        private volatile Throwable lastFailure;
+        private final LongAdder refreshes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        RefreshProvider(Key<T> key, Provider<T> provider, Provider<T> initial, long periodNanos) {
+            this.key = key;
+            this.provider = provider;
+            this.initial = initial;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public T get() {
+            T current = instance;
+            if (current != null) {
+                return current;
+            }
+            long begin = System.nanoTime();
+            current = initial.get();
+            if (started.compareAndSet(false, true)) {
+                builtAt = System.nanoTime();
+                lastDurationNanos = builtAt - begin;
+                instance = current;
+                RefreshTask task = new RefreshTask(this);
+                task.future = scheduler.scheduleWithFixedDelay(task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+                schedule = task.future;
+            }
+            return current;
+        }
+
+        /**
+         * 立即在当前线程上重建一次
+         * @return 是否成功, 失败时保留原来的实例
+         */
+        public boolean refresh() {
+            long begin = System.nanoTime();
+            try {
+                T next = provider.get();
+                if (next == null) {
+                    throw new NeedleException("Provider of %s returned null", key);
+                }
+                long end = System.nanoTime();
+                instance = next;
+                builtAt = end;
+                lastDurationNanos = end - begin;
+                refreshes.increment();
+                return true;
+            } catch (RuntimeException | Error e) {
+                //后台任务抛出异常会取消之后的调度, 这里只记录
+                failures.increment();
+                lastFailure = e;
+                logger.error(String.format("Failed to refresh %s, keeping the previous instance", key), e);
+                return false;
+            }
+        }
+
+        void cancel() {
+            ScheduledFuture<?> current = schedule;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+
+        public Key<T> getKey() {
+            return key;
+        }
+
+        /**
+         * @return 成功重建的次数, 不含第一次创建
+         */
+        public long getRefreshCount() {
+            return refreshes.sum();
+        }
+
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        /**
+         * @return 最近一次失败的原因, 没有失败过时为null
+         */
+        public Throwable getLastFailure() {
+            return lastFailure;
+        }
+
+        /**
+         * @return 最近一次成功构建的耗时
+         */
+        public long getLastDurationNanos() {
+            return lastDurationNanos;
+        }
+
+        /**
+         * @return 当前实例构建完成至今的时间; 还没有创建时为0
+         */
+        public long getStalenessNanos() {
+            return instance != null ? System.nanoTime() - builtAt : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "RefreshProvider->" + provider.toString();
+        }
+    }
+
+    /**
+     * 调度线程的队列是GC root, 这里不能持有RefreshProvider(和通过它的整个injector)的强引用
+     */
+    private static final class RefreshTask implements Runnable {
+        private final WeakReference<RefreshProvider<?>> provider;
+        volatile ScheduledFuture<?> future;
+
+        RefreshTask(RefreshProvider<?> provider) {
+            this.provider = new WeakReference<RefreshProvider<?>>(provider);
+        }
+
+        @Override
+        public void run() {
+            RefreshProvider<?> current = provider.get();
+            if (current != null) {
+                current.refresh();
+                return;
+            }
+            //provider已被回收; future在调度之后才赋值, 但provider在那之前一直可达
+            ScheduledFuture<?> self = future;
+            if (self != null) {
+                self.cancel(false);
+            }
+        }
+    }
+
+    private static final class DefaultScheduler {
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("needle-refresh-%d").setDaemon(true).build());
+            //取消的任务立即移出队列
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
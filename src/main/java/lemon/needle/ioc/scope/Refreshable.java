@@ -0,0 +1,30 @@
+package lemon.needle.ioc.scope;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Scope;
+
+/**
+ * 定期在后台重建的单例, 用于由缓慢变化的数据构建的bean(路由表、配置等)
+ *
+ * @see RefreshScope
+ */
+@Scope
+@Documented
+@Retention(RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Refreshable {
+
+    /**
+     * 上一次重建结束到下一次开始的间隔
+     */
+    long period();
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
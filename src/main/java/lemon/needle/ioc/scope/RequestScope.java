@@ -0,0 +1,267 @@
+package lemon.needle.ioc.scope;
+
+import java.lang.annotation.Annotation;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.inject.Provider;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * 每个请求一个实例。
+ *
+ * <pre>
+ * RequestScope request = injector.getRequestScope();
+ * request.enter();
+ * try {
+ *     ...
+ * } finally {
+ *     request.exit();
+ * }
+ * </pre>
+ *
+ * 每个请求作用域的key在第一次绑定时分配一个连续的槽位, 请求中的bean存放在当前线程的数组(arena)中, 按槽位直接存取。
+ * 子injector共用父injector的RequestScope, 同一个key再次绑定时沿用原来的槽位, arena的大小只与key的个数有关。
+ * 同一个请求中同一个key的不同绑定(例如子injector的覆盖)各自一个实例: 槽位记录存入bean的绑定, 其他绑定的bean另存。
+ * exit()时只清空用到的槽位, arena留给该线程的下一个请求复用, 每个请求不再分配新的map。
+ * 通过 {@link ScopePropagation} 传递到其他线程时, 这些线程共用同一个arena; 被传递过的arena在exit()后不再复用,
+ * 请求结束后仍在运行的任务只会看到已结束的请求, 不会拿到同一线程下一个请求的bean。
+ *
+ * @see RequestScoped
+ * @see lemon.needle.ioc.annotations.RequestScoped
+ */
+public class RequestScope implements Scope {
+
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final ConcurrentMap<Key<?>, Integer> keySlots = new ConcurrentHashMap<Key<?>, Integer>();
+
+    private final ThreadLocal<Arena> arenas = new ThreadLocal<Arena>() {
+        @Override
+        protected Arena initialValue() {
+            return new Arena();
+        }
+    };
+
+    /**
+     * 当前线程开始一个请求
+     */
+    public void enter() {
+        Arena arena = arenas.get();
+        if (arena.active) {
+            throw new NeedleException("Request scope is already active on %s", Thread.currentThread().getName());
+        }
+        arena.active = true;
+    }
+
+    /**
+     * @return 当前线程的arena, 不在请求中时为null
+     */
+    Arena current() {
+        Arena arena = arenas.get();
+        return arena.active ? arena : null;
+    }
+
+    /**
+     * @return 当前线程的arena, 并标记为已传递; 不在请求中时为null
+     */
+    Arena capture() {
+        Arena arena = current();
+        if (arena != null) {
+            arena.shared = true;
+        }
+        return arena;
+    }
+
+    /**
+     * 把当前线程的arena换成 arena, 为null时不在请求中
+     * @return 原来的arena
+     */
+    Arena swap(Arena arena) {
+        Arena previous = arenas.get();
+        if (arena != null) {
+            arenas.set(arena);
+        } else {
+            arenas.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * 当前线程结束请求, 丢弃请求中创建的所有bean
+     */
+    public void exit() {
+        Arena arena = arenas.get();
+        if (!arena.active) {
+            throw new NeedleException("Request scope is not active on %s", Thread.currentThread().getName());
+        }
+        arena.clear();
+        if (arena.shared) {
+            //其他线程上的任务可能还持有它, 下一个请求换一个新的arena
+            arenas.remove();
+        }
+    }
+
+    /**
+     * @return 当前线程是否在请求中
+     */
+    public boolean isActive() {
+        return arenas.get().active;
+    }
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
+        return new RequestProvider<T>(key, provider, slot(key));
+    }
+
+    private int slot(Key<?> key) {
+        Integer slot = keySlots.get(key);
+        if (slot == null) {
+            synchronized (keySlots) {
+                slot = keySlots.get(key);
+                if (slot == null) {
+                    slot = slots.getAndIncrement();
+                    keySlots.put(key, slot);
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return scope是否是请求作用域的注解
+     */
+    public static boolean isRequestScoped(Class<? extends Annotation> scope) {
+        return RequestScoped.class.equals(scope) || lemon.needle.ioc.annotations.RequestScoped.class.equals(scope);
+    }
+
+    @Override
+    public String toString() {
+        return "Scopes.REQUEST";
+    }
+
+    final class RequestProvider<T> implements Provider<T> {
+        private final Key<T> key;
+        private final Provider<T> provider;
+        private final int slot;
+
+        RequestProvider(Key<T> key, Provider<T> provider, int slot) {
+            this.key = key;
+            this.provider = provider;
+            this.slot = slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+            Arena arena = arenas.get();
+            if (!arena.active) {
+                throw new NeedleException("Cannot access %s outside of a request scope", key);
+            }
+            Object bean = arena.get(slot, this);
+            if (bean != null) {
+                return (T) bean;
+            }
+            //arena可能被传递到多个线程, 同一个请求中只创建一次
+            synchronized (arena) {
+                if (!arena.active) {
+                    throw new NeedleException("Cannot access %s after the request has ended", key);
+                }
+                bean = arena.get(slot, this);
+                if (bean == null) {
+                    bean = provider.get();
+                    arena.put(slot, this, bean);
+                }
+            }
+            return (T) bean;
+        }
+
+        @Override
+        public String toString() {
+            return "RequestProvider->" + provider.toString();
+        }
+    }
+
+    /**
+     * 一个请求中请求作用域bean的存储, 按槽位索引。读不加锁, 写由arena的锁保护
+     */
+    static final class Arena {
+        private volatile AtomicReferenceArray<Entry> beans = new AtomicReferenceArray<Entry>(16);
+        //槽位已被同一个key的另一个绑定占用时, 按绑定存放
+        private Map<Object, Object> others;
+        //用到的最大槽位 + 1, exit时只清空这一段
+        private int used;
+        //每次exit加一, 用于发现请求结束后才执行的任务
+        private volatile int generation;
+        volatile boolean active;
+        //被 ScopePropagation 捕获过, exit后不再复用
+        volatile boolean shared;
+
+        Object get(int slot, Object owner) {
+            AtomicReferenceArray<Entry> current = beans;
+            Entry entry = slot < current.length() ? current.get(slot) : null;
+            if (entry == null) {
+                return null;
+            }
+            return entry.owner == owner ? entry.bean : other(owner);
+        }
+
+        private synchronized Object other(Object owner) {
+            return others != null ? others.get(owner) : null;
+        }
+
+        void put(int slot, Object owner, Object bean) {
+            AtomicReferenceArray<Entry> current = beans;
+            if (slot < current.length() && current.get(slot) != null) {
+                if (others == null) {
+                    others = new IdentityHashMap<Object, Object>();
+                }
+                others.put(owner, bean);
+                return;
+            }
+            if (slot >= current.length()) {
+                AtomicReferenceArray<Entry> grown = new AtomicReferenceArray<Entry>(Math.max(current.length() << 1, slot + 1));
+                for (int i = 0; i < used; i++) {
+                    grown.set(i, current.get(i));
+                }
+                current = grown;
+            }
+            current.set(slot, new Entry(owner, bean));
+            beans = current;
+            if (slot >= used) {
+                used = slot + 1;
+            }
+        }
+
+        int generation() {
+            return generation;
+        }
+
+        synchronized void clear() {
+            AtomicReferenceArray<Entry> current = beans;
+            for (int i = 0; i < used; i++) {
+                current.set(i, null);
+            }
+            used = 0;
+            others = null;
+            active = false;
+            generation++;
+        }
+
+        private static final class Entry {
+            final Object owner;
+            final Object bean;
+
+            Entry(Object owner, Object bean) {
+                this.owner = owner;
+                this.bean = bean;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package lemon.needle.ioc.scope;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.scope.RequestScope.Arena;
+import lemon.needle.ioc.scope.SessionScope.Session;
+
+/**
+ * 某一时刻线程上的请求和会话作用域, 由 {@link ScopePropagation#capture()} 获得。
+ *
+ * <pre>
+ * ScopeContext context = propagation.capture();
+ * // 在另一个线程上
+ * ScopeContext previous = context.attach();
+ * try {
+ *     ...
+ * } finally {
+ *     previous.attach();
+ * }
+ * </pre>
+ *
+ * 只保存arena和会话的引用, 不复制其中的bean: 各线程看到的是同一批实例。
+ * 请求结束(exit)后再attach会抛出异常: 被capture过的arena在exit时清空并退役, 原线程的下一个请求换用新的arena,
+ * 还持有它的任务不会看到下一个请求的bean。
+ */
+public final class ScopeContext {
+
+    private final RequestScope requestScope;
+    private final Arena arena;
+    private final int generation;
+    private final SessionScope sessionScope;
+    private final Session session;
+
+    ScopeContext(RequestScope requestScope, Arena arena, SessionScope sessionScope, Session session) {
+        this.requestScope = requestScope;
+        this.arena = arena;
+        this.generation = arena != null ? arena.generation() : 0;
+        this.sessionScope = sessionScope;
+        this.session = session;
+    }
+
+    /**
+     * @return 既不在请求中也不在会话中
+     */
+    public boolean isEmpty() {
+        return arena == null && session == null;
+    }
+
+    /**
+     * 在当前线程上恢复这个上下文
+     * @return 当前线程原来的上下文, 用完后attach它以还原
+     */
+    public ScopeContext attach() {
+        if (arena != null && arena.generation() != generation) {
+            throw new NeedleException("Request scope has ended before the task ran on %s", Thread.currentThread().getName());
+        }
+        Arena previousArena = requestScope.swap(arena);
+        Session previousSession = sessionScope.swap(session);
+        return new ScopeContext(requestScope, previousArena, sessionScope, previousSession);
+    }
+
+    /**
+     * @return 在这个上下文中执行的task; 上下文为空时返回task本身
+     */
+    public Runnable wrap(final Runnable task) {
+        if (isEmpty()) {
+            return task;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                ScopeContext previous = attach();
+                try {
+                    task.run();
+                } finally {
+                    previous.attach();
+                }
+            }
+        };
+    }
+
+    public <V> Callable<V> wrap(final Callable<V> task) {
+        if (isEmpty()) {
+            return task;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                ScopeContext previous = attach();
+                try {
+                    return task.call();
+                } finally {
+                    previous.attach();
+                }
+            }
+        };
+    }
+
+    public <T> Supplier<T> wrapSupplier(final Supplier<T> supplier) {
+        if (isEmpty()) {
+            return supplier;
+        }
+        return new Supplier<T>() {
+            @Override
+            public T get() {
+                ScopeContext previous = attach();
+                try {
+                    return supplier.get();
+                } finally {
+                    previous.attach();
+                }
+            }
+        };
+    }
+
+    /**
+     * 所有任务都在这个上下文中执行的Executor。
+     * 用于CompletableFuture的 *Async 阶段: 阶段在哪个线程上触发都不影响上下文
+     */
+    public Executor wrap(final Executor executor) {
+        if (isEmpty()) {
+            return executor;
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+}
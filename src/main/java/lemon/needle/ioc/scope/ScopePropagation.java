@@ -0,0 +1,156 @@
+package lemon.needle.ioc.scope;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.ForwardingExecutorService;
+
+import lemon.needle.ioc.scope.RequestScope.Arena;
+import lemon.needle.ioc.scope.SessionScope.Session;
+
+/**
+ * 把请求和会话作用域传递到其他线程。
+ *
+ * <pre>
+ * ExecutorService pool = propagation.wrap(Executors.newFixedThreadPool(8));
+ * pool.submit(task); // task在提交时所在的请求和会话中执行
+ *
+ * ScopeContext context = propagation.capture();
+ * CompletableFuture.supplyAsync(supplier, context.wrap(pool)).thenApplyAsync(fn, context.wrap(pool));
+ * </pre>
+ *
+ * capture()只读两个ThreadLocal; 不在任何请求或会话中时返回同一个空上下文, 任务也不再包装。
+ */
+public final class ScopePropagation {
+
+    private final RequestScope requestScope;
+    private final SessionScope sessionScope;
+    private final ScopeContext empty;
+
+    public ScopePropagation(RequestScope requestScope, SessionScope sessionScope) {
+        this.requestScope = requestScope;
+        this.sessionScope = sessionScope;
+        this.empty = new ScopeContext(requestScope, null, sessionScope, null);
+    }
+
+    /**
+     * @return 当前线程的请求和会话作用域
+     */
+    public ScopeContext capture() {
+        Arena arena = requestScope.capture();
+        Session session = sessionScope.current();
+        if (arena == null && session == null) {
+            return empty;
+        }
+        return new ScopeContext(requestScope, arena, sessionScope, session);
+    }
+
+    public Runnable wrap(Runnable task) {
+        return capture().wrap(task);
+    }
+
+    public <V> Callable<V> wrap(Callable<V> task) {
+        return capture().wrap(task);
+    }
+
+    public <T> Supplier<T> wrapSupplier(Supplier<T> supplier) {
+        return capture().wrapSupplier(supplier);
+    }
+
+    /**
+     * @return 每个任务都在提交时的上下文中执行的Executor
+     */
+    public Executor wrap(final Executor executor) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+        };
+    }
+
+    /**
+     * @return 每个任务都在提交时的上下文中执行的ExecutorService
+     */
+    public ExecutorService wrap(final ExecutorService executor) {
+        return new ForwardingExecutorService() {
+            @Override
+            protected ExecutorService delegate() {
+                return executor;
+            }
+
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(wrap(command));
+            }
+
+            @Override
+            public Future<?> submit(Runnable task) {
+                return executor.submit(wrap(task));
+            }
+
+            @Override
+            public <T> Future<T> submit(Runnable task, T result) {
+                return executor.submit(wrap(task), result);
+            }
+
+            @Override
+            public <T> Future<T> submit(Callable<T> task) {
+                return executor.submit(wrap(task));
+            }
+
+            @Override
+            public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+                return executor.invokeAll(wrap(tasks));
+            }
+
+            @Override
+            public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+                return executor.invokeAll(wrap(tasks), timeout, unit);
+            }
+
+            @Override
+            public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+                return executor.invokeAny(wrap(tasks));
+            }
+
+            @Override
+            public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return executor.invokeAny(wrap(tasks), timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * {@link CompletableFuture#supplyAsync(Supplier, Executor)}, supplier在当前上下文中执行
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(wrapSupplier(supplier), executor);
+    }
+
+    /**
+     * {@link CompletableFuture#runAsync(Runnable, Executor)}, task在当前上下文中执行
+     */
+    public CompletableFuture<Void> runAsync(Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(wrap(task), executor);
+    }
+
+    private <T> List<Callable<T>> wrap(Collection<? extends Callable<T>> tasks) {
+        ScopeContext context = capture();
+        List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            wrapped.add(context.wrap(task));
+        }
+        return wrapped;
+    }
+}
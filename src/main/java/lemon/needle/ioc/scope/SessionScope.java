@@ -0,0 +1,326 @@
+package lemon.needle.ioc.scope;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+
+/**
+ * 每个会话一个实例。
+ *
+ * <pre>
+ * SessionScope session = injector.getSessionScope();
+ * session.enter(sessionId);
+ * try {
+ *     ...
+ * } finally {
+ *     session.exit();
+ * }
+ * </pre>
+ *
+ * 会话保存在按会话ID索引的有界缓存中: 超过最大会话数(或最大权重)时按LRU淘汰, 超过空闲时间未进入的会话过期,
+ * 淘汰时通知removalListener。与请求作用域一样, 会话中的bean按绑定的槽位存放在数组中。
+ * 命中、未命中和淘汰次数通过 {@link #stats()} 查询。
+ *
+ * @see SessionScoped
+ * @see lemon.needle.ioc.annotations.SessionScoped
+ */
+public class SessionScope implements Scope {
+
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final Cache<String, Session> sessions;
+
+    private final ThreadLocal<Session> current = new ThreadLocal<Session>();
+
+    /**
+     * 默认最多10000个会话, 空闲30分钟过期
+     */
+    public SessionScope() {
+        this(builder());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private SessionScope(Builder builder) {
+        CacheBuilder cache = CacheBuilder.newBuilder().expireAfterAccess(builder.idleNanos, TimeUnit.NANOSECONDS).recordStats();
+        if (builder.weigher != null) {
+            cache.maximumWeight(builder.maximumWeight).weigher(builder.weigher);
+        } else {
+            cache.maximumSize(builder.maximumSessions);
+        }
+        if (builder.listener != null) {
+            final RemovalListener listener = builder.listener;
+            //重新计算权重时的替换不通知
+            cache.removalListener(new RemovalListener<String, Session>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, Session> notification) {
+                    if (notification.getCause() != RemovalCause.REPLACED) {
+                        listener.onRemoval(notification);
+                    }
+                }
+            });
+        }
+        this.sessions = cache.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 当前线程进入一个会话, 不存在时创建
+     */
+    public void enter(final String sessionId) {
+        Preconditions.checkNotNull(sessionId);
+        if (current.get() != null) {
+            throw new NeedleException("Session scope is already active on %s", Thread.currentThread().getName());
+        }
+        try {
+            current.set(sessions.get(sessionId, new Callable<Session>() {
+                @Override
+                public Session call() {
+                    return new Session(sessionId);
+                }
+            }));
+        } catch (ExecutionException e) {
+            throw new NeedleException(e.getCause());
+        }
+    }
+
+    /**
+     * 当前线程离开会话, 会话中的bean保留到会话失效
+     */
+    public void exit() {
+        if (current.get() == null) {
+            throw new NeedleException("Session scope is not active on %s", Thread.currentThread().getName());
+        }
+        current.remove();
+    }
+
+    /**
+     * @return 当前线程的会话, 不在会话中时为null
+     */
+    Session current() {
+        return current.get();
+    }
+
+    /**
+     * 把当前线程的会话换成 session, 为null时离开会话
+     * @return 原来的会话
+     */
+    Session swap(Session session) {
+        Session previous = current.get();
+        if (session != null) {
+            current.set(session);
+        } else {
+            current.remove();
+        }
+        return previous;
+    }
+
+    /**
+     * @return 当前线程是否在会话中
+     */
+    public boolean isActive() {
+        return current.get() != null;
+    }
+
+    /**
+     * 使会话失效, 会通知removalListener
+     */
+    public void invalidate(String sessionId) {
+        sessions.invalidate(sessionId);
+    }
+
+    /**
+     * @return 会话, 不存在或已过期时为null
+     */
+    public Session getSession(String sessionId) {
+        //不计入命中统计
+        return sessions.asMap().get(sessionId);
+    }
+
+    /**
+     * @return 当前的会话数
+     */
+    public long size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return 进入会话时的命中(会话已存在)、未命中(新建会话)和淘汰次数
+     */
+    public CacheStats stats() {
+        return sessions.stats();
+    }
+
+    /**
+     * 执行到期的过期和淘汰; 缓存只在访问时顺带清理, 长时间没有访问时可定期调用
+     */
+    public void cleanUp() {
+        sessions.cleanUp();
+    }
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
+        return new SessionProvider<T>(key, provider, slots.getAndIncrement());
+    }
+
+    /**
+     * @return scope是否是会话作用域的注解
+     */
+    public static boolean isSessionScoped(Class<? extends Annotation> scope) {
+        return SessionScoped.class.equals(scope) || lemon.needle.ioc.annotations.SessionScoped.class.equals(scope);
+    }
+
+    @Override
+    public String toString() {
+        return "Scopes.SESSION";
+    }
+
+    final class SessionProvider<T> implements Provider<T> {
+        private final Key<T> key;
+        private final Provider<T> provider;
+        private final int slot;
+
+        SessionProvider(Key<T> key, Provider<T> provider, int slot) {
+            this.key = key;
+            this.provider = provider;
+            this.slot = slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+            Session session = current.get();
+            if (session == null) {
+                throw new NeedleException("Cannot access %s outside of a session scope", key);
+            }
+            Object bean = session.get(slot);
+            if (bean != null) {
+                return (T) bean;
+            }
+            //同一会话的并发请求只创建一次
+            synchronized (session) {
+                bean = session.get(slot);
+                if (bean == null) {
+                    bean = provider.get();
+                    session.put(slot, bean);
+                    //bean数量变化后重新计算会话的权重
+                    sessions.asMap().replace(session.id, session, session);
+                }
+            }
+            return (T) bean;
+        }
+
+        @Override
+        public String toString() {
+            return "SessionProvider->" + provider.toString();
+        }
+    }
+
+    /**
+     * 一个会话中的bean, 按槽位索引
+     */
+    public static final class Session {
+        private final String id;
+        private volatile Object[] beans = new Object[8];
+        private volatile int size;
+
+        Session(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return 会话中已创建的bean数量
+         */
+        public int size() {
+            return size;
+        }
+
+        Object get(int slot) {
+            Object[] current = beans;
+            return slot < current.length ? current[slot] : null;
+        }
+
+        //由会话的锁保护; 写时复制, 无锁读取的线程总能看到完整的bean
+        void put(int slot, Object bean) {
+            Object[] current = beans;
+            current = Arrays.copyOf(current, Math.max(current.length, slot + 1));
+            current[slot] = bean;
+            beans = current;
+            size++;
+        }
+    }
+
+    public static final class Builder {
+        private long maximumSessions = 10000;
+        private long maximumWeight = -1;
+        private Weigher<? super String, ? super Session> weigher;
+        private long idleNanos = TimeUnit.MINUTES.toNanos(30);
+        private RemovalListener<? super String, ? super Session> listener;
+
+        Builder() {
+        }
+
+        /**
+         * 最大会话数, 默认10000
+         */
+        public Builder maximumSessions(long maximumSessions) {
+            Preconditions.checkArgument(maximumSessions >= 0);
+            this.maximumSessions = maximumSessions;
+            return this;
+        }
+
+        /**
+         * 按权重限制会话总量, 例如按会话中的bean数量; 指定后不再限制会话数
+         */
+        public Builder maximumWeight(long maximumWeight, Weigher<? super String, ? super Session> weigher) {
+            Preconditions.checkArgument(maximumWeight >= 0);
+            this.maximumWeight = maximumWeight;
+            this.weigher = Preconditions.checkNotNull(weigher);
+            return this;
+        }
+
+        /**
+         * 会话空闲多久后过期, 默认30分钟
+         */
+        public Builder expireAfterIdle(long duration, TimeUnit unit) {
+            Preconditions.checkArgument(duration >= 0);
+            this.idleNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 会话被淘汰、过期或失效时的回调
+         */
+        public Builder removalListener(RemovalListener<? super String, ? super Session> listener) {
+            this.listener = Preconditions.checkNotNull(listener);
+            return this;
+        }
+
+        public SessionScope build() {
+            return new SessionScope(this);
+        }
+    }
+}
@@ -5,9 +5,12 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import com.google.common.collect.ListMultimap;
+
+import lemon.needle.exception.NeedleException;
 import lemon.needle.ioc.Injector;
 import lemon.needle.ioc.Key;
-import lemon.needle.ioc.provider.SingleProvider;
+import lemon.needle.ioc.scope.CycleDetectingLock.CycleDetectingLockFactory;
 
 /**
  * One instance per {@link Injector}. Also see {@code @}{@link Singleton}.
@@ -46,18 +49,22 @@ import lemon.needle.ioc.provider.SingleProvider;
  */
 public class SingletonScope implements Scope {
 
+    /** 所有单例共用一个工厂, 才能发现跨线程的依赖环 */
+    private static final CycleDetectingLockFactory<Key<?>> locks = new CycleDetectingLockFactory<Key<?>>();
+
     private final ConcurrentHashMap<Object, Provider<?>> scopeMap = new ConcurrentHashMap<Object, Provider<?>>();
-    
+
     @Override
     public String toString() {
         return "Scopes.SINGLETON";
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
         Provider<?> returnData = this.scopeMap.get(key);
         if (returnData == null) {
-            Provider<T> newSingleProvider = new SingleProvider<T>(provider);
+            Provider<T> newSingleProvider = new SingletonProvider<T>(key, provider);
             returnData = this.scopeMap.putIfAbsent(key, newSingleProvider);
             if (returnData == null) {
                 returnData = newSingleProvider;
@@ -65,4 +72,58 @@ public class SingletonScope implements Scope {
         }
         return (Provider<T>) returnData;
     }
+
+    /**
+     * 每个绑定一个: 创建完成后只读一次volatile字段;
+     * 创建期间只锁住这个绑定, 不会阻塞其他单例的创建。
+     */
+    static final class SingletonProvider<T> implements Provider<T> {
+        private final Key<T> key;
+        private final Provider<T> provider;
+        private final CycleDetectingLock<Key<?>> lock;
+        private volatile T instance;
+        /** 正在创建实例的线程, 由lock保护 */
+        private Thread constructing;
+
+        SingletonProvider(Key<T> key, Provider<T> provider) {
+            this.key = key;
+            this.provider = provider;
+            this.lock = locks.create(key);
+        }
+
+        @Override
+        public T get() {
+            T current = instance;
+            if (current != null) {
+                return current;
+            }
+            ListMultimap<Thread, Key<?>> cycle = lock.lockOrDetectPotentialLocksCycle();
+            if (!cycle.isEmpty()) {
+                throw new NeedleException("Singleton %s is part of a dependency cycle between threads: %s", key, cycle);
+            }
+            try {
+                current = instance;
+                if (current == null) {
+                    if (constructing == Thread.currentThread()) {
+                        throw new NeedleException("Singleton %s depends on itself", key);
+                    }
+                    constructing = Thread.currentThread();
+                    try {
+                        current = provider.get();
+                    } finally {
+                        constructing = null;
+                    }
+                    instance = current;
+                }
+                return current;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "SingletonProvider->" + provider.toString();
+        }
+    }
 }
@@ -0,0 +1,112 @@
+package lemon.needle.ioc.scope;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lemon.needle.ioc.Key;
+
+/**
+ * 每个线程一个实例。
+ *
+ * 与请求作用域一样, 每个绑定分配一个槽位, 实例存放在当前线程的数组中, 只由本线程访问, 不需要加锁。
+ * 线程池中的线程会一直持有这些实例; 任务结束时调用 {@link #clear()}, 或者用 {@link #clearing(Runnable)} 包装任务,
+ * 可以释放它们, 其中实现了AutoCloseable的会被关闭。
+ *
+ * @see ThreadScoped
+ */
+public class ThreadScope implements Scope {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadScope.class);
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final ThreadLocal<Object[]> instances = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return EMPTY;
+        }
+    };
+
+    @Override
+    public <T> Provider<T> scope(Key<T> key, Provider<T> provider) {
+        return new ThreadProvider<T>(provider, slots.getAndIncrement());
+    }
+
+    /**
+     * 释放当前线程上的所有实例, 关闭其中的AutoCloseable
+     */
+    public void clear() {
+        Object[] current = instances.get();
+        instances.remove();
+        for (Object instance : current) {
+            if (instance instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) instance).close();
+                } catch (Exception e) {
+                    logger.error(String.format("Failed to close thread scoped %s", instance), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 执行task后释放当前线程实例的任务, 用于线程池
+     */
+    public Runnable clearing(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    clear();
+                }
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "Scopes.THREAD";
+    }
+
+    final class ThreadProvider<T> implements Provider<T> {
+        private final Provider<T> provider;
+        private final int slot;
+
+        ThreadProvider(Provider<T> provider, int slot) {
+            this.provider = provider;
+            this.slot = slot;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() {
+            Object[] current = instances.get();
+            if (slot < current.length && current[slot] != null) {
+                return (T) current[slot];
+            }
+            T instance = provider.get();
+            //provider中可能创建了其他线程作用域的实例, 重新读取
+            current = instances.get();
+            if (slot >= current.length) {
+                current = Arrays.copyOf(current, Math.max(slots.get(), slot + 1));
+                instances.set(current);
+            }
+            current[slot] = instance;
+            return instance;
+        }
+
+        @Override
+        public String toString() {
+            return "ThreadProvider->" + provider.toString();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lemon.needle.ioc.scope;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.inject.Scope;
+
+/**
+ * 每个线程一个实例, 用于创建开销大但不是线程安全的对象, 例如格式化器、MessageDigest
+ *
+ * @see ThreadScope
+ */
+@Scope
+@Documented
+@Retention(RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface ThreadScoped {
+
+}
@@ -0,0 +1,428 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Assume;
+import org.junit.Test;
+
+import lemon.needle.aop.Intercepted;
+import lemon.needle.aop.InterceptorToggle;
+import lemon.needle.aop.Matchers;
+import lemon.needle.aop.ProxyBackend;
+import lemon.needle.aop.ProxyBackends;
+import lemon.needle.aop.WovenInterceptors;
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorBuilder;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * bindInterceptor: 匹配的方法经过拦截器, 不匹配的类按原样创建
+ */
+public class AopTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Audited {
+    }
+
+    public static class Repository {
+    }
+
+    public static class Account {
+        @Inject
+        Repository repository;
+
+        @Audited
+        public String withdraw(int amount) {
+            return "withdraw " + amount;
+        }
+
+        public String balance() {
+            return "balance";
+        }
+    }
+
+    public static class Plain {
+    }
+
+    public static class Ledger {
+        final List<String> entries = new ArrayList<>();
+
+        @Audited
+        public void record(String entry) {
+            entries.add(entry);
+        }
+
+        @Audited
+        public long total(int count, long each) {
+            return count * each;
+        }
+
+        @Audited
+        public String fail() throws Exception {
+            throw new Exception("checked");
+        }
+    }
+
+    /**
+     * 模拟ajc织入后的类: 织入会生成ajc$开头的静态字段
+     */
+    public static class Woven {
+        static Object ajc$tjp_0;
+
+        @Audited
+        @Intercepted({ Counting.class, Tracing.class })
+        public String run() {
+            return "run";
+        }
+    }
+
+    public static class Tracing implements MethodInterceptor {
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            return invocation.proceed();
+        }
+    }
+
+    static class Counting implements MethodInterceptor {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            calls.incrementAndGet();
+            return invocation.proceed();
+        }
+    }
+
+    static class AuditModule extends AbsModule {
+        final Counting counting;
+
+        AuditModule(Counting counting) {
+            this.counting = counting;
+        }
+
+        @Override
+        public void configure() {
+            bindInterceptor(Matchers.any(), Matchers.annotatedWith(Audited.class), counting);
+        }
+    }
+
+    @Test
+    public void intercepted() {
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AuditModule(counting)).build();
+        Account account = injector.instance(Account.class);
+        assertNotSame(Account.class, account.getClass());
+        assertNotNull(account.repository);
+
+        assertEquals("withdraw 10", account.withdraw(10));
+        assertEquals("balance", account.balance());
+        assertEquals(1, counting.calls.get());
+    }
+
+    @Test
+    public void unmatched() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AuditModule(new Counting())).build();
+        //没有被拦截的方法, 不生成子类
+        assertSame(Plain.class, injector.instance(Plain.class).getClass());
+        assertSame(Repository.class, injector.instance(Repository.class).getClass());
+    }
+
+    @Test
+    public void sharedEnhancedClass() {
+        Counting first = new Counting();
+        Counting second = new Counting();
+        Account a = InjectorImpl.builder().modules(new AuditModule(first)).build().instance(Account.class);
+        Account b = InjectorImpl.builder().modules(new AuditModule(second)).build().instance(Account.class);
+        assertSame(a.getClass(), b.getClass());
+
+        a.withdraw(1);
+        b.withdraw(2);
+        b.withdraw(3);
+        assertEquals(1, first.calls.get());
+        assertEquals(2, second.calls.get());
+    }
+
+    @Test
+    public void chainOrderAndRetry() {
+        final List<String> trace = new ArrayList<>();
+        final Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(Matchers.any(), Matchers.annotatedWith(Audited.class), new MethodInterceptor() {
+                    @Override
+                    public Object invoke(MethodInvocation invocation) throws Throwable {
+                        trace.add("outer");
+                        //重试: 同一个invocation再次proceed()仍从下一个拦截器开始
+                        invocation.proceed();
+                        return invocation.proceed();
+                    }
+                }, new MethodInterceptor() {
+                    @Override
+                    public Object invoke(MethodInvocation invocation) throws Throwable {
+                        trace.add("inner " + invocation.getArguments()[0]);
+                        return invocation.proceed();
+                    }
+                }, counting);
+            }
+        }).build();
+        assertEquals("withdraw 7", injector.instance(Account.class).withdraw(7));
+        assertEquals("[outer, inner 7, inner 7]", trace.toString());
+        assertEquals(2, counting.calls.get());
+    }
+
+    @Test
+    public void javassistBackend() throws Exception {
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().proxyBackend(ProxyBackends.JAVASSIST).modules(new AuditModule(counting)).build();
+        Account account = injector.instance(Account.class);
+        assertTrue(account.getClass().getName().contains("$$NeedleProxy$$"));
+        assertNotNull(account.repository);
+        assertEquals("withdraw 10", account.withdraw(10));
+        assertEquals("balance", account.balance());
+        //没有被拦截的方法不覆盖
+        assertSame(Account.class, account.getClass().getMethod("balance").getDeclaringClass());
+        assertEquals(1, counting.calls.get());
+
+        Ledger ledger = injector.instance(Ledger.class);
+        ledger.record("a");
+        assertEquals("[a]", ledger.entries.toString());
+        assertEquals(12L, ledger.total(3, 4L));
+        try {
+            ledger.fail();
+            fail();
+        } catch (Exception e) {
+            assertEquals("checked", e.getMessage());
+        }
+        assertEquals(4, counting.calls.get());
+        assertSame(Plain.class, injector.instance(Plain.class).getClass());
+    }
+
+    @Test
+    public void wovenClassesAreNotProxied() throws Exception {
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AuditModule(counting)).build();
+        Woven woven = injector.instance(Woven.class);
+        assertSame(Woven.class, woven.getClass());
+        assertTrue(WovenInterceptors.isWoven(Woven.class));
+
+        //织入的方法使用创建实例的injector中绑定的拦截器实例, 未绑定的类型按无参构造函数创建
+        assertSame(injector.getWovenInterceptors(), WovenInterceptors.of(woven));
+        MethodInterceptor[] interceptors = WovenInterceptors.of(woven).interceptors(Woven.class.getMethod("run"));
+        assertEquals(2, interceptors.length);
+        assertSame(counting, interceptors[0]);
+        assertSame(Tracing.class, interceptors[1].getClass());
+    }
+
+    @Test
+    public void wovenInterceptorsPerInjector() throws Exception {
+        Counting first = new Counting();
+        Counting second = new Counting();
+        Woven a = InjectorImpl.builder().modules(new AuditModule(first)).build().instance(Woven.class);
+        Woven b = InjectorImpl.builder().modules(new AuditModule(second)).build().instance(Woven.class);
+        assertSame(first, WovenInterceptors.of(a).interceptors(Woven.class.getMethod("run"))[0]);
+        assertSame(second, WovenInterceptors.of(b).interceptors(Woven.class.getMethod("run"))[0]);
+        //不是injector创建的实例使用共享的默认实例
+        MethodInterceptor shared = WovenInterceptors.of(new Woven()).interceptors(Woven.class.getMethod("run"))[0];
+        assertNotSame(first, shared);
+        assertNotSame(second, shared);
+    }
+
+    @Test
+    public void conflictingWovenBindingFails() throws Exception {
+        final Counting first = new Counting();
+        final Counting second = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(Matchers.any(), Matchers.annotatedWith(Audited.class), first);
+                bindInterceptor(Matchers.subclassesOf(Ledger.class), Matchers.any(), second);
+            }
+        }).build();
+        //只有织入点引用有歧义的类型时才失败, 代理不受影响
+        injector.instance(Account.class).withdraw(1);
+        assertEquals(1, first.calls.get());
+        try {
+            injector.getWovenInterceptors().interceptors(Woven.class.getMethod("run"));
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(e.getMessage().contains("more than once"));
+        }
+    }
+
+    /**
+     * 模拟织入后的类: run()由织入的代码拦截, 其余匹配的方法仍然由代理拦截
+     */
+    public static class PartlyWoven {
+        static Object ajc$tjp_0;
+
+        @Audited
+        @Intercepted(Tracing.class)
+        public String run() {
+            return "run";
+        }
+
+        @Audited
+        public String audit() {
+            return "audit";
+        }
+    }
+
+    @Test
+    public void uncoveredMethodsOfWovenClassesAreProxied() {
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AuditModule(counting)).build();
+        PartlyWoven partly = injector.instance(PartlyWoven.class);
+        assertNotSame(PartlyWoven.class, partly.getClass());
+        assertSame(injector.getWovenInterceptors(), WovenInterceptors.of(partly));
+        partly.audit();
+        assertEquals(1, counting.calls.get());
+        //织入点覆盖的方法不再经过代理
+        partly.run();
+        assertEquals(1, counting.calls.get());
+    }
+
+    /**
+     * -Pweave构建时由ajc真正织入, 默认构建中跳过
+     */
+    public static class WeavedService {
+        @Intercepted(Counting.class)
+        public String handle(String request) {
+            return self(request);
+        }
+
+        @Intercepted(Counting.class)
+        private String self(String request) {
+            return "handled " + request;
+        }
+    }
+
+    @Test
+    public void weaving() {
+        Assume.assumeTrue("only with -Pweave", WovenInterceptors.isWoven(WeavedService.class));
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(Matchers.subclassesOf(Plain.class), Matchers.any(), counting);
+            }
+        }).build();
+        WeavedService service = injector.instance(WeavedService.class);
+        assertSame(WeavedService.class, service.getClass());
+        assertEquals("handled a", service.handle("a"));
+        //private方法的自调用同样被拦截
+        assertEquals(2, counting.calls.get());
+
+        //不是injector创建的实例使用默认的Counting实例
+        new WeavedService().handle("b");
+        assertEquals(2, counting.calls.get());
+    }
+
+    @Test
+    public void toggledInterceptors() {
+        toggled(null);
+        toggled(ProxyBackends.JAVASSIST);
+    }
+
+    private void toggled(ProxyBackend backend) {
+        final InterceptorToggle toggle = InterceptorToggle.named("aop-test-" + backend);
+        final Counting toggled = new Counting();
+        final Counting always = new Counting();
+        InjectorBuilder builder = InjectorImpl.builder();
+        if (backend != null) {
+            builder.proxyBackend(backend);
+        }
+        InjectorImpl injector = builder.modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(toggle, Matchers.any(), Matchers.annotatedWith(Audited.class), toggled);
+                bindInterceptor(Matchers.any(), Matchers.not(Matchers.annotatedWith(Audited.class)), always);
+            }
+        }).build();
+        Account account = injector.instance(Account.class);
+        //默认关闭
+        assertEquals("withdraw 1", account.withdraw(1));
+        assertEquals(0, toggled.calls.get());
+
+        toggle.enable();
+        account.withdraw(2);
+        account.withdraw(3);
+        assertEquals(2, toggled.calls.get());
+
+        toggle.disable();
+        account.withdraw(4);
+        assertEquals(2, toggled.calls.get());
+        //不受开关影响
+        account.balance();
+        assertEquals(1, always.calls.get());
+    }
+
+    /**
+     * 同一个方法上的两个开关: 每次变化后按当前状态重新链接, 包括在已经编译的调用路径上
+     */
+    @Test
+    public void toggleFlipsRelink() {
+        for (ProxyBackend backend : new ProxyBackend[] { null, ProxyBackends.JAVASSIST }) {
+            final InterceptorToggle first = InterceptorToggle.named("aop-test-first-" + backend);
+            final InterceptorToggle second = InterceptorToggle.named("aop-test-second-" + backend);
+            final Counting firstCounting = new Counting();
+            final Counting secondCounting = new Counting();
+            InjectorBuilder builder = InjectorImpl.builder();
+            if (backend != null) {
+                builder.proxyBackend(backend);
+            }
+            Account account = builder.modules(new AbsModule() {
+                @Override
+                public void configure() {
+                    bindInterceptor(first, Matchers.any(), Matchers.annotatedWith(Audited.class), firstCounting);
+                    bindInterceptor(second, Matchers.any(), Matchers.annotatedWith(Audited.class), secondCounting);
+                }
+            }).build().instance(Account.class);
+            //javassist生成失败时会退回到cglib
+            assertEquals(backend != null, account.getClass().getName().contains("$$NeedleProxy$$"));
+            int expectedFirst = 0;
+            int expectedSecond = 0;
+            for (int round = 0; round < 20; round++) {
+                first.set(round % 2 == 0);
+                second.set(round % 3 == 0);
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals("withdraw " + i, account.withdraw(i));
+                }
+                expectedFirst += first.isEnabled() ? 1000 : 0;
+                expectedSecond += second.isEnabled() ? 1000 : 0;
+                assertEquals(expectedFirst, firstCounting.calls.get());
+                assertEquals(expectedSecond, secondCounting.calls.get());
+            }
+            first.disable();
+            second.disable();
+        }
+    }
+
+    @Test
+    public void childInheritsAspects() {
+        Counting counting = new Counting();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AuditModule(counting)).build();
+        InjectorImpl child = injector.createChild();
+        child.instance(Account.class).withdraw(5);
+        assertEquals(1, counting.calls.get());
+    }
+}
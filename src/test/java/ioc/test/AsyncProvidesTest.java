@@ -0,0 +1,89 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Module;
+import lemon.needle.ioc.annotations.Async;
+import lemon.needle.ioc.annotations.Provides;
+
+/**
+ * {@code @Provides @Async} 方法并行执行, 结果通过 CompletableFuture/ListenableFuture 或直接注入
+ */
+public class AsyncProvidesTest {
+
+    public static class KeyStore {
+    }
+
+    public static class Schema {
+    }
+
+    public static class Plain {
+    }
+
+    public static class SlowModule implements Module {
+        //两个方法都要等对方开始, 串行执行时会超时
+        final CountDownLatch started = new CountDownLatch(2);
+
+        @Override
+        public void configure() {
+        }
+
+        @Provides
+        @Async
+        KeyStore keyStore() throws InterruptedException {
+            started.countDown();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            return new KeyStore();
+        }
+
+        @Provides
+        @Async
+        Schema schema() throws InterruptedException {
+            started.countDown();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            return new Schema();
+        }
+    }
+
+    public static class Consumer {
+        @Inject
+        CompletableFuture<KeyStore> keyStore;
+
+        @Inject
+        ListenableFuture<Schema> schema;
+
+        @Inject
+        CompletableFuture<Plain> plain;
+    }
+
+    @Test
+    public void slowProvidersRunInParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            InjectorImpl injector = InjectorImpl.builder().asyncExecutor(pool).modules(new SlowModule()).build();
+            Consumer consumer = injector.instance(Consumer.class);
+            KeyStore keyStore = consumer.keyStore.get(5, TimeUnit.SECONDS);
+            assertSame(keyStore, injector.instance(KeyStore.class));
+            assertSame(keyStore, injector.future(KeyStore.class).get());
+            assertSame(consumer.schema.get(5, TimeUnit.SECONDS), injector.instance(Schema.class));
+            assertEquals(Plain.class, consumer.plain.get(5, TimeUnit.SECONDS).getClass());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
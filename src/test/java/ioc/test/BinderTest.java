@@ -0,0 +1,148 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.binder.Binder;
+import lemon.needle.ioc.scope.ThreadScoped;
+
+/**
+ * 模块中用Binder声明的绑定
+ */
+public class BinderTest {
+
+    public interface Greeter {
+        String greet();
+    }
+
+    public static class Hello implements Greeter {
+        @Override
+        public String greet() {
+            return "hello";
+        }
+    }
+
+    public static class Client {
+        final Greeter greeter;
+
+        @Inject
+        public Client(@Named("hello") Greeter greeter) {
+            this.greeter = greeter;
+        }
+    }
+
+    @Test
+    public void registerBinds() {
+        final Greeter instance = new Hello();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).to(instance);
+            }
+        }).build();
+        assertSame(instance, injector.instance(Greeter.class));
+    }
+
+    @Test
+    public void namedMatchesInjectionPoint() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).named("hello").to(Hello.class);
+            }
+        }).build();
+        assertEquals("hello", injector.instance(Client.class).greeter.greet());
+        assertEquals("hello", injector.instance(Key.of(Greeter.class, Named.class, "hello")).greet());
+    }
+
+    @Test
+    public void inScope() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Hello.class).to(Hello.class).in(Singleton.class);
+            }
+        }).build();
+        assertSame(injector.instance(Hello.class), injector.instance(Hello.class));
+    }
+
+    @Test
+    public void unscopedByDefault() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).to(Hello.class);
+            }
+        }).build();
+        assertNotSame(injector.instance(Greeter.class), injector.instance(Greeter.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void namedTwiceFails() {
+        InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).named("a").named("b");
+            }
+        }).build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void scopeTwiceFails() {
+        InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).in(Singleton.class).in(ThreadScoped.class);
+            }
+        }).build();
+    }
+
+    @Test
+    public void eagerSingletonWithOtherScopeFails() {
+        //两种调用顺序都拒绝
+        try {
+            InjectorImpl.builder().modules(new AbsModule() {
+                @Override
+                public void configure() {
+                    bind(Hello.class).to(Hello.class).in(ThreadScoped.class).asEagerSingleton();
+                }
+            }).build();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            InjectorImpl.builder().modules(new AbsModule() {
+                @Override
+                public void configure() {
+                    Binder<Hello> binder = bind(Hello.class).to(Hello.class);
+                    binder.asEagerSingleton();
+                    binder.in(ThreadScoped.class);
+                }
+            }).build();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void eagerSingletonInSingleton() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Hello.class).to(Hello.class).in(Singleton.class).asEagerSingleton();
+            }
+        }).build();
+        assertSame(injector.instance(Hello.class), injector.instance(Hello.class));
+    }
+}
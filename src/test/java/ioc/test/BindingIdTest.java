@@ -0,0 +1,213 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+
+/**
+ * 装配完成后按Class的查找走ClassValue和绑定ID表: 之后新增的just-in-time绑定同样分配ID, ID表按需扩容,
+ * 每个injector的ClassValue只返回自己的ID
+ */
+public class BindingIdTest {
+
+    private static final int THREADS = 16;
+
+    public interface Greeter {
+        String greet();
+    }
+
+    public static class Hello implements Greeter {
+        @Override
+        public String greet() {
+            return "hello";
+        }
+    }
+
+    public static class Hi implements Greeter {
+        @Override
+        public String greet() {
+            return "hi";
+        }
+    }
+
+    @Singleton
+    public static class Shared {
+    }
+
+    public static class C0 {
+    }
+
+    public static class C1 {
+    }
+
+    public static class C2 {
+    }
+
+    public static class C3 {
+    }
+
+    public static class C4 {
+    }
+
+    public static class C5 {
+    }
+
+    public static class C6 {
+    }
+
+    public static class C7 {
+    }
+
+    public static class C8 {
+    }
+
+    public static class C9 {
+    }
+
+    public static class C10 {
+    }
+
+    public static class C11 {
+    }
+
+    private static final Class<?>[] TYPES = { C0.class, C1.class, C2.class, C3.class, C4.class, C5.class, C6.class, C7.class, C8.class, C9.class, C10.class, C11.class };
+
+    private static InjectorImpl greeting(final Class<? extends Greeter> impl) {
+        return InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Greeter.class).to(impl);
+            }
+        }).build();
+    }
+
+    @Test
+    public void sealedLookupMatchesKeyLookup() {
+        InjectorImpl injector = greeting(Hello.class);
+        assertSame(injector.provider(Key.of(Greeter.class)), injector.provider(Greeter.class));
+        assertEquals("hello", injector.instance(Greeter.class).greet());
+        assertSame(injector.instance(Shared.class), injector.instance(Key.of(Shared.class)));
+    }
+
+    /**
+     * 装配完成后才第一次请求的类: 分配ID后两条查找路径得到同一个provider
+     */
+    @Test
+    public void jitBindingsAfterSealing() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        for (Class<?> type : TYPES) {
+            Provider<?> provider = injector.provider(type);
+            assertSame(type.getName(), provider, injector.provider(type));
+            assertSame(type.getName(), provider, injector.provider(Key.of(type)));
+            assertSame(type, provider.get().getClass());
+        }
+        assertNotSame(injector.instance(C0.class), injector.instance(C0.class));
+    }
+
+    /**
+     * 绑定数超过ID表的初始容量, 扩容前分配的ID仍然指向原来的provider
+     */
+    @Test
+    public void tableGrowsPastCapacity() {
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                for (int i = 0; i < 100; i++) {
+                    bind(String.class).named("s" + i).to("v" + i);
+                }
+            }
+        }).build();
+        //子injector的ID表从较小的容量开始
+        InjectorImpl child = injector.createChild();
+        for (InjectorImpl current : new InjectorImpl[] { injector, child }) {
+            for (Class<?> type : TYPES) {
+                assertSame(type, current.instance(type).getClass());
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals("v" + i, current.instance(Key.of(String.class, Named.class, "s" + i)));
+            }
+            for (Class<?> type : TYPES) {
+                assertSame(current.provider(Key.of(type)), current.provider(type));
+            }
+        }
+    }
+
+    /**
+     * 两个injector以不同的顺序请求同一批类, 各自的ClassValue返回各自的ID
+     */
+    @Test
+    public void injectorsKeepOwnIds() {
+        InjectorImpl first = greeting(Hello.class);
+        InjectorImpl second = greeting(Hi.class);
+        for (int i = 0; i < TYPES.length; i++) {
+            first.provider(TYPES[i]);
+            second.provider(TYPES[TYPES.length - 1 - i]);
+        }
+        first.provider(Shared.class);
+        assertEquals("hello", first.instance(Greeter.class).greet());
+        assertEquals("hi", second.instance(Greeter.class).greet());
+        for (Class<?> type : TYPES) {
+            assertSame(type, first.instance(type).getClass());
+            assertSame(type, second.instance(type).getClass());
+            assertSame(first.provider(Key.of(type)), first.provider(type));
+            assertSame(second.provider(Key.of(type)), second.provider(type));
+        }
+        assertNotSame(first.instance(Shared.class), second.instance(Shared.class));
+        assertSame(first.instance(Shared.class), first.instance(Shared.class));
+    }
+
+    /**
+     * 多个线程同时在子injector中创建绑定, 读ID表的线程不会看到扩容中的表
+     */
+    @Test
+    public void concurrentGrowth() throws Exception {
+        final InjectorImpl child = InjectorImpl.builder().build().createChild();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < TYPES.length; i++) {
+                            Class<?> type = TYPES[(i + offset) % TYPES.length];
+                            assertTrue(type.getName(), type.isInstance(child.instance(type)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (Class<?> type : TYPES) {
+            assertSame(child.provider(Key.of(type)), child.provider(type));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+
+/**
+ * 冷启动时大量线程同时请求同一个just-in-time绑定:
+ * 每个Key只能创建一个provider, 每个单例只能构造一次
+ */
+public class ConcurrentBindingTest {
+
+    private static final int THREADS = 32;
+
+    static final AtomicInteger constructed = new AtomicInteger();
+
+    private static InjectorImpl injector;
+
+    @BeforeClass
+    public static void init() {
+        injector = InjectorImpl.builder().build();
+    }
+
+    @Singleton
+    public static class Pool {
+        public Pool() throws InterruptedException {
+            constructed.incrementAndGet();
+            Thread.sleep(20);
+        }
+    }
+
+    public static class Proto {
+        @Inject
+        Pool pool;
+    }
+
+    @Test
+    public void singleProviderAndSingletonPerKey() throws Exception {
+        List<Object> pools = race(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return injector.instance(Pool.class);
+            }
+        });
+        for (Object pool : pools) {
+            assertSame(pools.get(0), pool);
+        }
+        assertEquals(1, constructed.get());
+
+        List<Object> providers = race(new Callable<Object>() {
+            @Override
+            public Object call() {
+                Provider<Proto> provider = injector.provider(Key.of(Proto.class));
+                assertSame(pools.get(0), provider.get().pool);
+                return provider;
+            }
+        });
+        for (Object provider : providers) {
+            assertSame(providers.get(0), provider);
+        }
+    }
+
+    private static List<Object> race(final Callable<Object> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            start.countDown();
+            List<Object> results = new ArrayList<>();
+            for (Future<Object> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.scope.Scope;
+
+/**
+ * 自定义作用域: 通过 bindScope 注册注解, 或通过 Binder.in(Scope) 直接指定
+ */
+public class CustomScopeTest {
+
+    @javax.inject.Scope
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface BatchScoped {
+    }
+
+    @javax.inject.Scope
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Unbound {
+    }
+
+    @BatchScoped
+    public static class Batch {
+    }
+
+    @Unbound
+    public static class Orphan {
+    }
+
+    public static class Job {
+    }
+
+    /**
+     * 每批一个实例, reset()开始新的一批
+     */
+    static class BatchScope implements Scope {
+        final ConcurrentMap<Key<?>, Object> beans = new ConcurrentHashMap<>();
+        int scoped;
+
+        @Override
+        public <T> Provider<T> scope(final Key<T> key, final Provider<T> unscoped) {
+            scoped++;
+            return new Provider<T>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public T get() {
+                    Object bean = beans.get(key);
+                    if (bean == null) {
+                        bean = unscoped.get();
+                        beans.put(key, bean);
+                    }
+                    return (T) bean;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void annotationScope() {
+        final BatchScope batch = new BatchScope();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindScope(BatchScoped.class, batch);
+            }
+        }).build();
+        assertTrue(injector.isScope(BatchScoped.class));
+        assertTrue(injector.isScope(Singleton.class));
+        assertFalse(injector.isScope(Unbound.class));
+
+        Batch first = injector.instance(Batch.class);
+        assertSame(first, injector.instance(Batch.class));
+        batch.beans.clear();
+        assertNotSame(first, injector.instance(Batch.class));
+        //只在编译绑定时包装一次
+        assertEquals(1, batch.scoped);
+    }
+
+    @Test
+    public void binderScopeInstance() {
+        final BatchScope batch = new BatchScope();
+        InjectorImpl injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Job.class).to(Job.class).in(batch);
+            }
+        }).build();
+        assertSame(injector.instance(Job.class), injector.instance(Job.class));
+        assertEquals(1, batch.scoped);
+    }
+
+    @Test
+    public void unboundScope() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        try {
+            injector.instance(Orphan.class);
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(e.getMessage().contains("No scope is bound"));
+        }
+    }
+}
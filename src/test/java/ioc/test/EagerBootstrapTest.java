@@ -0,0 +1,231 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * 启动时按依赖顺序并行创建eager单例, 失败时传播给build()和buildAsync()
+ */
+public class EagerBootstrapTest {
+
+    static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        events.clear();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    //字段在构造之后才注入: 如果A先于B开始, 记录下的顺序是A在前
+    public static class A {
+        @Inject
+        B b;
+
+        public A() {
+            events.add("A");
+        }
+    }
+
+    public static class B {
+        @Inject
+        Indirect indirect;
+
+        public B() {
+            events.add("B");
+        }
+    }
+
+    //非eager的just-in-time绑定, B经由它依赖C
+    public static class Indirect {
+        @Inject
+        C c;
+    }
+
+    public static class C {
+        public C() {
+            events.add("C");
+        }
+    }
+
+    @Test
+    public void dependenciesFirst() {
+        InjectorImpl injector = InjectorImpl.builder().executor(executor).modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(A.class).to(A.class).asEagerSingleton();
+                bind(B.class).to(B.class).asEagerSingleton();
+                bind(C.class).to(C.class).asEagerSingleton();
+            }
+        }).build();
+        assertEquals(Arrays.asList("C", "B", "A"), events);
+        A a = injector.instance(A.class);
+        assertSame(injector.instance(B.class), a.b);
+        assertSame(injector.instance(C.class), a.b.indirect.c);
+    }
+
+    static final CyclicBarrier barrier = new CyclicBarrier(2);
+
+    //互不依赖的两个单例只有同时创建才能通过barrier
+    public static class Left {
+        public Left() throws Exception {
+            barrier.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    public static class Right {
+        public Right() throws Exception {
+            barrier.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void independentInParallel() {
+        barrier.reset();
+        InjectorImpl.builder().executor(executor).modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Left.class).to(Left.class).asEagerSingleton();
+                bind(Right.class).to(Right.class).asEagerSingleton();
+            }
+        }).build();
+    }
+
+    static final CountDownLatch gate = new CountDownLatch(1);
+
+    static final AtomicInteger gatedCreated = new AtomicInteger();
+
+    public static class Gated {
+        public Gated() throws InterruptedException {
+            gate.await();
+            gatedCreated.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void buildAsyncDoesNotWait() throws Exception {
+        CompletableFuture<InjectorImpl> future = InjectorImpl.builder().executor(executor).modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Gated.class).to(Gated.class).asEagerSingleton();
+            }
+        }).buildAsync();
+        assertFalse(future.isDone());
+        gate.countDown();
+        InjectorImpl injector = future.get(5, TimeUnit.SECONDS);
+        assertSame(injector.instance(Gated.class), injector.instance(Gated.class));
+        assertEquals(1, gatedCreated.get());
+    }
+
+    public static class Broken {
+        public Broken() {
+            throw new IllegalStateException("broken on purpose");
+        }
+    }
+
+    public static class NeedsBroken {
+        @Inject
+        Broken broken;
+
+        public NeedsBroken() {
+            events.add("NeedsBroken");
+        }
+    }
+
+    private AbsModule broken() {
+        return new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Broken.class).to(Broken.class).asEagerSingleton();
+                bind(NeedsBroken.class).to(NeedsBroken.class).asEagerSingleton();
+            }
+        };
+    }
+
+    @Test
+    public void buildRethrowsFailure() {
+        try {
+            InjectorImpl.builder().executor(executor).modules(broken()).build();
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(causedByBroken(e));
+        }
+        //依赖失败的绑定不再创建
+        assertTrue(events.toString(), events.isEmpty());
+    }
+
+    @Test
+    public void buildAsyncFailsFuture() throws Exception {
+        CompletableFuture<InjectorImpl> future = InjectorImpl.builder().executor(executor).modules(broken()).buildAsync();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(causedByBroken(e));
+        }
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(events.toString(), events.isEmpty());
+    }
+
+    public static class Chicken {
+        @Inject
+        Egg egg;
+    }
+
+    public static class Egg {
+        @Inject
+        Chicken chicken;
+    }
+
+    @Test(expected = NeedleException.class)
+    public void eagerCycleFails() {
+        InjectorImpl.builder().executor(executor).modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Chicken.class).to(Chicken.class).asEagerSingleton();
+                bind(Egg.class).to(Egg.class).asEagerSingleton();
+            }
+        }).build();
+    }
+
+    private static boolean causedByBroken(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if ("broken on purpose".equals(cause.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,233 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.Module;
+import lemon.needle.ioc.annotations.Provides;
+import lemon.needle.ioc.factory.BeanFactory;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.factory.FactoryBackends;
+
+/**
+ * 每个FactoryBackend注入的结果一致: 生成代码无法访问的成员(private、final、类型不可见)逐个退回到反射,
+ * 父类的成员、方法注入、Provider参数和 {@code @Provides} 方法同样如此
+ */
+@RunWith(Parameterized.class)
+public class FactoryBackendTest {
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        return Arrays.asList(new Object[][] {
+                { "REFLECTION", FactoryBackends.REFLECTION },
+                { "BYTECODE", FactoryBackends.BYTECODE },
+                { "METHOD_HANDLE", FactoryBackends.METHOD_HANDLE } });
+    }
+
+    private final FactoryBackend backend;
+
+    public FactoryBackendTest(String name, FactoryBackend backend) {
+        this.backend = backend;
+    }
+
+    @Singleton
+    public static class Part {
+    }
+
+    //生成的工厂无法引用这个类型, 注入它的成员走反射
+    private static class Secret {
+        Secret() {
+        }
+    }
+
+    public static class Base {
+        @Inject
+        private Part basePrivate;
+
+        @Inject
+        protected Part baseProtected;
+
+        Part fromBaseMethod;
+
+        @Inject
+        void initBase(Part part) {
+            fromBaseMethod = part;
+        }
+    }
+
+    public static class Bean extends Base {
+        final Part constructed;
+        final Provider<Part> constructedProvider;
+
+        @Inject
+        public Part publicField;
+
+        @Inject
+        Part packageField;
+
+        @Inject
+        private Part privateField;
+
+        @Inject
+        final Part finalField = null;
+
+        @Inject
+        private Secret secret;
+
+        Provider<Part> fromMethod;
+        Part fromPrivateMethod;
+
+        @Inject
+        public Bean(Part part, Provider<Part> provider) {
+            this.constructed = part;
+            this.constructedProvider = provider;
+        }
+
+        @Inject
+        public void init(Provider<Part> provider) {
+            fromMethod = provider;
+        }
+
+        @Inject
+        private void initPrivate(Part part) {
+            fromPrivateMethod = part;
+        }
+
+        Part basePrivate() {
+            return ((Base) this).basePrivate;
+        }
+    }
+
+    //private构造函数只能通过反射调用
+    public static class Hidden {
+        final Part part;
+
+        @Inject
+        private Hidden(Part part) {
+            this.part = part;
+        }
+    }
+
+    public static class Made {
+        final Part part;
+
+        Made(Part part) {
+            this.part = part;
+        }
+    }
+
+    public static class Product {
+    }
+
+    public static class MakerModule implements Module {
+        @Override
+        public void configure() {
+        }
+
+        @Provides
+        public Made made(Part part) {
+            return new Made(part);
+        }
+
+        @Provides
+        private Product product() {
+            return new Product();
+        }
+    }
+
+    @Test
+    public void injectsAllMembers() {
+        InjectorImpl injector = InjectorImpl.builder().backend(backend).build();
+        Part part = injector.instance(Part.class);
+        Bean bean = injector.instance(Bean.class);
+        assertSame(part, bean.constructed);
+        assertSame(part, bean.constructedProvider.get());
+        assertSame(part, bean.publicField);
+        assertSame(part, bean.packageField);
+        assertSame(part, bean.privateField);
+        assertSame(part, bean.finalField);
+        assertNotNull(bean.secret);
+        assertSame(part, bean.fromMethod.get());
+        assertSame(part, bean.fromPrivateMethod);
+        assertSame(part, bean.basePrivate());
+        assertSame(part, bean.baseProtected);
+        assertSame(part, bean.fromBaseMethod);
+        assertNotSame(bean, injector.instance(Bean.class));
+    }
+
+    @Test
+    public void privateConstructor() {
+        InjectorImpl injector = InjectorImpl.builder().backend(backend).build();
+        assertSame(injector.instance(Part.class), injector.instance(Hidden.class).part);
+    }
+
+    @Test
+    public void providesMethods() {
+        InjectorImpl injector = InjectorImpl.builder().backend(backend).modules(new MakerModule()).build();
+        assertSame(injector.instance(Part.class), injector.instance(Made.class).part);
+        assertNotNull(injector.instance(Product.class));
+    }
+
+    /**
+     * 生成成功时不能整个绑定退回到反射, 否则上面的测试覆盖不到生成代码中逐个成员的回退
+     */
+    @Test
+    public void generatedFactory() {
+        BeanFactory<?> created = created();
+        assertEquals(backend == FactoryBackends.REFLECTION, created.getClass().getSimpleName().equals("ReflectiveBeanFactory"));
+    }
+
+    /**
+     * 生成的工厂类按绑定的类复用, 不随injector的个数增长(METHOD_HANDLE第一次创建的工厂单独定义一份类)
+     */
+    @Test
+    public void factoryClassShared() {
+        created();
+        BeanFactory<?> second = created();
+        BeanFactory<?> third = created();
+        assertNotSame(second, third);
+        assertSame(second.getClass(), third.getClass());
+    }
+
+    /**
+     * @return 新建的injector为Bean创建的工厂
+     */
+    private BeanFactory<?> created() {
+        final BeanFactory<?>[] created = new BeanFactory<?>[1];
+        InjectorImpl injector = InjectorImpl.builder().backend(new FactoryBackend() {
+            @Override
+            public <T> BeanFactory<T> create(InjectionPlan<T> plan) {
+                BeanFactory<T> factory = backend.create(plan);
+                if (plan.getConstructor().getDeclaringClass() == Bean.class) {
+                    created[0] = factory;
+                }
+                return factory;
+            }
+
+            @Override
+            public <T> Provider<T> provides(Key<T> key, Object module, Method method, Provider<?>[] params) {
+                return backend.provides(key, module, method, params);
+            }
+        }).build();
+        injector.instance(Bean.class);
+        return created[0];
+    }
+}
@@ -0,0 +1,90 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectionPlan;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.factory.BeanFactory;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.factory.FactoryBackends;
+
+/**
+ * 每个绑定的注入计划只计算一次, 构造函数的依赖在计算计划时就解析成绑定的provider
+ */
+public class InjectionPlanTest {
+
+    @Singleton
+    public static class Dep {
+    }
+
+    public static class Proto {
+        final Dep dep;
+
+        @Inject
+        public Proto(Dep dep) {
+            this.dep = dep;
+        }
+    }
+
+    /** 记录每次创建工厂时的计划 */
+    static class RecordingBackend implements FactoryBackend {
+        final List<InjectionPlan<?>> plans = new ArrayList<InjectionPlan<?>>();
+
+        @Override
+        public synchronized <T> BeanFactory<T> create(InjectionPlan<T> plan) {
+            plans.add(plan);
+            return FactoryBackends.REFLECTION.create(plan);
+        }
+
+        @Override
+        public <T> Provider<T> provides(Key<T> key, Object module, Method method, Provider<?>[] params) {
+            return FactoryBackends.REFLECTION.provides(key, module, method, params);
+        }
+
+        synchronized List<InjectionPlan<?>> plansOf(Class<?> type) {
+            List<InjectionPlan<?>> result = new ArrayList<InjectionPlan<?>>();
+            for (InjectionPlan<?> plan : plans) {
+                if (plan.getConstructor().getDeclaringClass() == type) {
+                    result.add(plan);
+                }
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void planComputedOnce() {
+        RecordingBackend backend = new RecordingBackend();
+        InjectorImpl injector = InjectorImpl.builder().backend(backend).build();
+        Proto first = injector.instance(Proto.class);
+        Proto second = injector.instance(Proto.class);
+        injector.instance(Proto.class);
+        assertNotSame(first, second);
+        assertSame(first.dep, second.dep);
+        assertEquals(1, backend.plansOf(Proto.class).size());
+    }
+
+    @Test
+    public void constructorDependenciesResolvedWithPlan() {
+        RecordingBackend backend = new RecordingBackend();
+        InjectorImpl injector = InjectorImpl.builder().backend(backend).build();
+        injector.instance(Proto.class);
+        Provider<?>[] providers = backend.plansOf(Proto.class).get(0).getConstructorProviders();
+        assertEquals(1, providers.length);
+        //直接是Dep的绑定, 而不是每次get()都重新查找绑定的包装
+        assertSame(injector.provider(Dep.class), providers[0]);
+    }
+}
@@ -0,0 +1,133 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Lazy;
+import lemon.needle.ioc.annotations.Deferred;
+import lemon.needle.ioc.annotations.ImplementedBy;
+
+/**
+ * 字段、方法和构造函数上的 Provider&lt;T&gt;、Lazy&lt;T&gt; 和 @Deferred 注入
+ */
+public class LazyInjectionTest {
+
+    static final AtomicInteger created = new AtomicInteger();
+
+    public static class Expensive {
+        public Expensive() {
+            created.incrementAndGet();
+        }
+    }
+
+    @ImplementedBy(AuditSinkImpl.class)
+    public interface AuditSink {
+        String record(String event);
+    }
+
+    public static class AuditSinkImpl implements AuditSink {
+        public AuditSinkImpl() {
+            created.incrementAndGet();
+        }
+
+        @Override
+        public String record(String event) {
+            return "recorded " + event;
+        }
+    }
+
+    public static class Service {
+        @Inject
+        Provider<Expensive> provider;
+
+        @Inject
+        Lazy<Expensive> lazy;
+
+        @Inject
+        @Deferred
+        AuditSink audit;
+
+        Lazy<Expensive> fromMethod;
+
+        @Inject
+        void init(Lazy<Expensive> lazy) {
+            this.fromMethod = lazy;
+        }
+    }
+
+    //非public接口: 代理类同样非public
+    @ImplementedBy(FixedClock.class)
+    interface Clock {
+        long now();
+    }
+
+    public static class FixedClock implements Clock {
+        @Override
+        public long now() {
+            return 42;
+        }
+    }
+
+    public static class Timer {
+        @Inject
+        @Deferred
+        Clock field;
+
+        final Clock constructed;
+
+        @Inject
+        public Timer(@Deferred Clock constructed) {
+            this.constructed = constructed;
+        }
+    }
+
+    public static class Client {
+        final Lazy<Expensive> lazy;
+
+        @Inject
+        public Client(Lazy<Expensive> lazy) {
+            this.lazy = lazy;
+        }
+    }
+
+    @Test
+    public void nothingCreatedUntilUsed() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        created.set(0);
+        Service service = injector.instance(Service.class);
+        Client client = injector.instance(Client.class);
+        assertEquals(0, created.get());
+
+        assertNotSame(service.provider.get(), service.provider.get());
+        assertEquals(2, created.get());
+
+        Expensive first = service.lazy.get();
+        assertSame(first, service.lazy.get());
+        assertSame(service.fromMethod.get(), service.fromMethod.get());
+        assertSame(client.lazy.get(), client.lazy.get());
+        assertEquals(5, created.get());
+
+        assertTrue(service.audit.toString().startsWith("Deferred"));
+        assertEquals(5, created.get());
+        assertEquals("recorded login", service.audit.record("login"));
+        assertEquals("recorded logout", service.audit.record("logout"));
+        assertEquals(6, created.get());
+    }
+
+    @Test
+    public void deferredNonPublicInterface() {
+        Timer timer = InjectorImpl.builder().build().instance(Timer.class);
+        assertEquals(42, timer.field.now());
+        assertEquals(42, timer.constructed.now());
+    }
+}
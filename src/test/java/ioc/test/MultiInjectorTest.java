@@ -0,0 +1,163 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * 同一个JVM中的多个injector互相独立: 各自持有自己的绑定和单例;
+ * 子injector优先使用自己的绑定, 其余共享父injector
+ */
+public class MultiInjectorTest {
+
+    @Singleton
+    public static class Tenant {
+    }
+
+    public static class Worker {
+        @Inject
+        Tenant tenant;
+    }
+
+    @Test
+    public void injectorsDoNotShareSingletons() {
+        InjectorImpl first = InjectorImpl.builder().build();
+        InjectorImpl second = InjectorImpl.builder().build();
+        assertNotNull(second);
+        assertSame(first.instance(Tenant.class), first.instance(Worker.class).tenant);
+        assertSame(second.instance(Tenant.class), second.instance(Worker.class).tenant);
+        assertNotSame(first.instance(Tenant.class), second.instance(Tenant.class));
+    }
+
+    @Test
+    public void childOverridesAndSharesParent() {
+        final Tenant override = new Tenant();
+        InjectorImpl parent = InjectorImpl.builder().build();
+        Tenant shared = parent.instance(Tenant.class);
+        InjectorImpl child = parent.createChild(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Tenant.class).to(override);
+            }
+        });
+        assertSame(parent, child.getParent());
+        assertSame(override, child.instance(Tenant.class));
+        assertSame(override, child.instance(Worker.class).tenant);
+        assertSame(shared, parent.instance(Worker.class).tenant);
+
+        InjectorImpl sibling = parent.createChild();
+        assertSame(shared, sibling.instance(Tenant.class));
+    }
+
+    @Singleton
+    public static class Registry {
+        @Inject
+        Provider<Worker> workers;
+    }
+
+    public static class Service {
+        @Inject
+        Provider<Tenant> tenant;
+    }
+
+    private static InjectorImpl overriding(InjectorImpl parent, final Tenant override) {
+        return parent.createChild(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Tenant.class).to(override);
+            }
+        });
+    }
+
+    //父injector先创建了Worker的just-in-time绑定, 子injector仍然使用自己覆盖的Tenant
+    @Test
+    public void childOverridesAfterParentResolved() {
+        Tenant override = new Tenant();
+        InjectorImpl parent = InjectorImpl.builder().build();
+        Tenant shared = parent.instance(Tenant.class);
+        assertSame(shared, parent.instance(Worker.class).tenant);
+        assertSame(shared, parent.instance(Service.class).tenant.get());
+
+        InjectorImpl child = overriding(parent, override);
+        assertSame(override, child.instance(Worker.class).tenant);
+        assertSame(override, child.instance(Service.class).tenant.get());
+        assertSame(shared, parent.instance(Worker.class).tenant);
+    }
+
+    //子injector先请求父injector的单例, 单例仍然创建在父injector中并共享
+    @Test
+    public void parentSingletonSharedWhenChildAsksFirst() {
+        InjectorImpl parent = InjectorImpl.builder().build();
+        InjectorImpl child = parent.createChild();
+        Tenant tenant = child.instance(Tenant.class);
+        assertSame(tenant, parent.instance(Tenant.class));
+        assertSame(tenant, parent.createChild().instance(Tenant.class));
+
+        //只通过Provider依赖被覆盖的绑定同样不能共享
+        Tenant override = new Tenant();
+        InjectorImpl overridden = overriding(parent, override);
+        Registry registry = overridden.instance(Registry.class);
+        assertSame(override, registry.workers.get().tenant);
+        assertNotSame(registry, parent.instance(Registry.class));
+        assertSame(tenant, parent.instance(Registry.class).workers.get().tenant);
+    }
+
+    @Test
+    public void grandchildSeesNearestOverride() {
+        Tenant first = new Tenant();
+        Tenant second = new Tenant();
+        InjectorImpl root = InjectorImpl.builder().build();
+        InjectorImpl child = overriding(root, first);
+        InjectorImpl grandchild = overriding(child, second);
+        assertSame(second, grandchild.instance(Worker.class).tenant);
+        assertSame(first, child.instance(Worker.class).tenant);
+        assertSame(root.instance(Tenant.class), root.instance(Worker.class).tenant);
+    }
+
+    @Test
+    public void concurrentInjectors() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Tenant>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(new Callable<Tenant>() {
+                    @Override
+                    public Tenant call() {
+                        InjectorImpl injector = InjectorImpl.builder().build();
+                        Tenant tenant = injector.instance(Worker.class).tenant;
+                        assertSame(tenant, injector.instance(Tenant.class));
+                        return tenant;
+                    }
+                }));
+            }
+            List<Tenant> tenants = new ArrayList<>();
+            for (Future<Tenant> future : futures) {
+                Tenant tenant = future.get();
+                for (Tenant other : tenants) {
+                    assertNotSame(other, tenant);
+                }
+                tenants.add(tenant);
+            }
+            assertEquals(64, tenants.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package ioc.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Module;
+import lemon.needle.ioc.annotations.ImplementedBy;
+import lemon.needle.ioc.factory.StaticFactory;
+import lemon.needle.ioc.factory.StaticIndex;
+import lemon.needle.ioc.factory.StaticProvides;
+import lemon.needle.ioc.scope.ThreadScoped;
+import lemon.needle.processor.NeedleProcessor;
+
+/**
+ * 用NeedleProcessor编译一组fixture, 检查生成的索引和工厂, 再用生成的工厂创建injector
+ */
+public class NeedleProcessorTest {
+
+    private static final String[][] FIXTURE = {
+            { "fixture/Foo.java", "package fixture;\n"
+                    + "@lemon.needle.ioc.annotations.ImplementedBy(FooImpl.class)\n"
+                    + "public interface Foo {}\n" },
+            { "fixture/FooImpl.java", "package fixture;\n"
+                    + "@javax.inject.Singleton\n"
+                    + "public class FooImpl implements Foo {\n"
+                    + "    public final Bar bar;\n"
+                    + "    @javax.inject.Inject public FooImpl(Bar bar) { this.bar = bar; }\n"
+                    + "}\n" },
+            { "fixture/Bar.java", "package fixture;\n"
+                    + "public class Bar {\n"
+                    + "    @javax.inject.Inject public Baz baz;\n"
+                    + "}\n" },
+            { "fixture/Baz.java", "package fixture;\n"
+                    + "public class Baz {}\n" },
+            { "fixture/Mods.java", "package fixture;\n"
+                    + "public class Mods extends lemon.needle.ioc.AbsModule {\n"
+                    + "    public static class Qux {}\n"
+                    + "    @Override public void configure() {}\n"
+                    + "    @lemon.needle.ioc.annotations.Provides @lemon.needle.ioc.scope.ThreadScoped\n"
+                    + "    public Qux qux(Baz baz) { return new Qux(); }\n"
+                    + "}\n" },
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File out;
+    private ClassLoader loader;
+
+    @Before
+    public void compile() throws IOException {
+        Assume.assumeTrue("needs a JDK", ToolProvider.getSystemJavaCompiler() != null);
+        out = folder.newFolder("out");
+        compile(folder.newFolder("src"), FIXTURE);
+        loader = new URLClassLoader(new URL[] { out.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    /**
+     * 编译到out, 之前编译的结果也在classpath上
+     */
+    private void compile(File src, String[][] fixture) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<File> sources = new ArrayList<File>();
+        for (String[] file : fixture) {
+            File source = new File(src, file[0]);
+            source.getParentFile().mkdirs();
+            Files.write(source.toPath(), file[1].getBytes(StandardCharsets.UTF_8));
+            sources.add(source);
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            String classpath = out.getPath() + File.pathSeparator + System.getProperty("java.class.path");
+            List<String> options = Arrays.asList("-d", out.getPath(), "-s", out.getPath(), "-classpath", classpath);
+            JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics, options, null, files.getJavaFileObjectsFromFiles(sources));
+            task.setProcessors(Arrays.asList(new NeedleProcessor()));
+            assertTrue(diagnostics.getDiagnostics().toString(), task.call());
+        }
+    }
+
+    @Test
+    public void writesIndex() throws IOException {
+        List<String> index = Files.readAllLines(new File(out, StaticIndex.LOCATION).toPath(), StandardCharsets.UTF_8);
+        assertTrue(index.contains("implementedBy fixture.Foo fixture.FooImpl"));
+        assertTrue(index.contains("factory fixture.FooImpl fixture.FooImpl$$NeedleFactory"));
+        assertTrue(index.contains("factory fixture.Bar fixture.Bar$$NeedleFactory"));
+        assertTrue(index.contains("provides fixture.Mods fixture.Mods$$NeedleProvides"));
+        //没有@Inject也没有作用域的类不需要工厂
+        for (String line : index) {
+            assertFalse(line, line.startsWith("factory fixture.Baz "));
+        }
+    }
+
+    /**
+     * 增量编译只处理部分类: 其他类的条目保留, 重新编译的类以新结果为准, 已删除的类的条目去掉
+     */
+    @Test
+    public void mergesExistingIndex() throws IOException {
+        Files.delete(new File(out, "fixture/Bar.class").toPath());
+        Files.delete(new File(out, "fixture/Bar$$NeedleFactory.class").toPath());
+        compile(folder.newFolder("incremental"), new String[][] {
+                { "fixture/Foo.java", "package fixture;\n"
+                        + "public interface Foo {}\n" },
+                { "fixture/Extra.java", "package fixture;\n"
+                        + "public class Extra {\n"
+                        + "    @javax.inject.Inject public Baz baz;\n"
+                        + "}\n" } });
+        List<String> index = Files.readAllLines(new File(out, StaticIndex.LOCATION).toPath(), StandardCharsets.UTF_8);
+        assertTrue(index.toString(), index.contains("factory fixture.Extra fixture.Extra$$NeedleFactory"));
+        assertTrue(index.toString(), index.contains("factory fixture.FooImpl fixture.FooImpl$$NeedleFactory"));
+        assertTrue(index.toString(), index.contains("provides fixture.Mods fixture.Mods$$NeedleProvides"));
+        assertFalse(index.toString(), index.contains("implementedBy fixture.Foo fixture.FooImpl"));
+        assertFalse(index.toString(), index.contains("factory fixture.Bar fixture.Bar$$NeedleFactory"));
+    }
+
+    @Test
+    public void generatesFactories() throws Exception {
+        StaticFactory<?> fooImpl = StaticIndex.factory(loader.loadClass("fixture.FooImpl"));
+        assertSame(Singleton.class, fooImpl.getScope());
+        assertEquals(1, fooImpl.getConstructorDependencies().length);
+        assertEquals(0, fooImpl.getMemberDependencies().length);
+
+        StaticFactory<?> bar = StaticIndex.factory(loader.loadClass("fixture.Bar"));
+        assertNull(bar.getScope());
+        assertEquals(1, bar.getMemberDependencies().length);
+        assertSame(loader.loadClass("fixture.FooImpl"), StaticIndex.implementedBy(loader.loadClass("fixture.Foo")));
+
+        StaticProvides<?> mods = StaticIndex.provides(loader.loadClass("fixture.Mods"));
+        assertEquals(1, mods.size());
+        assertSame(ThreadScoped.class, mods.getScope(0));
+        assertEquals("qux", mods.getMethod(0).getName());
+        assertArrayEquals(new Class<?>[] { loader.loadClass("fixture.Baz") }, mods.getMethod(0).getParameterTypes());
+    }
+
+    @Test
+    public void injectsWithGeneratedFactories() throws Exception {
+        Module module = (Module) loader.loadClass("fixture.Mods").newInstance();
+        InjectorImpl injector = InjectorImpl.builder().modules(module).build();
+        Class<?> foo = loader.loadClass("fixture.Foo");
+        Object first = injector.instance(foo);
+        assertSame(loader.loadClass("fixture.FooImpl"), first.getClass());
+        //@Singleton在实现类上
+        assertSame(first, injector.instance(foo));
+        Class<?> qux = loader.loadClass("fixture.Mods$Qux");
+        assertSame(injector.instance(qux), injector.instance(qux));
+    }
+
+    @ImplementedBy(ReflectiveFooImpl.class)
+    public interface ReflectiveFoo {
+    }
+
+    @Singleton
+    public static class ReflectiveFooImpl implements ReflectiveFoo {
+        @Inject
+        public ReflectiveFooImpl() {
+        }
+    }
+
+    public static class Unscoped {
+    }
+
+    @Test
+    public void reflectionUsesImplementationScope() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        assertSame(injector.instance(ReflectiveFoo.class), injector.instance(ReflectiveFoo.class));
+        assertNotSame(injector.instance(Unscoped.class), injector.instance(Unscoped.class));
+    }
+}
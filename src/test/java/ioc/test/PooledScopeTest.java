@@ -0,0 +1,189 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.scope.Pooled;
+import lemon.needle.ioc.scope.PooledScope;
+import lemon.needle.ioc.scope.PooledScope.Lease;
+import lemon.needle.ioc.scope.PooledScope.Pool;
+
+/**
+ * 对象池作用域: 借出、归还、重置和统计
+ */
+public class PooledScopeTest {
+
+    @Pooled(max = 2, timeoutMillis = 50)
+    public static class Parser implements PooledScope.Resettable {
+        StringBuilder buffer = new StringBuilder();
+        boolean released;
+
+        @Override
+        public void reset() {
+            buffer.setLength(0);
+        }
+    }
+
+    @Test
+    public void leaseReturnsToPool() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        Provider<Parser> parsers = injector.provider(Parser.class);
+
+        Parser first;
+        try (Lease<Parser> lease = PooledScope.lease(parsers)) {
+            first = lease.get();
+            first.buffer.append("dirty");
+        }
+        assertEquals(0, first.buffer.length());
+        try (Lease<Parser> lease = PooledScope.lease(parsers)) {
+            assertSame(first, lease.get());
+        }
+
+        Pool<Parser> pool = injector.getPooledScope().pool(Key.of(Parser.class));
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getCreationCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void boundedByMax() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        Provider<Parser> parsers = injector.provider(Parser.class);
+        Pool<Parser> pool = injector.getPooledScope().pool(Key.of(Parser.class));
+
+        Parser a = parsers.get();
+        Parser b = parsers.get();
+        assertNotSame(a, b);
+        try {
+            parsers.get();
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+        }
+        assertEquals(1, pool.getWaitCount());
+        assertTrue(pool.getTotalWaitNanos() > 0);
+
+        pool.release(a);
+        assertSame(a, parsers.get());
+        assertEquals(2, pool.getCreationCount());
+    }
+
+    @Test
+    public void resetHook() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        injector.getPooledScope().onReset(Key.of(Parser.class), new Consumer<Parser>() {
+            @Override
+            public void accept(Parser parser) {
+                parser.released = true;
+            }
+        });
+        Lease<Parser> lease = PooledScope.lease(injector.provider(Parser.class));
+        Parser parser = lease.get();
+        assertFalse(parser.released);
+        lease.close();
+        assertTrue(parser.released);
+    }
+
+    @Test
+    public void foreignOrDoubleReleaseFails() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        Provider<Parser> parsers = injector.provider(Parser.class);
+        Pool<Parser> pool = injector.getPooledScope().pool(Key.of(Parser.class));
+
+        Parser parser = parsers.get();
+        pool.release(parser);
+        try {
+            pool.release(parser);
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(e.getMessage().contains("already been released"));
+        }
+        try {
+            pool.release(new Parser());
+            fail();
+        } catch (NeedleException e) {
+            assertTrue(e.getMessage().contains("not borrowed"));
+        }
+        //失败的归还不占用许可, 仍能借出max个
+        assertNotSame(parsers.get(), parsers.get());
+        assertEquals(2, pool.getCreationCount());
+    }
+
+    public static class FieldClient {
+        @Inject
+        Parser parser;
+    }
+
+    public static class ConstructorClient {
+        @Inject
+        public ConstructorClient(Parser parser) {
+        }
+    }
+
+    public static class ProviderClient {
+        @Inject
+        Provider<Parser> parsers;
+    }
+
+    @Test
+    public void onlyProviderInjection() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        assertNotNull(injector.instance(ProviderClient.class).parsers.get());
+        for (Class<?> type : Arrays.<Class<?>> asList(FieldClient.class, ConstructorClient.class, Parser.class)) {
+            try {
+                injector.instance(type);
+                fail(type.getName());
+            } catch (NeedleException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("can only be injected as a Provider"));
+            }
+        }
+        //绑定失败时还没有借出任何实例
+        assertEquals(1, injector.getPooledScope().pool(Key.of(Parser.class)).getBorrowCount());
+    }
+
+    /**
+     * 子injector覆盖的绑定有自己的池, 父injector的池不受影响; 没有覆盖的子injector查到父injector的池
+     */
+    @Test
+    public void childPoolsSeparate() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        Provider<Parser> parsers = injector.provider(Parser.class);
+        Parser borrowed = parsers.get();
+        InjectorImpl child = injector.createChild(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Parser.class).to(Parser.class).in(Pooled.class);
+            }
+        });
+        Provider<Parser> childParsers = child.provider(Parser.class);
+        assertNotSame(borrowed, childParsers.get());
+
+        Key<Parser> key = Key.of(Parser.class);
+        Pool<Parser> pool = injector.getPooledScope().pool(key);
+        assertNotSame(pool, child.getPooledScope().pool(key));
+        assertEquals(1, child.getPooledScope().pool(key).getBorrowCount());
+        //借出的实例仍然归还到父injector的池
+        pool.release(borrowed);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(borrowed, parsers.get());
+        assertSame(pool, injector.createChild().getPooledScope().pool(key));
+    }
+}
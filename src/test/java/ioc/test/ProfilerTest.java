@@ -0,0 +1,226 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.profile.BindingTiming;
+import lemon.needle.ioc.profile.Phase;
+import lemon.needle.ioc.profile.Profiler;
+
+/**
+ * 嵌套实例化的耗时: 依赖的耗时计入dependency而不是self, 导出的JSON和collapsed stack可以解析
+ */
+public class ProfilerTest {
+
+    private static final long INNER_MILLIS = 200;
+    private static final long OUTER_MILLIS = 20;
+
+    public static class Inner {
+        public Inner() throws InterruptedException {
+            Thread.sleep(INNER_MILLIS);
+        }
+    }
+
+    public static class Outer {
+        @Inject
+        public Outer(Inner inner) throws InterruptedException {
+            Thread.sleep(OUTER_MILLIS);
+        }
+    }
+
+    private static Profiler profiler;
+
+    @BeforeClass
+    public static void init() {
+        InjectorImpl injector = InjectorImpl.builder().profile(true).build();
+        injector.instance(Outer.class);
+        profiler = injector.getProfiler();
+    }
+
+    @Test
+    public void selfExcludesDependencies() {
+        BindingTiming outer = profiler.getTiming(Key.of(Outer.class));
+        BindingTiming inner = profiler.getTiming(Key.of(Inner.class));
+        assertNotNull(outer);
+        assertNotNull(inner);
+        assertEquals(1, outer.getCount(Phase.CONSTRUCTION));
+        assertEquals(1, inner.getCount(Phase.CONSTRUCTION));
+
+        assertTrue(inner.toString(), inner.getSelfNanos() >= TimeUnit.MILLISECONDS.toNanos(INNER_MILLIS));
+        assertTrue(outer.toString(), outer.getSelfNanos() >= TimeUnit.MILLISECONDS.toNanos(OUTER_MILLIS));
+        //Inner的耗时只计入Outer的dependency
+        assertTrue(outer.toString(), outer.getSelfNanos() < TimeUnit.MILLISECONDS.toNanos(INNER_MILLIS));
+        assertTrue(outer.getDependencyNanos(Phase.CONSTRUCTION) >= inner.getTotalNanos());
+        assertEquals(outer.getTotalNanos(), outer.getSelfNanos() + outer.getDependencyNanos(Phase.CONSTRUCTION) + outer.getDependencyNanos(Phase.MEMBERS));
+        assertEquals(outer, profiler.getTimings().get(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void jsonParses() throws Exception {
+        StringWriter json = new StringWriter();
+        profiler.writeJson(json);
+        Object parsed = new Json(json.toString()).parse();
+        assertTrue(parsed instanceof List);
+
+        Map<String, Map<String, Object>> byKey = new HashMap<>();
+        for (Object entry : (List<Object>) parsed) {
+            Map<String, Object> binding = (Map<String, Object>) entry;
+            byKey.put((String) binding.get("key"), binding);
+        }
+        Map<String, Object> outer = byKey.get(Key.of(Outer.class).toString());
+        Map<String, Object> inner = byKey.get(Key.of(Inner.class).toString());
+        assertNotNull(json.toString(), outer);
+        assertNotNull(json.toString(), inner);
+
+        Map<String, Object> construction = (Map<String, Object>) outer.get("construction");
+        assertEquals(1L, construction.get("count"));
+        assertTrue(json.toString(), (Long) outer.get("selfMicros") < (Long) outer.get("totalMicros"));
+        assertTrue(json.toString(), (Long) construction.get("dependencyMicros") >= (Long) inner.get("selfMicros"));
+        assertTrue(json.toString(), (Long) inner.get("selfMicros") >= TimeUnit.MILLISECONDS.toMicros(INNER_MILLIS));
+    }
+
+    @Test
+    public void collapsedStacksParse() throws Exception {
+        StringWriter collapsed = new StringWriter();
+        profiler.writeCollapsedStacks(collapsed);
+        Map<String, Long> stacks = new HashMap<>();
+        for (String line : collapsed.toString().split("\n")) {
+            int space = line.lastIndexOf(' ');
+            assertTrue(line, space > 0);
+            String stack = line.substring(0, space);
+            assertTrue(line, stack.indexOf(' ') < 0);
+            for (String frame : stack.split(";")) {
+                assertTrue(line, frame.matches(".+\\[(construction|members|provides)\\]"));
+            }
+            stacks.put(stack, Long.parseLong(line.substring(space + 1)));
+        }
+        String outer = Key.of(Outer.class) + "[construction]";
+        String nested = outer + ";" + Key.of(Inner.class) + "[construction]";
+        assertTrue(stacks.toString(), stacks.get(nested) >= TimeUnit.MILLISECONDS.toMicros(INNER_MILLIS));
+        assertTrue(stacks.toString(), stacks.get(outer) < TimeUnit.MILLISECONDS.toMicros(INNER_MILLIS));
+    }
+
+    /**
+     * 只用于校验导出结果的JSON解析: 对象为Map, 数组为List, 整数为Long
+     */
+    private static final class Json {
+        private final String text;
+        private int position;
+
+        Json(String text) {
+            this.text = text;
+        }
+
+        Object parse() {
+            Object value = value();
+            skipWhitespace();
+            if (position != text.length()) {
+                fail("trailing characters at " + position + ": " + text);
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            char c = text.charAt(position);
+            if (c == '{') {
+                return object();
+            } else if (c == '[') {
+                return array();
+            } else if (c == '"') {
+                return string();
+            } else if (c == '-' || Character.isDigit(c)) {
+                int start = position++;
+                while (position < text.length() && Character.isDigit(text.charAt(position))) {
+                    position++;
+                }
+                return Long.parseLong(text.substring(start, position));
+            }
+            throw new AssertionError("unexpected '" + c + "' at " + position + ": " + text);
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (text.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+            do {
+                skipWhitespace();
+                String name = string();
+                skipWhitespace();
+                expect(':');
+                object.put(name, value());
+                skipWhitespace();
+            } while (text.charAt(position++) == ',');
+            assertEquals('}', text.charAt(position - 1));
+            return object;
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (text.charAt(position) == ']') {
+                position++;
+                return array;
+            }
+            do {
+                array.add(value());
+                skipWhitespace();
+            } while (text.charAt(position++) == ',');
+            assertEquals(']', text.charAt(position - 1));
+            return array;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            for (char c = text.charAt(position++); c != '"'; c = text.charAt(position++)) {
+                if (c == '\\') {
+                    char escaped = text.charAt(position++);
+                    if (escaped == 'u') {
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    } else {
+                        value.append(escaped);
+                    }
+                } else {
+                    assertTrue("control character in string at " + position, c >= 0x20);
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+
+        private void expect(char c) {
+            assertEquals("at " + position + ": " + text, c, text.charAt(position++));
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.scope.RefreshScope;
+import lemon.needle.ioc.scope.RefreshScope.RefreshProvider;
+import lemon.needle.ioc.scope.Refreshable;
+import lemon.needle.ioc.scope.SingletonScope;
+
+/**
+ * 可刷新单例: 后台重建后替换实例, 失败时保留旧实例
+ */
+public class RefreshScopeTest {
+
+    static final AtomicInteger versions = new AtomicInteger();
+    static volatile boolean broken;
+
+    @Refreshable(period = 20, unit = TimeUnit.MILLISECONDS)
+    public static class Routes {
+        final int version;
+
+        public Routes() {
+            if (broken) {
+                throw new IllegalStateException("routes unavailable");
+            }
+            version = versions.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void refreshesInBackground() throws Exception {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        try {
+            Routes first = injector.instance(Routes.class);
+            assertSame(first, injector.instance(Routes.class));
+            RefreshProvider<Routes> provider = injector.getRefreshScope().provider(Key.of(Routes.class));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (provider.getRefreshCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(provider.getRefreshCount() > 0);
+            Routes next = injector.instance(Routes.class);
+            assertNotSame(first, next);
+            assertTrue(next.version > first.version);
+        } finally {
+            injector.getRefreshScope().shutdown();
+        }
+    }
+
+    @Test
+    public void failureKeepsPreviousInstance() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        Provider<Routes> routes = injector.provider(Routes.class);
+        Routes current = routes.get();
+        //只测试手动重建, 停止后台重建
+        injector.getRefreshScope().shutdown();
+        RefreshProvider<Routes> provider = injector.getRefreshScope().provider(Key.of(Routes.class));
+        broken = true;
+        try {
+            assertFalse(provider.refresh());
+        } finally {
+            broken = false;
+        }
+        assertSame(current, routes.get());
+        assertEquals(1, provider.getFailureCount());
+        assertNotNull(provider.getLastFailure());
+        assertTrue(provider.getStalenessNanos() > 0);
+    }
+
+    /**
+     * 不再被引用的injector可以被回收, 不需要shutdown(); 默认的后台线程仍在为其他injector重建
+     */
+    @Test
+    public void droppedInjectorCollected() throws Exception {
+        WeakReference<InjectorImpl> dropped = dropInjector();
+        InjectorImpl injector = InjectorImpl.builder().build();
+        try {
+            injector.instance(Routes.class);
+            RefreshProvider<Routes> provider = injector.getRefreshScope().provider(Key.of(Routes.class));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((dropped.get() != null || provider.getRefreshCount() == 0) && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertTrue(dropped.get() == null);
+            assertTrue(provider.getRefreshCount() > 0);
+        } finally {
+            injector.getRefreshScope().shutdown();
+        }
+    }
+
+    /**
+     * provider被回收后, 它的任务在下一次执行时取消自己
+     */
+    @Test
+    public void collectedProviderCancelsTask() throws Exception {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        try {
+            WeakReference<RefreshScope> dropped = dropScope(scheduler);
+            assertEquals(1, scheduler.getQueue().size());
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((dropped.get() != null || !scheduler.getQueue().isEmpty()) && System.currentTimeMillis() < deadline) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertTrue(dropped.get() == null);
+            assertTrue(scheduler.getQueue().isEmpty());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static WeakReference<InjectorImpl> dropInjector() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        injector.instance(Routes.class);
+        return new WeakReference<InjectorImpl>(injector);
+    }
+
+    private static WeakReference<RefreshScope> dropScope(ScheduledThreadPoolExecutor scheduler) {
+        RefreshScope scope = new RefreshScope(new SingletonScope(), scheduler);
+        Key<Routes> key = Key.of(Routes.class);
+        scope.scope(key, new Provider<Routes>() {
+            @Override
+            public Routes get() {
+                return new Routes();
+            }
+        }, Routes.class.getAnnotation(Refreshable.class)).get();
+        return new WeakReference<RefreshScope>(scope);
+    }
+}
@@ -0,0 +1,140 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.scope.RequestScope;
+import lemon.needle.ioc.scope.RequestScoped;
+
+/**
+ * 请求作用域: 同一个请求中共享一个实例, 请求之间互不影响
+ */
+public class RequestScopeTest {
+
+    private static InjectorImpl injector;
+
+    @BeforeClass
+    public static void init() {
+        injector = InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Cart.class).to(Cart.class).in(RequestScoped.class);
+            }
+        }).build();
+    }
+
+    @RequestScoped
+    public static class User {
+    }
+
+    public static class Cart {
+    }
+
+    public static class Handler {
+        @Inject
+        User user;
+        @Inject
+        Cart cart;
+    }
+
+    @Test
+    public void onePerRequest() {
+        RequestScope request = injector.getRequestScope();
+        Handler first;
+        request.enter();
+        try {
+            assertTrue(request.isActive());
+            first = injector.instance(Handler.class);
+            Handler second = injector.instance(Handler.class);
+            assertNotSame(first, second);
+            assertSame(first.user, second.user);
+            assertSame(first.cart, second.cart);
+        } finally {
+            request.exit();
+        }
+        assertFalse(request.isActive());
+
+        request.enter();
+        try {
+            Handler next = injector.instance(Handler.class);
+            assertNotSame(first.user, next.user);
+            assertNotSame(first.cart, next.cart);
+        } finally {
+            request.exit();
+        }
+    }
+
+    @Test(expected = NeedleException.class)
+    public void outsideRequest() {
+        injector.instance(User.class);
+    }
+
+    private static AbsModule cartModule() {
+        return new AbsModule() {
+            @Override
+            public void configure() {
+                bind(Cart.class).to(Cart.class).in(RequestScoped.class);
+            }
+        };
+    }
+
+    /**
+     * 子injector共用RequestScope, 重复绑定同一个key不再分配新的槽位
+     */
+    @Test
+    public void childBindingsReuseSlot() throws Exception {
+        RequestScope request = injector.getRequestScope();
+        Field slots = RequestScope.class.getDeclaredField("slots");
+        slots.setAccessible(true);
+        injector.createChild(cartModule());
+        int allocated = ((AtomicInteger) slots.get(request)).get();
+        for (int i = 0; i < 100; i++) {
+            injector.createChild(cartModule());
+        }
+        assertEquals(allocated, ((AtomicInteger) slots.get(request)).get());
+    }
+
+    /**
+     * 同一个key的不同绑定共用槽位, 同一个请求中仍然各自一个实例
+     */
+    @Test
+    public void childOverrideInSameRequest() {
+        InjectorImpl first = injector.createChild(cartModule());
+        InjectorImpl second = injector.createChild(cartModule());
+        RequestScope request = injector.getRequestScope();
+        request.enter();
+        try {
+            Cart parentCart = injector.instance(Cart.class);
+            Cart firstCart = first.instance(Cart.class);
+            Cart secondCart = second.instance(Cart.class);
+            assertNotSame(parentCart, firstCart);
+            assertNotSame(parentCart, secondCart);
+            assertNotSame(firstCart, secondCart);
+            assertSame(parentCart, injector.instance(Cart.class));
+            assertSame(firstCart, first.instance(Cart.class));
+            assertSame(secondCart, second.instance(Cart.class));
+        } finally {
+            request.exit();
+        }
+        request.enter();
+        try {
+            assertNotSame(injector.instance(Cart.class), first.instance(Cart.class));
+        } finally {
+            request.exit();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ioc.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.scope.RequestScope;
+import lemon.needle.ioc.scope.RequestScoped;
+import lemon.needle.ioc.scope.ScopeContext;
+import lemon.needle.ioc.scope.ScopePropagation;
+import lemon.needle.ioc.scope.SessionScoped;
+
+/**
+ * 请求和会话作用域随任务传递到线程池和CompletableFuture
+ */
+public class ScopePropagationTest {
+
+    private static InjectorImpl injector;
+    private static ExecutorService pool;
+
+    @RequestScoped
+    public static class Trace {
+    }
+
+    @SessionScoped
+    public static class Cart {
+    }
+
+    @BeforeClass
+    public static void init() {
+        injector = InjectorImpl.builder().build();
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void executorService() throws Exception {
+        ScopePropagation propagation = injector.getScopePropagation();
+        ExecutorService propagating = propagation.wrap(pool);
+        injector.getRequestScope().enter();
+        injector.getSessionScope().enter("s1");
+        try {
+            Trace trace = injector.instance(Trace.class);
+            Cart cart = injector.instance(Cart.class);
+            assertSame(trace, propagating.submit(new Callable<Trace>() {
+                @Override
+                public Trace call() {
+                    return injector.instance(Trace.class);
+                }
+            }).get());
+            assertSame(cart, propagating.submit(new Callable<Cart>() {
+                @Override
+                public Cart call() {
+                    return injector.instance(Cart.class);
+                }
+            }).get());
+        } finally {
+            injector.getSessionScope().exit();
+            injector.getRequestScope().exit();
+        }
+    }
+
+    @Test
+    public void completableFuture() throws Exception {
+        RequestScope request = injector.getRequestScope();
+        request.enter();
+        try {
+            final Trace trace = injector.instance(Trace.class);
+            ScopeContext context = injector.getScopePropagation().capture();
+            Trace last = injector.getScopePropagation().supplyAsync(new Supplier<Trace>() {
+                @Override
+                public Trace get() {
+                    return injector.instance(Trace.class);
+                }
+            }, pool).thenApplyAsync(new Function<Trace, Trace>() {
+                @Override
+                public Trace apply(Trace previous) {
+                    assertSame(trace, previous);
+                    return injector.instance(Trace.class);
+                }
+            }, context.wrap(pool)).get();
+            assertSame(trace, last);
+        } finally {
+            request.exit();
+        }
+    }
+
+    @Test(expected = NeedleException.class)
+    public void attachAfterRequestEnded() {
+        RequestScope request = injector.getRequestScope();
+        request.enter();
+        ScopeContext context;
+        try {
+            context = injector.getScopePropagation().capture();
+        } finally {
+            request.exit();
+        }
+        assertFalse(request.isActive());
+        context.attach();
+    }
+
+    @Test
+    public void taskOutlivesRequest() throws Exception {
+        final RequestScope request = injector.getRequestScope();
+        final CountDownLatch attached = new CountDownLatch(1);
+        final CountDownLatch nextRequest = new CountDownLatch(1);
+        request.enter();
+        Future<Object> task;
+        try {
+            injector.instance(Trace.class);
+            task = injector.getScopePropagation().wrap(pool).submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    attached.countDown();
+                    nextRequest.await();
+                    try {
+                        return injector.instance(Trace.class);
+                    } catch (NeedleException e) {
+                        return e;
+                    }
+                }
+            });
+            attached.await();
+        } finally {
+            request.exit();
+        }
+        //同一线程开始下一个请求, 仍在运行的任务不能拿到这个请求的bean
+        request.enter();
+        try {
+            Trace next = injector.instance(Trace.class);
+            nextRequest.countDown();
+            Object resolved = task.get();
+            assertTrue(String.valueOf(resolved), resolved instanceof NeedleException);
+            assertSame(next, injector.instance(Trace.class));
+        } finally {
+            request.exit();
+        }
+    }
+}
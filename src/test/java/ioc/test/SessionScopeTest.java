@@ -0,0 +1,72 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.scope.SessionScope;
+import lemon.needle.ioc.scope.SessionScope.Session;
+import lemon.needle.ioc.scope.SessionScoped;
+
+/**
+ * 会话作用域: 同一会话共享实例, 会话数有上限, 淘汰时通知监听器
+ */
+public class SessionScopeTest {
+
+    @SessionScoped
+    public static class Cart {
+    }
+
+    @Test
+    public void onePerSession() {
+        InjectorImpl injector = InjectorImpl.builder().build();
+        SessionScope session = injector.getSessionScope();
+        Cart a = inSession(injector, "a");
+        assertSame(a, inSession(injector, "a"));
+        assertNotSame(a, inSession(injector, "b"));
+        assertEquals(1, session.getSession("a").size());
+        assertEquals(2, session.stats().missCount());
+        assertEquals(1, session.stats().hitCount());
+
+        session.invalidate("a");
+        assertNotSame(a, inSession(injector, "a"));
+    }
+
+    @Test
+    public void boundedSessions() {
+        final List<String> removed = new ArrayList<>();
+        SessionScope sessions = SessionScope.builder().maximumSessions(2).removalListener(new RemovalListener<String, Session>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, Session> notification) {
+                removed.add(notification.getKey());
+            }
+        }).build();
+        InjectorImpl injector = InjectorImpl.builder().sessionScope(sessions).build();
+        for (int i = 0; i < 10; i++) {
+            inSession(injector, "s" + i);
+        }
+        assertTrue(sessions.size() <= 2);
+        assertTrue(sessions.stats().evictionCount() >= 8);
+        assertEquals(sessions.stats().evictionCount(), removed.size());
+    }
+
+    private static Cart inSession(InjectorImpl injector, String id) {
+        SessionScope session = injector.getSessionScope();
+        session.enter(id);
+        try {
+            return injector.instance(Cart.class);
+        } finally {
+            session.exit();
+        }
+    }
+}
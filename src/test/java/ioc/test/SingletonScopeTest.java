@@ -0,0 +1,133 @@
+package ioc.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import lemon.needle.exception.NeedleException;
+import lemon.needle.ioc.Key;
+import lemon.needle.ioc.scope.SingletonScope;
+
+/**
+ * SingletonScope的并发语义: 每个单例只构造一次, 跨线程的依赖环报错而不是死锁
+ */
+public class SingletonScopeTest {
+
+    private static final int THREADS = 16;
+
+    @Test(timeout = 10000)
+    public void constructedOnceUnderRace() throws Exception {
+        final AtomicInteger constructed = new AtomicInteger();
+        final Provider<Object> singleton = new SingletonScope().scope(Key.of(Object.class, "race"), new Provider<Object>() {
+            @Override
+            public Object get() {
+                constructed.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Object();
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return singleton.get();
+                    }
+                }));
+            }
+            start.countDown();
+            Object first = futures.get(0).get();
+            for (Future<Object> future : futures) {
+                assertSame(first, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, constructed.get());
+    }
+
+    /**
+     * 线程1创建A时需要B, 同时线程2创建B时需要A: 两个线程都进入构造后才去取对方
+     */
+    @Test(timeout = 10000)
+    public void crossThreadCycleFails() throws Exception {
+        SingletonScope scope = new SingletonScope();
+        final CountDownLatch bothConstructing = new CountDownLatch(2);
+        final AtomicReference<Provider<Object>> a = new AtomicReference<>();
+        final AtomicReference<Provider<Object>> b = new AtomicReference<>();
+        a.set(scope.scope(Key.of(Object.class, "cycleA"), dependingOn(b, bothConstructing)));
+        b.set(scope.scope(Key.of(Object.class, "cycleB"), dependingOn(a, bothConstructing)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            futures.add(executor.submit(get(a)));
+            futures.add(executor.submit(get(b)));
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<Object> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            assertTrue("a cycle between threads must fail", !failures.isEmpty());
+            boolean detected = false;
+            for (Throwable failure : failures) {
+                assertTrue(failure.toString(), failure instanceof NeedleException);
+                detected |= failure.getMessage().contains("dependency cycle between threads");
+            }
+            assertTrue(failures.toString(), detected);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Provider<Object> dependingOn(final AtomicReference<Provider<Object>> dependency, final CountDownLatch bothConstructing) {
+        return new Provider<Object>() {
+            @Override
+            public Object get() {
+                bothConstructing.countDown();
+                try {
+                    bothConstructing.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return dependency.get().get();
+            }
+        };
+    }
+
+    private static Callable<Object> get(final AtomicReference<Provider<Object>> provider) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                return provider.get().get();
+            }
+        };
+    }
+}
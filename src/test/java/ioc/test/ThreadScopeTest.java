@@ -0,0 +1,54 @@
+package ioc.test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.scope.ThreadScoped;
+
+/**
+ * 线程作用域: 每个线程一个实例, clear()后释放
+ */
+public class ThreadScopeTest {
+
+    @ThreadScoped
+    public static class Digest implements AutoCloseable {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void onePerThread() throws Exception {
+        final InjectorImpl injector = InjectorImpl.builder().build();
+        Digest digest = injector.instance(Digest.class);
+        assertSame(digest, injector.instance(Digest.class));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Digest other = executor.submit(new Callable<Digest>() {
+                @Override
+                public Digest call() {
+                    return injector.instance(Digest.class);
+                }
+            }).get();
+            assertNotSame(digest, other);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        injector.getThreadScope().clear();
+        assertTrue(digest.closed);
+        assertNotSame(digest, injector.instance(Digest.class));
+    }
+}
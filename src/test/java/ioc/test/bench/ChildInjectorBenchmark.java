@@ -0,0 +1,124 @@
+package ioc.test.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * 每个租户一个injector: 在共享父injector上createChild只装配租户自己的绑定,
+ * 对比每个租户都从头装配全部模块。每次调用创建 {@link #TENANTS} 个injector, 结果按单个injector计。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChildInjectorBenchmark {
+
+    static final int TENANTS = 1000;
+
+    static final int SHARED_BINDINGS = 500;
+
+    public static class Dep {
+    }
+
+    @Singleton
+    public static class Pool {
+    }
+
+    public static class Tenant {
+        final int id;
+
+        Tenant(int id) {
+            this.id = id;
+        }
+    }
+
+    public static class Service {
+        @Inject
+        Pool pool;
+        @Inject
+        Tenant tenant;
+    }
+
+    /**
+     * 所有租户相同的配置
+     */
+    public static class SharedModule extends AbsModule {
+        @Override
+        public void configure() {
+            for (int i = 0; i < SHARED_BINDINGS; i++) {
+                bind(Dep.class).named("dep" + i).to(new Dep());
+            }
+            bind(Pool.class).to(Pool.class).asEagerSingleton();
+        }
+    }
+
+    public static class TenantModule extends AbsModule {
+        private final int id;
+
+        TenantModule(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void configure() {
+            bind(Tenant.class).to(new Tenant(id));
+        }
+    }
+
+    private final SharedModule shared = new SharedModule();
+
+    private InjectorImpl parent;
+
+    @Setup
+    public void setup() {
+        parent = InjectorImpl.builder().modules(shared).build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TENANTS)
+    public void createChild(Blackhole bh) {
+        for (int i = 0; i < TENANTS; i++) {
+            InjectorImpl child = parent.createChild(new TenantModule(i));
+            bh.consume(child.instance(Service.class));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TENANTS)
+    public void createInjector(Blackhole bh) {
+        for (int i = 0; i < TENANTS; i++) {
+            InjectorImpl injector = InjectorImpl.builder().modules(shared, new TenantModule(i)).build();
+            bh.consume(injector.instance(Service.class));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(ChildInjectorBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
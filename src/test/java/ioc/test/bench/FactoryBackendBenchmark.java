@@ -0,0 +1,95 @@
+package ioc.test.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.factory.FactoryBackend;
+import lemon.needle.ioc.factory.FactoryBackends;
+
+/**
+ * 原型bean的实例化开销: 反射 vs javassist生成的工厂类 vs MethodHandle。
+ * 
+ * 用main方法运行。BYTECODE在JDK9+上需要 --add-opens java.base/java.lang=ALL-UNNAMED, 否则会退回到反射。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactoryBackendBenchmark {
+
+    public static class Dep {
+    }
+
+    public static class Proto {
+        @Inject
+        Dep a;
+        @Inject
+        Dep b;
+        Dep c;
+
+        @Inject
+        void setC(Dep c) {
+            this.c = c;
+        }
+    }
+
+    public static class CtorProto {
+        final Dep a;
+        final Dep b;
+
+        @Inject
+        public CtorProto(Dep a, Dep b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    @Param({ "REFLECTION", "BYTECODE", "METHOD_HANDLE" })
+    public String backend;
+
+    private InjectorImpl injector;
+
+    @Setup
+    public void setup() throws Exception {
+        injector = InjectorImpl.builder().backend((FactoryBackend) FactoryBackends.class.getField(backend).get(null)).build();
+    }
+
+    @Benchmark
+    public Object memberInjection() {
+        return injector.instance(Proto.class);
+    }
+
+    @Benchmark
+    public Object constructorInjection() {
+        return injector.instance(CtorProto.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder opt = new OptionsBuilder();
+        opt.include(FactoryBackendBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class);
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            opt.jvmArgsAppend("--add-opens=java.base/java.lang=ALL-UNNAMED");
+        }
+        new Runner(opt.build()).run();
+    }
+}
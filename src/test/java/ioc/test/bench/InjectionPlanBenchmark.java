@@ -0,0 +1,90 @@
+package ioc.test.bench;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.ioc.Needle;
+
+/**
+ * 原型bean的实例化开销: 复用缓存的InjectionPlan vs 每次都重新反射扫描(缓存之前的做法)。
+ * 
+ * 用main方法运行, 会附带GC profiler, 对比两者的 gc.alloc.rate.norm (每次操作分配的字节数)。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionPlanBenchmark {
+
+    public static class Dep {
+    }
+
+    public static class Proto {
+        @Inject
+        Dep a;
+        @Inject
+        Dep b;
+        Dep c;
+
+        @Inject
+        void setC(Dep c) {
+            this.c = c;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Needle.createInjector();
+    }
+
+    @Benchmark
+    public Object cachedPlan() {
+        return Needle.getInstance(Proto.class);
+    }
+
+    @Benchmark
+    public Object rescan() throws Exception {
+        Proto bean = Proto.class.getDeclaredConstructor().newInstance();
+        for (Class<?> current = Proto.class; current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Inject.class)) {
+                    field.setAccessible(true);
+                    field.set(bean, Needle.getInstance(field.getType()));
+                }
+            }
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Inject.class)) {
+                    method.setAccessible(true);
+                    method.invoke(bean, Needle.getInstance(method.getParameterTypes()[0]));
+                }
+            }
+        }
+        return bean;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(InjectionPlanBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
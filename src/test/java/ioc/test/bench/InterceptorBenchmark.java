@@ -0,0 +1,121 @@
+package ioc.test.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.aop.InterceptorToggle;
+import lemon.needle.aop.Matchers;
+import lemon.needle.aop.ProxyBackends;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorBuilder;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * 被拦截方法的调用开销: 直接调用 vs 经过1个和4个透传拦截器, 以及4个拦截器都被 {@link InterceptorToggle} 关闭时(cglib和javassist代理,
+ * 后者经过SwitchPoint保护的MethodHandle分发)。
+ *
+ * 配合GCProfiler看每次调用的分配; 异常路径的裁剪由 -Dneedle_prune_aop_stack_traces=ON 开启, 默认不计入。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    public static class Service {
+        public int work(int x) {
+            return x + 1;
+        }
+    }
+
+    static final MethodInterceptor PASS = new MethodInterceptor() {
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            return invocation.proceed();
+        }
+    };
+
+    private Service direct;
+    private Service one;
+    private Service four;
+    private Service toggledOff;
+    private Service toggledOffJavassist;
+    private int x;
+
+    @Setup
+    public void setup() {
+        direct = InjectorImpl.builder().build().instance(Service.class);
+        one = intercepted(PASS);
+        four = intercepted(PASS, PASS, PASS, PASS);
+        toggledOff = toggled(InjectorImpl.builder());
+        toggledOffJavassist = toggled(InjectorImpl.builder().proxyBackend(ProxyBackends.JAVASSIST));
+    }
+
+    //开关关闭: 仍然经过代理, 但不调用任何拦截器
+    private static Service toggled(InjectorBuilder builder) {
+        return builder.modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(InterceptorToggle.named("bench"), Matchers.subclassesOf(Service.class), Matchers.any(), PASS, PASS, PASS, PASS);
+            }
+        }).build().instance(Service.class);
+    }
+
+    private static Service intercepted(final MethodInterceptor... interceptors) {
+        return InjectorImpl.builder().modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(Matchers.subclassesOf(Service.class), Matchers.any(), interceptors);
+            }
+        }).build().instance(Service.class);
+    }
+
+    @Benchmark
+    public int direct() {
+        return direct.work(x++);
+    }
+
+    @Benchmark
+    public int oneInterceptor() {
+        return one.work(x++);
+    }
+
+    @Benchmark
+    public int fourInterceptors() {
+        return four.work(x++);
+    }
+
+    @Benchmark
+    public int fourToggledOff() {
+        return toggledOff.work(x++);
+    }
+
+    @Benchmark
+    public int fourToggledOffJavassist() {
+        return toggledOffJavassist.work(x++);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(InterceptorBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
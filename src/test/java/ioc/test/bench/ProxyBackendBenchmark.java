@@ -0,0 +1,115 @@
+package ioc.test.bench;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.aop.AbstractMatcher;
+import lemon.needle.aop.Matchers;
+import lemon.needle.aop.ProxyBackend;
+import lemon.needle.aop.ProxyBackends;
+import lemon.needle.ioc.AbsModule;
+import lemon.needle.ioc.InjectorImpl;
+
+/**
+ * cglib和javassist生成的代理: 被拦截方法经过2个透传拦截器的调用, 未拦截方法的调用, 以及生成代理类的开销。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBackendBenchmark {
+
+    public static class Service {
+        public int work(int x) {
+            return x + 1;
+        }
+
+        public int plain(int x) {
+            return x - 1;
+        }
+    }
+
+    static final MethodInterceptor PASS = new MethodInterceptor() {
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            return invocation.proceed();
+        }
+    };
+
+    static final AbstractMatcher<Method> WORK = new AbstractMatcher<Method>() {
+        @Override
+        public boolean matches(Method method) {
+            return method.getName().equals("work");
+        }
+    };
+
+    @Param({ "CGLIB", "JAVASSIST" })
+    public String backend;
+
+    private ProxyBackend proxyBackend;
+    private Service service;
+    private int x;
+
+    @Setup
+    public void setup() {
+        proxyBackend = "JAVASSIST".equals(backend) ? ProxyBackends.JAVASSIST : ProxyBackends.CGLIB;
+        service = injector().instance(Service.class);
+    }
+
+    private InjectorImpl injector() {
+        return InjectorImpl.builder().proxyBackend(proxyBackend).modules(new AbsModule() {
+            @Override
+            public void configure() {
+                bindInterceptor(Matchers.subclassesOf(Service.class), WORK, PASS, PASS);
+            }
+        }).build();
+    }
+
+    @Benchmark
+    public int intercepted() {
+        return service.work(x++);
+    }
+
+    @Benchmark
+    public int notIntercepted() {
+        return service.plain(x++);
+    }
+
+    /**
+     * 新injector上第一次创建: javassist每次生成新类, cglib命中自身的类缓存; 单次计时, 避免生成过多的类
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 50)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Service firstInstance() {
+        return injector().instance(Service.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(ProxyBackendBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}
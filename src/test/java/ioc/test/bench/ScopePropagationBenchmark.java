@@ -0,0 +1,108 @@
+package ioc.test.bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import lemon.needle.ioc.InjectorImpl;
+import lemon.needle.ioc.scope.RequestScoped;
+import lemon.needle.ioc.scope.ScopeContext;
+import lemon.needle.ioc.scope.ScopePropagation;
+
+/**
+ * 在请求中把任务提交到单线程池: 直接提交 vs 通过 {@link ScopePropagation} 传递请求作用域后提交,
+ * 以及单独一次capture()的开销。
+ *
+ * 直接提交的任务在工作线程上拿不到请求作用域的bean, 因此只比较分发开销, 任务本身不访问bean;
+ * propagatedLookup 额外在工作线程上取一次请求作用域的bean。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopePropagationBenchmark {
+
+    @RequestScoped
+    public static class Trace {
+    }
+
+    private InjectorImpl injector;
+    private ScopePropagation propagation;
+    private ExecutorService pool;
+    private ExecutorService propagating;
+
+    private final Callable<Object> task = new Callable<Object>() {
+        @Override
+        public Object call() {
+            return Boolean.TRUE;
+        }
+    };
+
+    private final Callable<Object> lookup = new Callable<Object>() {
+        @Override
+        public Object call() {
+            return injector.instance(Trace.class);
+        }
+    };
+
+    @Setup
+    public void setup() {
+        injector = InjectorImpl.builder().build();
+        propagation = injector.getScopePropagation();
+        pool = Executors.newSingleThreadExecutor();
+        propagating = propagation.wrap(pool);
+        injector.getRequestScope().enter();
+        injector.instance(Trace.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        injector.getRequestScope().exit();
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public Object plain() throws Exception {
+        return pool.submit(task).get();
+    }
+
+    @Benchmark
+    public Object propagated() throws Exception {
+        return propagating.submit(task).get();
+    }
+
+    @Benchmark
+    public Object propagatedLookup() throws Exception {
+        return propagating.submit(lookup).get();
+    }
+
+    @Benchmark
+    public ScopeContext capture() {
+        return propagation.capture();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder().include(ScopePropagationBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build();
+        new Runner(opt).run();
+    }
+}